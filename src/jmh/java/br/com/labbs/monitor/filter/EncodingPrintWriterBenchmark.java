@@ -0,0 +1,105 @@
+package br.com.labbs.monitor.filter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a 16 KB JSON payload through an {@link EncodingPrintWriter} one char at a time and in 64 char chunks, with
+ * the encoder drained once at the end, as when the request dispatch returns, and after every write, as in auto drain
+ * mode and as the writer previously did for every request.
+ *
+ * <p>Target: {@code buffered} at least 1.5 times as fast as {@code drainEveryWrite} one char at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingPrintWriterBenchmark {
+
+    private static final int SIZE = 16 * 1024;
+
+    @Param({"1", "64"})
+    public int chunk;
+
+    private String payload;
+    private final CountingStream stream = new CountingStream();
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(SIZE);
+        while (sb.length() < SIZE) {
+            sb.append("{\"id\":12345,\"name\":\"São Paulo\",\"tags\":[\"a\",\"b\"]},");
+        }
+        payload = sb.toString();
+    }
+
+    @Benchmark
+    public long buffered() throws IOException {
+        EncodingPrintWriter writer = new EncodingPrintWriter(stream, "UTF-8");
+        write(writer);
+        writer.drain();
+        return stream.count;
+    }
+
+    @Benchmark
+    public long drainEveryWrite() throws IOException {
+        EncodingPrintWriter writer = new EncodingPrintWriter(stream, "UTF-8");
+        writer.autoDrain();
+        write(writer);
+        return stream.count;
+    }
+
+    private void write(EncodingPrintWriter writer) {
+        if (chunk == 1) {
+            for (int i = 0; i < payload.length(); i++) {
+                writer.write(payload.charAt(i));
+            }
+        } else {
+            for (int i = 0; i < payload.length(); i += chunk) {
+                writer.write(payload, i, Math.min(chunk, payload.length() - i));
+            }
+        }
+    }
+
+    /**
+     * Stream counting the bytes, as the counting stream does, and dropping them.
+     */
+    private static final class CountingStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EncodingPrintWriterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
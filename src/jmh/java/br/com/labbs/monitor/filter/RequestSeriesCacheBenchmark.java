@@ -0,0 +1,60 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.MonitorMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares recording a request through the {@link RequestSeriesCache} with resolving the labels on every request.
+ *
+ * <p>Target: {@code cachedSeries} must report {@code gc.alloc.rate.norm} of 0 B/op, i.e. the steady-state hot path
+ * allocates nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestSeriesCacheBenchmark {
+
+    private RequestSeriesCache cache;
+
+    @Setup
+    public void setUp() {
+        MonitorMetrics.INSTANCE.init(false, "benchmark", 0.1, 0.3, 1.5, 10.5);
+        cache = new RequestSeriesCache(100);
+    }
+
+    @Benchmark
+    public void cachedSeries() {
+        cache.get("http", "GET", 200, false, "/users/{id}", "").observe(0.05, 1024);
+    }
+
+    @Benchmark
+    public void labelsLookup() {
+        MonitorMetrics.INSTANCE.collectTime("http", Integer.toString(200), "GET", "/users/{id}", false, "", 0.05);
+        MonitorMetrics.INSTANCE.collectSize("http", Integer.toString(200), "GET", "/users/{id}", false, "", 1024);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestSeriesCacheBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
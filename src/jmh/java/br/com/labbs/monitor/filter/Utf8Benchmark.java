@@ -0,0 +1,85 @@
+package br.com.labbs.monitor.filter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link Utf8} length with the per-char loop previously used by {@link CountingPrintWriter}, on a 16 KB
+ * ASCII JSON payload and on a mixed-script one.
+ *
+ * <p>Target: {@code utf8Length} at least twice as fast as {@code perCharLoop} on the ASCII payload and not slower on
+ * the mixed one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Utf8Benchmark {
+
+    private static final int SIZE = 16 * 1024;
+
+    @Param({"ascii", "mixed"})
+    public String payload;
+
+    private String string;
+    private char[] chars;
+
+    @Setup
+    public void setUp() {
+        String chunk = "ascii".equals(payload)
+                ? "{\"id\":12345,\"name\":\"servlet-monitor\",\"tags\":[\"a\",\"b\"]},"
+                : "{\"name\":\"São Paulo\",\"city\":\"東京\",\"emoji\":\"😀\"},";
+        StringBuilder sb = new StringBuilder(SIZE + chunk.length());
+        while (sb.length() < SIZE) {
+            sb.append(chunk);
+        }
+        string = sb.toString();
+        chars = string.toCharArray();
+    }
+
+    @Benchmark
+    public long utf8LengthString() {
+        return Utf8.length(string, 0, string.length());
+    }
+
+    @Benchmark
+    public long utf8LengthChars() {
+        return Utf8.length(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public long perCharLoop() {
+        long sum = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char aChar = string.charAt(i);
+            if ((aChar >= 0x0001) && (aChar <= 0x007F)) {
+                sum += 1;
+            } else {
+                sum += (aChar > 0x07FF) ? 3 : 2;
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(Utf8Benchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
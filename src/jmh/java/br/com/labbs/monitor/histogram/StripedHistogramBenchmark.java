@@ -0,0 +1,69 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Histogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares recording one series from many threads with the Prometheus client {@link Histogram} and with the
+ * {@link StripedHistogram}, both resolving the labels on every observation as the filter does.
+ *
+ * <p>{@link #main(String[])} runs both at 1, 8, 32 and 64 threads. Target: the striped histogram throughput keeps
+ * scaling with the threads while the classic one flattens once the threads contend on the bucket counters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripedHistogramBenchmark {
+
+    private static final double[] BUCKETS = {0.1, 0.3, 1.5, 10.5};
+    private static final int[] THREADS = {1, 8, 32, 64};
+
+    private Histogram classic;
+    private StripedHistogram striped;
+
+    @Setup
+    public void setUp() {
+        CollectorRegistry registry = new CollectorRegistry();
+        classic = Histogram.build().name("classic_seconds").help("classic").labelNames("method", "addr")
+                .buckets(BUCKETS).register(registry);
+        striped = StripedHistogram.build().name("striped_seconds").help("striped").labelNames("method", "addr")
+                .buckets(BUCKETS).register(registry);
+    }
+
+    @Benchmark
+    public void classicHistogram() {
+        classic.labels("GET", "/users/{id}").observe(0.05);
+    }
+
+    @Benchmark
+    public void stripedHistogram() {
+        striped.labels("GET", "/users/{id}").observe(0.05);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                    .include(StripedHistogramBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package br.com.labbs.monitor;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records requests asynchronously: request threads write an event into a bounded lock-free multi-producer ring
+ * buffer and a single aggregator thread applies the events to the {@link RequestSeries}, so request threads do not
+ * contend on the histogram buckets and counters.
+ *
+ * <p>When the buffer is full the event is dropped and counted by monitor_recording_dropped_total.
+ * {@link #flush()} applies the pending events, e.g. before the metrics are scraped.
+ *
+ * @see MonitorMetrics#startAsyncRecording(int)
+ */
+public final class AsyncRecorder {
+
+    private static final long IDLE_PARK_NANOS = 1000000L;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final RequestSeries[] series;
+    private final long[] elapsedNanos;
+    private final long[] ttfbNanos;
+    private final long[] sizes;
+    private final long[] wireSizes;
+    private final long[] requestSizes;
+    private final AtomicLong tail = new AtomicLong();
+    private final Counter dropped;
+    private final Thread thread;
+    private long head;
+    private volatile boolean running = true;
+
+    /**
+     * Creates an instance of {@link AsyncRecorder}
+     *
+     * @param capacity max number of pending events, rounded up to a power of two
+     * @param dropped  counter of dropped events
+     */
+    AsyncRecorder(int capacity, Counter dropped) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.series = new RequestSeries[size];
+        this.elapsedNanos = new long[size];
+        this.ttfbNanos = new long[size];
+        this.sizes = new long[size];
+        this.wireSizes = new long[size];
+        this.requestSizes = new long[size];
+        this.dropped = dropped;
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                aggregate();
+            }
+        }, "monitor-metrics-recorder");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Adds a request event without body, whose response was sent without content encoding, to the buffer.
+     *
+     * @param requestSeries series of the request
+     * @param nanos         how long time did the request has executed, in nanoseconds
+     * @param size          the response content size
+     * @return <code>false</code> if the buffer is full and the event was dropped
+     */
+    public boolean record(RequestSeries requestSeries, long nanos, long size) {
+        return record(requestSeries, nanos, -1, size, size, 0);
+    }
+
+    /**
+     * Adds a request event to the buffer.
+     *
+     * @param requestSeries series of the request
+     * @param nanos         how long time did the request has executed, in nanoseconds
+     * @param ttfb          how long time did the request take to write or flush the first byte of the response, in
+     *                      nanoseconds, negative if no byte was written
+     * @param size          the response content size, before content encoding
+     * @param wireSize      the response size as sent, with its content encoding applied
+     * @param requestSize   the request body size
+     * @return <code>false</code> if the buffer is full and the event was dropped
+     */
+    public boolean record(RequestSeries requestSeries, long nanos, long ttfb, long size, long wireSize,
+                          long requestSize) {
+        long position;
+        int index;
+        for (;;) {
+            position = tail.get();
+            index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                dropped.inc();
+                return false;
+            }
+        }
+        series[index] = requestSeries;
+        elapsedNanos[index] = nanos;
+        ttfbNanos[index] = ttfb;
+        sizes[index] = size;
+        wireSizes[index] = wireSize;
+        requestSizes[index] = requestSize;
+        // publishes the event to the aggregator
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Applies all the events added before this call.
+     */
+    public void flush() {
+        drain(tail.get());
+    }
+
+    /**
+     * Stops the aggregator thread, applying the pending events.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void aggregate() {
+        while (running) {
+            // drains in batches, so flush() is not blocked under sustained load
+            if (drain(tail.get()) == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Applies the published events up to the given position.
+     *
+     * @return number of events applied
+     */
+    private synchronized int drain(long limit) {
+        int applied = 0;
+        while (head < limit) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                // not published yet
+                break;
+            }
+            RequestSeries requestSeries = series[index];
+            series[index] = null;
+            final long ttfb = ttfbNanos[index];
+            requestSeries.observe(elapsedNanos[index] / Collector.NANOSECONDS_PER_SECOND,
+                    ttfb < 0 ? -1 : ttfb / Collector.NANOSECONDS_PER_SECOND, sizes[index], wireSizes[index],
+                    requestSizes[index]);
+            sequences.set(index, head + mask + 1);
+            head++;
+            applied++;
+        }
+        return applied;
+    }
+}
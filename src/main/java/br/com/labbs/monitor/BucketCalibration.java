@@ -0,0 +1,264 @@
+package br.com.labbs.monitor;
+
+import br.com.labbs.monitor.filter.DebugUtil;
+import br.com.labbs.monitor.histogram.Buckets;
+import br.com.labbs.monitor.histogram.RelativeErrorSketch;
+import br.com.labbs.monitor.histogram.SketchSummary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Calibrates the buckets of the histograms from the values observed during a warmup period.
+ *
+ * <p>Until a metric is calibrated, its values are recorded into an unregistered {@link SketchSummary}. When the
+ * warmup period is over, the buckets of each metric with at least {@value #MIN_VALUES} values are derived from its
+ * sketch: {@code bucketCount} boundaries log-spaced from its 1st to its 99.9th percentile, rounded to 2 significant
+ * digits. The metrics with fewer values keep warming up for another period.
+ *
+ * <p>The buckets are locked in once calibrated and, if a file is given, persisted to it so a restart reuses them
+ * without warming up again. Persisted buckets that are not valid, e.g. edited by hand, are discarded and their metric
+ * is calibrated again. Errors reading or writing the file are logged as warnings.
+ */
+final class BucketCalibration {
+
+    static final int MIN_VALUES = 100;
+    static final double LOWEST_QUANTILE = 0.01;
+    static final double HIGHEST_QUANTILE = 0.999;
+    /* lowest boundary, for the metrics whose 1st percentile is 0 */
+    static final double MIN_BOUNDARY = 1e-6;
+    private static final Logger LOGGER = Logger.getLogger(BucketCalibration.class.getName());
+
+    private final long warmupMillis;
+    private final int bucketCount;
+    private final File file;
+    private final Map<String, double[]> layouts = new TreeMap<String, double[]>();
+    private final Map<String, SketchSummary> warmups = new LinkedHashMap<String, SketchSummary>();
+    private Timer timer;
+
+    /**
+     * Creates an instance of {@link BucketCalibration}, loading the buckets persisted in the file if it exists.
+     *
+     * @param warmupMillis length of the warmup period in milliseconds
+     * @param bucketCount  number of buckets of each metric
+     * @param file         file the buckets are persisted to, null to not persist them
+     */
+    BucketCalibration(long warmupMillis, int bucketCount, File file) {
+        this.warmupMillis = warmupMillis;
+        this.bucketCount = bucketCount;
+        this.file = file;
+        if (file != null && file.isFile()) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the buckets of a metric, if it has been calibrated.
+     *
+     * @param metricName name of the metric
+     * @return the buckets or null if the metric is not calibrated
+     */
+    synchronized double[] getBuckets(String metricName) {
+        return layouts.get(metricName);
+    }
+
+    /**
+     * Starts the warmup of a metric.
+     *
+     * @param metricName name of the metric
+     * @param labelNames label names of the metric
+     * @return the unregistered summary recording the values of the metric until it is calibrated
+     */
+    synchronized SketchSummary warmup(String metricName, String... labelNames) {
+        SketchSummary summary = SketchSummary.build().name(metricName).help(metricName).labelNames(labelNames)
+                .create();
+        warmups.put(metricName, summary);
+        return summary;
+    }
+
+    /**
+     * Runs a task at the end of each warmup period, until {@link #stop()} is executed. Does nothing if no metric is
+     * warming up.
+     *
+     * @param task calibration task
+     */
+    synchronized void start(TimerTask task) {
+        if (warmups.isEmpty() || timer != null) {
+            return;
+        }
+        timer = new Timer("monitor-metrics-calibration", true);
+        timer.scheduleAtFixedRate(task, warmupMillis, warmupMillis);
+    }
+
+    /**
+     * Stops running the calibration task.
+     */
+    synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Calibrates the metrics warming up with enough values, and persists the buckets of every calibrated metric.
+     *
+     * @return the buckets of the metrics calibrated now, by metric name
+     */
+    synchronized Map<String, double[]> calibrate() {
+        Map<String, double[]> calibrated = new LinkedHashMap<String, double[]>();
+        for (Map.Entry<String, SketchSummary> warmup : warmups.entrySet()) {
+            double[] buckets = buckets(warmup.getValue().merge(0), bucketCount);
+            if (buckets != null) {
+                calibrated.put(warmup.getKey(), buckets);
+            }
+        }
+        for (Map.Entry<String, double[]> c : calibrated.entrySet()) {
+            warmups.remove(c.getKey());
+            layouts.put(c.getKey(), c.getValue());
+            DebugUtil.debug(c.getKey() + " buckets calibrated: " + format(c.getValue()));
+        }
+        if (!calibrated.isEmpty() && file != null) {
+            store();
+        }
+        return calibrated;
+    }
+
+    /**
+     * Returns whether every metric is calibrated.
+     *
+     * @return <code>true</code> if no metric is warming up
+     */
+    synchronized boolean isDone() {
+        return warmups.isEmpty();
+    }
+
+    /**
+     * Derives buckets log-spaced from the 1st to the 99.9th percentile of the values of a sketch.
+     *
+     * @param sketch      values of the metric
+     * @param bucketCount max number of buckets
+     * @return the buckets in increasing order, or null if the sketch has fewer than {@value #MIN_VALUES} values
+     */
+    static double[] buckets(RelativeErrorSketch sketch, int bucketCount) {
+        if (sketch.getCount() < MIN_VALUES) {
+            return null;
+        }
+        final double lowest = Math.max(sketch.quantile(LOWEST_QUANTILE), MIN_BOUNDARY);
+        final double highest = Math.max(sketch.quantile(HIGHEST_QUANTILE), lowest);
+        final double ratio = bucketCount > 1 ? Math.pow(highest / lowest, 1.0 / (bucketCount - 1)) : 1;
+        double[] buckets = new double[bucketCount];
+        int n = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            double boundary = round(lowest * Math.pow(ratio, i));
+            // close percentiles make rounded boundaries collide
+            if (n == 0 || boundary > buckets[n - 1]) {
+                buckets[n++] = boundary;
+            }
+        }
+        double[] result = new double[n];
+        System.arraycopy(buckets, 0, result, 0, n);
+        return result;
+    }
+
+    private static double round(double value) {
+        return new BigDecimal(value).round(new MathContext(2)).doubleValue();
+    }
+
+    private void load() {
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+            for (String metricName : properties.stringPropertyNames()) {
+                try {
+                    layouts.put(metricName, parse(properties.getProperty(metricName)));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning("Discarding the invalid calibrated buckets of " + metricName + " in " + file
+                            + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Could not read the calibrated buckets from " + file + ": " + e.getMessage());
+        } finally {
+            close(in);
+        }
+    }
+
+    private void store() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, double[]> layout : layouts.entrySet()) {
+            properties.setProperty(layout.getKey(), format(layout.getValue()));
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            properties.store(out, "histogram buckets calibrated from the warmup traffic, delete to calibrate again");
+            out.close();
+            out = null;
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("could not rename " + temp);
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Could not write the calibrated buckets to " + file + ": " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Parses persisted buckets, which must be finite, positive and increasing.
+     *
+     * @param value comma-separated upper bounds
+     * @return the buckets
+     * @throws IllegalArgumentException if the buckets are not valid
+     */
+    private static double[] parse(String value) {
+        String[] values = value.split(",");
+        double[] buckets = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            buckets[i] = Double.parseDouble(values[i].trim());
+            if (!(buckets[i] > 0) || Double.isInfinite(buckets[i])) {
+                throw new IllegalArgumentException("Histogram buckets must be finite and positive: " + buckets[i]);
+            }
+        }
+        return Buckets.explicit(buckets);
+    }
+
+    private static String format(double[] buckets) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < buckets.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(buckets[i]);
+        }
+        return sb.toString();
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+        }
+    }
+}
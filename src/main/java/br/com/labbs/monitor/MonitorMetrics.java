@@ -3,16 +3,33 @@ package br.com.labbs.monitor;
 import br.com.labbs.monitor.dependency.DependencyChecker;
 import br.com.labbs.monitor.dependency.DependencyCheckerExecutor;
 import br.com.labbs.monitor.dependency.DependencyState;
+import br.com.labbs.monitor.histogram.Buckets;
+import br.com.labbs.monitor.histogram.ExponentialHistogram;
+import br.com.labbs.monitor.histogram.HistogramObserver;
+import br.com.labbs.monitor.histogram.HistogramType;
+import br.com.labbs.monitor.histogram.Observer;
+import br.com.labbs.monitor.histogram.RelativeErrorSketch;
+import br.com.labbs.monitor.histogram.RollingSummary;
+import br.com.labbs.monitor.histogram.RouteGroupHistogram;
+import br.com.labbs.monitor.histogram.SketchSummary;
+import br.com.labbs.monitor.histogram.StripedHistogram;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
+import io.prometheus.client.SimpleCollector;
 import io.prometheus.client.hotspot.DefaultExports;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Singleton MonitorMetrics provides the four following Prometheus metrics:
+ * Singleton MonitorMetrics provides the following Prometheus metrics:
  *
  * <pre>
  * {@code
@@ -21,16 +38,46 @@ import java.util.TimerTask;
  *    request_seconds_count{type, status, method, addr, isError}
  *    request_seconds_sum{type, status, method, addr, isError}
  *
- * The Histogram only works if buckets param was defined in web.xml
- * 
+ * RollingSummary requestSecondsWindow, only if a rolling window was set:
+ *    request_seconds_window{addr, quantile}
+ *    request_seconds_window_count{addr}
+ *    request_seconds_window_sum{addr}
+ *
+ * Histogram requestTtfbSeconds:
+ *    request_ttfb_seconds_bucket{type, status, method, addr, isError, le}
+ *    request_ttfb_seconds_count{type, status, method, addr, isError}
+ *    request_ttfb_seconds_sum{type, status, method, addr, isError}
+ *
+ * The Histogram only works if buckets param was defined in web.xml or the buckets are calibrated
+ * While the buckets of a metric are calibrated, its histogram is not exported
+ * With the STRIPED or EXPONENTIAL histogram type requestSeconds, requestTtfbSeconds and dependencyRequestSeconds
+ * are null, the same metrics are exported by a StripedHistogram or an ExponentialHistogram, which needs no buckets
+ * A StripedHistogram series takes one stripe per processor, e.g. 12 KB with 15 buckets on 64 cores
+ * With the SKETCH histogram type they are exported by a SketchSummary, which needs no buckets:
+ *    request_seconds{type, status, method, addr, isError, quantile}
+ *    request_seconds_count{type, status, method, addr, isError}
+ *    request_seconds_sum{type, status, method, addr, isError}
+ *
  * Counter responseSize:
  *    response_size_bytes{type, status, method, addr, isError}
  *
+ * Counter responseWireBytes:
+ *    response_wire_bytes{type, status, method, addr, isError}
+ *
+ * Counter requestSize:
+ *    request_size_bytes{type, status, method, addr, isError}
+ *
  * Gauge dependencyUp:
  *    dependency_up{name}
  *
  * Gauge applicationInfo:
  *    application_info{version}
+ *
+ * Counter seriesDropped, only if a series budget was set:
+ *    monitor_series_dropped_total{metric}
+ *
+ * Counter recordingDropped, only if asynchronous recording was started:
+ *    monitor_recording_dropped_total
  * }
  * </pre>
  *
@@ -41,27 +88,283 @@ public enum MonitorMetrics {
     INSTANCE;
 
     private static final String REQUESTS_SECONDS_METRIC_NAME = "request_seconds";
+    private static final String REQUESTS_SECONDS_WINDOW_METRIC_NAME = "request_seconds_window";
+    private static final String REQUEST_TTFB_SECONDS_METRIC_NAME = "request_ttfb_seconds";
     private static final String RESPONSE_SIZE_METRIC_NAME = "response_size_bytes";
+    private static final String RESPONSE_WIRE_BYTES_METRIC_NAME = "response_wire_bytes";
+    private static final String REQUEST_SIZE_METRIC_NAME = "request_size_bytes";
     private static final String DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME = "dependency_request_seconds";
     private static final String DEPENDENCY_UP_METRIC_NAME = "dependency_up";
     private static final String APPLICATION_INFO_METRIC_NAME = "application_info";
+    private static final String SERIES_DROPPED_METRIC_NAME = "monitor_series_dropped_total";
+    private static final String RECORDING_DROPPED_METRIC_NAME = "monitor_recording_dropped_total";
 
     /* Not used anymore */
     private static double[] DEFAULT_BUCKETS = { 0.1D, 0.3D, 1.5D, 10.5D };
 
     public CollectorRegistry collectorRegistry = new CollectorRegistry(true);
 
-    public Histogram requestSeconds;
+    public volatile Histogram requestSeconds;
+    public RollingSummary requestSecondsWindow;
+    public volatile Histogram requestTtfbSeconds;
     public Counter responseSize;
-    public Histogram dependencyRequestSeconds;
+    public Counter responseWireBytes;
+    public Counter requestSize;
+    public volatile Histogram dependencyRequestSeconds;
     public Gauge dependencyUp;
     public Gauge applicationInfo;
+    public Counter seriesDropped;
+    public Counter recordingDropped;
 
     private DependencyCheckerExecutor dependencyCheckerExecutor = new DependencyCheckerExecutor();
 
+    private SeriesBudget requestSecondsBudget;
+    private SeriesBudget requestSecondsWindowBudget;
+    private SeriesBudget requestTtfbSecondsBudget;
+    private SeriesBudget responseSizeBudget;
+    private SeriesBudget responseWireBytesBudget;
+    private SeriesBudget requestSizeBudget;
+    private SeriesBudget dependencyRequestSecondsBudget;
+    private final AtomicInteger seriesGeneration = new AtomicInteger();
+    private volatile AsyncRecorder asyncRecorder;
+
+    private HistogramType histogramType = HistogramType.CLASSIC;
+    private int histogramSchema = ExponentialHistogram.DEFAULT_SCHEMA;
+    private int histogramMaxBuckets = ExponentialHistogram.DEFAULT_MAX_BUCKETS;
+    private double sketchRelativeAccuracy = RelativeErrorSketch.DEFAULT_RELATIVE_ACCURACY;
+    private int rollingWindowSeconds;
+    private int rollingWindowSlices = RollingSummary.DEFAULT_SLICES;
+    private BucketCalibration bucketCalibration;
+    private final Map<String, double[]> metricBuckets = new HashMap<String, double[]>();
+    private final Map<String, double[]> routeGroupBuckets = new LinkedHashMap<String, double[]>();
+    private String contextPath = "";
+    /* replaced when their buckets are calibrated */
+    private volatile SimpleCollector<?> requestSecondsCollector;
+    private volatile SimpleCollector<?> requestTtfbSecondsCollector;
+    private volatile SimpleCollector<?> dependencyRequestSecondsCollector;
+
     private boolean noBuckets = false;
     private boolean initialized;
 
+    /**
+     * Limits the number of series of the request_seconds, request_seconds_window, request_ttfb_seconds,
+     * response_size_bytes, response_wire_bytes, request_size_bytes and dependency_request_seconds metrics. Must be
+     * executed before {@link #init(boolean, String, double...)}.
+     * <p>
+     * Once a metric has {@code maxSeries} series, new label combinations are recorded with the
+     * {@code method="__overflow__"}, {@code addr="__overflow__"} and {@code errorMessage=""} labels and counted by
+     * monitor_series_dropped_total.
+     *
+     * @param maxSeries     max number of series per metric
+     * @param maxIdleMillis time in milliseconds after which a series not recorded can be removed to make room for
+     *                      new ones, 0 to never remove series
+     */
+    public void setSeriesBudget(int maxSeries, long maxIdleMillis) {
+        if (initialized) {
+            throw new IllegalStateException("The series budget must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        requestSecondsBudget = new SeriesBudget(REQUESTS_SECONDS_METRIC_NAME, maxSeries, maxIdleMillis, 2,
+                3, seriesGeneration);
+        requestSecondsWindowBudget = new SeriesBudget(REQUESTS_SECONDS_WINDOW_METRIC_NAME, maxSeries, maxIdleMillis,
+                -1, 0, seriesGeneration);
+        requestTtfbSecondsBudget = new SeriesBudget(REQUEST_TTFB_SECONDS_METRIC_NAME, maxSeries, maxIdleMillis, 2,
+                3, seriesGeneration);
+        responseSizeBudget = new SeriesBudget(RESPONSE_SIZE_METRIC_NAME, maxSeries, maxIdleMillis, 2,
+                3, seriesGeneration);
+        responseWireBytesBudget = new SeriesBudget(RESPONSE_WIRE_BYTES_METRIC_NAME, maxSeries, maxIdleMillis, 2,
+                3, seriesGeneration);
+        requestSizeBudget = new SeriesBudget(REQUEST_SIZE_METRIC_NAME, maxSeries, maxIdleMillis, 2,
+                3, seriesGeneration);
+        dependencyRequestSecondsBudget = new SeriesBudget(DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME, maxSeries,
+                maxIdleMillis, 3, 4, seriesGeneration);
+    }
+
+    /**
+     * Sets the implementation of the request_seconds, request_ttfb_seconds and dependency_request_seconds
+     * histograms. Must be executed before {@link #init(boolean, String, double...)}.
+     * <p>
+     * The {@link HistogramType#EXPONENTIAL} and {@link HistogramType#SKETCH} metrics are created even if no buckets
+     * are given.
+     *
+     * @param histogramType histogram implementation, {@link HistogramType#CLASSIC} by default
+     */
+    public void setHistogramType(HistogramType histogramType) {
+        if (initialized) {
+            throw new IllegalStateException("The histogram type must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        this.histogramType = histogramType;
+    }
+
+    /**
+     * Sets the initial schema and the max number of buckets per series of the {@link HistogramType#EXPONENTIAL}
+     * histograms. Must be executed before {@link #init(boolean, String, double...)}.
+     *
+     * @param schema     initial schema, the growth factor of the buckets is {@code 2^(2^-schema)}
+     * @param maxBuckets max number of populated buckets per series
+     * @see ExponentialHistogram
+     */
+    public void setExponentialHistogram(int schema, int maxBuckets) {
+        if (initialized) {
+            throw new IllegalStateException("The histogram schema must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        this.histogramSchema = schema;
+        this.histogramMaxBuckets = maxBuckets;
+    }
+
+    /**
+     * Sets the relative accuracy of the quantiles of the {@link HistogramType#SKETCH} summaries. Must be executed
+     * before {@link #init(boolean, String, double...)}.
+     *
+     * @param relativeAccuracy max relative error of the quantiles, between 0 and 1 exclusive
+     * @see SketchSummary
+     */
+    public void setSketchRelativeAccuracy(double relativeAccuracy) {
+        if (initialized) {
+            throw new IllegalStateException("The sketch accuracy must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        this.sketchRelativeAccuracy = relativeAccuracy;
+    }
+
+    /**
+     * Records the request_seconds of the last time window per route, in a ring of time slices, exported as the
+     * request_seconds_window summary and read by {@link #recentRequestSeconds(String)}. Must be executed before
+     * {@link #init(boolean, String, double...)}.
+     *
+     * @param windowSeconds length of the window in seconds
+     * @param slices        number of slices of the window
+     * @see RollingSummary
+     */
+    public void setRollingWindow(int windowSeconds, int slices) {
+        if (initialized) {
+            throw new IllegalStateException("The rolling window must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        this.rollingWindowSeconds = windowSeconds;
+        this.rollingWindowSlices = slices;
+    }
+
+    /**
+     * Returns the request_seconds of the last time window of a route, e.g. to shed load when its p99 gets too high.
+     * A route recorded into the overflow series of the series budget has no values of its own.
+     *
+     * @param addr the requested endpoint address, null to merge every route
+     * @return a new sketch or null if no rolling window was set
+     */
+    public RelativeErrorSketch recentRequestSeconds(String addr) {
+        if (requestSecondsWindow == null) {
+            return null;
+        }
+        return addr == null ? requestSecondsWindow.windowOfAll() : requestSecondsWindow.window(addr);
+    }
+
+    /**
+     * Returns the request_seconds sketches of every series of a route merged into one, so its latency quantiles can
+     * be computed whatever the status or the method.
+     *
+     * @param addr the requested endpoint address, null to merge every route
+     * @return a new sketch or null if the histogram type is not {@link HistogramType#SKETCH}
+     */
+    public RelativeErrorSketch mergedRequestSeconds(String addr) {
+        if (!(requestSecondsCollector instanceof SketchSummary)) {
+            return null;
+        }
+        SketchSummary summary = (SketchSummary) requestSecondsCollector;
+        return addr == null ? summary.merge(0) : summary.merge(3, addr);
+    }
+
+    /**
+     * Sets the buckets of one of the request_seconds, request_ttfb_seconds and dependency_request_seconds histograms,
+     * instead of the buckets given to {@link #init(boolean, String, double...)}, e.g. with
+     * {@link Buckets#exponential(double, double, int)}. These buckets are not calibrated. Must be executed before
+     * {@link #init(boolean, String, double...)}.
+     *
+     * @param metricName name of the histogram
+     * @param buckets    upper bounds of the buckets in increasing order
+     * @throws IllegalArgumentException if the histogram does not exist or the buckets are not in increasing order
+     */
+    public void setBuckets(String metricName, double... buckets) {
+        if (initialized) {
+            throw new IllegalStateException("The buckets must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        if (!REQUESTS_SECONDS_METRIC_NAME.equals(metricName) && !REQUEST_TTFB_SECONDS_METRIC_NAME.equals(metricName)
+                && !DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME.equals(metricName)) {
+            throw new IllegalArgumentException("No histogram named '" + metricName + "'");
+        }
+        metricBuckets.put(metricName, Buckets.explicit(buckets));
+    }
+
+    /**
+     * Adds a route group to the request_seconds and request_ttfb_seconds histograms: their series whose
+     * {@code addr} matches the pattern get the given buckets instead of the buckets of the histogram. The groups
+     * are matched in the order they are added. Only applies to the {@link HistogramType#CLASSIC} and
+     * {@link HistogramType#STRIPED} histograms, whose series are then {@link StripedHistogram} series. Must be
+     * executed before {@link #init(boolean, String, double...)}.
+     *
+     * @param pattern plain path prefix or glob pattern, e.g. {@code /search/**}
+     * @param buckets upper bounds of the buckets of the group in increasing order
+     * @throws IllegalArgumentException if the buckets are not in increasing order
+     * @see RouteGroupHistogram
+     */
+    public void addRouteGroup(String pattern, double... buckets) {
+        if (initialized) {
+            throw new IllegalStateException("The route groups must be added before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        routeGroupBuckets.put(pattern, Buckets.explicit(buckets));
+    }
+
+    /**
+     * Sets the context path the {@code addr} labels start with: the route group patterns are matched after it, as
+     * the exclusions of the filter. Must be executed before {@link #init(boolean, String, double...)}.
+     *
+     * @param contextPath context path of the application, empty for the root context
+     * @see #addRouteGroup(String, double...)
+     */
+    public void setContextPath(String contextPath) {
+        if (initialized) {
+            throw new IllegalStateException("The context path must be set before the MonitorMetrics.INSTANCE.init "
+                    + "method is executed");
+        }
+        this.contextPath = contextPath == null ? "" : contextPath;
+    }
+
+    /**
+     * Calibrates the buckets of the request_seconds, request_ttfb_seconds and dependency_request_seconds histograms
+     * from the values observed during a warmup period, instead of the buckets given to
+     * {@link #init(boolean, String, double...)}. Only applies to the {@link HistogramType#CLASSIC} and
+     * {@link HistogramType#STRIPED} histograms. Must be executed before {@link #init(boolean, String, double...)}.
+     * <p>
+     * Each histogram is created once its buckets are calibrated, the values observed during the warmup are not
+     * exported. The buckets persisted in the file by a previous run are used without warming up again.
+     *
+     * @param warmupSeconds length of the warmup period in seconds
+     * @param bucketCount   number of buckets of each histogram
+     * @param file          path of the file the buckets are persisted to, null to not persist them
+     * @see BucketCalibration
+     */
+    public void setBucketCalibration(int warmupSeconds, int bucketCount, String file) {
+        if (initialized) {
+            throw new IllegalStateException("The bucket calibration must be set before the "
+                    + "MonitorMetrics.INSTANCE.init method is executed");
+        }
+        bucketCalibration = new BucketCalibration(warmupSeconds * 1000L, bucketCount,
+                file == null ? null : new File(file));
+    }
+
+    /**
+     * Stops calibrating the buckets, the histograms not calibrated yet are never exported.
+     */
+    public void stopBucketCalibration() {
+        if (bucketCalibration != null) {
+            bucketCalibration.stop();
+        }
+    }
+
     /**
      * Initialize metric collectors
      *
@@ -74,25 +377,94 @@ public enum MonitorMetrics {
             throw new IllegalStateException("The MonitorMetrics instance has already been initialized. "
                     + "The MonitorMetrics.INSTANCE.init method must be executed only once");
         }
-        if (buckets == null || buckets.length == 0) {
+        final boolean calibrating = bucketCalibration != null
+                && (histogramType == HistogramType.CLASSIC || histogramType == HistogramType.STRIPED);
+        if ((buckets == null || buckets.length == 0) && metricBuckets.isEmpty() && routeGroupBuckets.isEmpty()
+                && histogramType != HistogramType.EXPONENTIAL && histogramType != HistogramType.SKETCH
+                && !calibrating) {
             noBuckets = true;
         }
 
-        if (!noBuckets) {
-            requestSeconds = Histogram.build().name(REQUESTS_SECONDS_METRIC_NAME)
+        if (calibrating) {
+            calibrateBuckets();
+            bucketCalibration.start(new TimerTask() {
+                @Override
+                public void run() {
+                    calibrateBuckets();
+                }
+            });
+        } else if (histogramType == HistogramType.SKETCH) {
+            requestSecondsCollector = SketchSummary.build().name(REQUESTS_SECONDS_METRIC_NAME)
+                    .help("records in a summary the number of http requests and their duration in seconds")
+                    .labelNames("type", "status", "method", "addr", "isError", "errorMessage")
+                    .relativeAccuracy(sketchRelativeAccuracy).register(collectorRegistry);
+
+            requestTtfbSecondsCollector = SketchSummary.build().name(REQUEST_TTFB_SECONDS_METRIC_NAME)
+                    .help("records in a summary the number of http requests and the time in seconds until the "
+                            + "first byte of their response was written")
+                    .labelNames("type", "status", "method", "addr", "isError", "errorMessage")
+                    .relativeAccuracy(sketchRelativeAccuracy).register(collectorRegistry);
+
+            dependencyRequestSecondsCollector = SketchSummary.build().name(DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME)
+                    .help("records in a summary the number of requests of a dependency and their duration in seconds")
+                    .labelNames("name", "type", "status", "method", "addr", "isError", "errorMessage")
+                    .relativeAccuracy(sketchRelativeAccuracy).register(collectorRegistry);
+        } else if (histogramType == HistogramType.EXPONENTIAL) {
+            requestSecondsCollector = ExponentialHistogram.build().name(REQUESTS_SECONDS_METRIC_NAME)
                     .help("records in a histogram the number of http requests and their duration in seconds")
-                    .labelNames("type", "status", "method", "addr", "isError", "errorMessage").buckets(buckets)
-                    .register(collectorRegistry);
+                    .labelNames("type", "status", "method", "addr", "isError", "errorMessage")
+                    .schema(histogramSchema).maxBuckets(histogramMaxBuckets).register(collectorRegistry);
+
+            requestTtfbSecondsCollector = ExponentialHistogram.build().name(REQUEST_TTFB_SECONDS_METRIC_NAME)
+                    .help("records in a histogram the number of http requests and the time in seconds until the "
+                            + "first byte of their response was written")
+                    .labelNames("type", "status", "method", "addr", "isError", "errorMessage")
+                    .schema(histogramSchema).maxBuckets(histogramMaxBuckets).register(collectorRegistry);
 
-            dependencyRequestSeconds = Histogram.build().name(DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME)
+            dependencyRequestSecondsCollector = ExponentialHistogram.build()
+                    .name(DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME)
                     .help("records in a histogram the number of requests of a dependency and their duration in seconds")
-                    .labelNames("name", "type", "status", "method", "addr", "isError", "errorMessage").buckets(buckets)
-                    .register(collectorRegistry);
+                    .labelNames("name", "type", "status", "method", "addr", "isError", "errorMessage")
+                    .schema(histogramSchema).maxBuckets(histogramMaxBuckets).register(collectorRegistry);
+        } else if (!noBuckets) {
+            requestSecondsCollector = bucketHistogram(REQUESTS_SECONDS_METRIC_NAME,
+                    "records in a histogram the number of http requests and their duration in seconds",
+                    bucketsOf(REQUESTS_SECONDS_METRIC_NAME, buckets),
+                    "type", "status", "method", "addr", "isError", "errorMessage");
+            requestSeconds = histogramOrNull(requestSecondsCollector);
+
+            requestTtfbSecondsCollector = bucketHistogram(REQUEST_TTFB_SECONDS_METRIC_NAME,
+                    "records in a histogram the number of http requests and the time in seconds until the "
+                            + "first byte of their response was written",
+                    bucketsOf(REQUEST_TTFB_SECONDS_METRIC_NAME, buckets),
+                    "type", "status", "method", "addr", "isError", "errorMessage");
+            requestTtfbSeconds = histogramOrNull(requestTtfbSecondsCollector);
+
+            dependencyRequestSecondsCollector = bucketHistogram(DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME,
+                    "records in a histogram the number of requests of a dependency and their duration in seconds",
+                    bucketsOf(DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME, buckets),
+                    "name", "type", "status", "method", "addr", "isError", "errorMessage");
+            dependencyRequestSeconds = histogramOrNull(dependencyRequestSecondsCollector);
+        }
+
+        if (rollingWindowSeconds > 0) {
+            requestSecondsWindow = RollingSummary.build().name(REQUESTS_SECONDS_WINDOW_METRIC_NAME)
+                    .help("records in a summary the duration in seconds of the http requests of the last "
+                            + rollingWindowSeconds + " seconds")
+                    .labelNames("addr").windowSeconds(rollingWindowSeconds).slices(rollingWindowSlices)
+                    .relativeAccuracy(sketchRelativeAccuracy).register(collectorRegistry);
         }
 
         responseSize = Counter.build().name(RESPONSE_SIZE_METRIC_NAME).help("counts the size of each http response")
                 .labelNames("type", "status", "method", "addr", "isError", "errorMessage").register(collectorRegistry);
 
+        responseWireBytes = Counter.build().name(RESPONSE_WIRE_BYTES_METRIC_NAME)
+                .help("counts the bytes of each http response as sent, with its content encoding applied")
+                .labelNames("type", "status", "method", "addr", "isError", "errorMessage").register(collectorRegistry);
+
+        requestSize = Counter.build().name(REQUEST_SIZE_METRIC_NAME).help("counts the size of each http request body")
+                .labelNames("type", "status", "method", "addr", "isError", "errorMessage").register(collectorRegistry);
+
         dependencyUp = Gauge.build().name(DEPENDENCY_UP_METRIC_NAME)
                 .help("records if a dependency is up or down. 1 for up, 0 for down").labelNames("name")
                 .register(collectorRegistry);
@@ -102,6 +474,13 @@ public enum MonitorMetrics {
         // register the application version on application_info metric
         applicationInfo.labels(applicationVersion).set(1);
 
+        if (requestSecondsBudget != null) {
+            seriesDropped = Counter.build().name(SERIES_DROPPED_METRIC_NAME)
+                    .help("counts the label combinations recorded into the overflow series of a metric "
+                            + "because its series budget was full")
+                    .labelNames("metric").register(collectorRegistry);
+        }
+
         if (collectJvmMetrics) {
             DefaultExports.register(collectorRegistry);
         }
@@ -109,6 +488,221 @@ public enum MonitorMetrics {
         initialized = true;
     }
 
+    /**
+     * Creates the histograms of the metrics whose buckets are calibrated, the metrics not calibrated yet are recorded
+     * into unregistered warmup summaries. Executed by init and at the end of each warmup period.
+     */
+    private synchronized void calibrateBuckets() {
+        bucketCalibration.calibrate();
+        final SimpleCollector<?> previous = requestSecondsCollector;
+        final SimpleCollector<?> previousTtfb = requestTtfbSecondsCollector;
+        final SimpleCollector<?> previousDependency = dependencyRequestSecondsCollector;
+        requestSecondsCollector = calibratedHistogram(requestSecondsCollector, REQUESTS_SECONDS_METRIC_NAME,
+                "records in a histogram the number of http requests and their duration in seconds",
+                "type", "status", "method", "addr", "isError", "errorMessage");
+        requestSeconds = histogramOrNull(requestSecondsCollector);
+        requestTtfbSecondsCollector = calibratedHistogram(requestTtfbSecondsCollector,
+                REQUEST_TTFB_SECONDS_METRIC_NAME,
+                "records in a histogram the number of http requests and the time in seconds until the "
+                        + "first byte of their response was written",
+                "type", "status", "method", "addr", "isError", "errorMessage");
+        requestTtfbSeconds = histogramOrNull(requestTtfbSecondsCollector);
+        dependencyRequestSecondsCollector = calibratedHistogram(dependencyRequestSecondsCollector,
+                DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME,
+                "records in a histogram the number of requests of a dependency and their duration in seconds",
+                "name", "type", "status", "method", "addr", "isError", "errorMessage");
+        dependencyRequestSeconds = histogramOrNull(dependencyRequestSecondsCollector);
+        if (previous != requestSecondsCollector || previousTtfb != requestTtfbSecondsCollector
+                || previousDependency != dependencyRequestSecondsCollector) {
+            // the series bound to the warmup summaries must be bound again
+            seriesGeneration.incrementAndGet();
+        }
+        if (bucketCalibration.isDone()) {
+            bucketCalibration.stop();
+        }
+    }
+
+    /**
+     * Returns the histogram of a metric if its buckets are calibrated, otherwise its warmup summary.
+     *
+     * @param current current collector of the metric, null if none was created yet
+     */
+    private SimpleCollector<?> calibratedHistogram(SimpleCollector<?> current, String name, String help,
+            String... labelNames) {
+        if (current != null && !(current instanceof SketchSummary)) {
+            return current;
+        }
+        double[] buckets = metricBuckets.containsKey(name) ? metricBuckets.get(name)
+                : bucketCalibration.getBuckets(name);
+        if (buckets != null) {
+            return bucketHistogram(name, help, buckets, labelNames);
+        }
+        return current != null ? current : bucketCalibration.warmup(name, labelNames);
+    }
+
+    /**
+     * Returns the buckets of a histogram: its own buckets if they were set, otherwise the given ones.
+     *
+     * @return upper bounds of the buckets, null if the histogram has none
+     */
+    private double[] bucketsOf(String name, double[] buckets) {
+        if (metricBuckets.containsKey(name)) {
+            return metricBuckets.get(name);
+        }
+        return buckets == null || buckets.length == 0 ? null : buckets;
+    }
+
+    /**
+     * Creates and registers a histogram of the {@link HistogramType#CLASSIC} or {@link HistogramType#STRIPED} type,
+     * or a {@link RouteGroupHistogram} for the request histograms if route groups were added.
+     *
+     * @return the histogram, null if it has no buckets and so is not recorded
+     */
+    private SimpleCollector<?> bucketHistogram(String name, String help, double[] buckets, String... labelNames) {
+        if (buckets == null) {
+            return null;
+        }
+        if (!routeGroupBuckets.isEmpty() && !DEPENDENCY_REQUESTS_SECONDS_METRIC_NAME.equals(name)) {
+            RouteGroupHistogram.Builder builder = RouteGroupHistogram.build().name(name).help(help)
+                    .labelNames(labelNames).buckets(buckets).contextPath(contextPath);
+            for (Map.Entry<String, double[]> group : routeGroupBuckets.entrySet()) {
+                builder.group(group.getKey(), group.getValue());
+            }
+            return builder.register(collectorRegistry);
+        }
+        if (histogramType == HistogramType.STRIPED) {
+            return StripedHistogram.build().name(name).help(help).labelNames(labelNames).buckets(buckets)
+                    .register(collectorRegistry);
+        }
+        return Histogram.build().name(name).help(help).labelNames(labelNames).buckets(buckets)
+                .register(collectorRegistry);
+    }
+
+    private static Histogram histogramOrNull(SimpleCollector<?> collector) {
+        return collector instanceof Histogram ? (Histogram) collector : null;
+    }
+
+    /**
+     * Binds the request_seconds, request_seconds_window, request_ttfb_seconds, response_size_bytes,
+     * response_wire_bytes and request_size_bytes series of a label combination, applying the series budget.
+     * The returned series stay valid while {@link #getSeriesGeneration()} does not change.
+     *
+     * @param type         which request protocol was used (e.g. grpc or http)
+     * @param status       the response status(e.g. response HTTP status code)
+     * @param method       the request method(e.g. HTTP methods GET, POST, PUT)
+     * @param addr         the requested endpoint address
+     * @param isError      if the status code reported is an error or not
+     * @param errorMessage the error message from a request with error
+     * @return the bound series or null if this instance has not been initialized
+     */
+    public RequestSeries requestSeries(String type, String status, String method, String addr, boolean isError,
+            String errorMessage) {
+        if (!initialized) {
+            return null;
+        }
+        final String[] labelValues = {type, status, method, addr, Boolean.toString(isError), errorMessage};
+        final RequestSeries.Builder series = RequestSeries.build();
+        boolean overflow = false;
+        // each histogram is only recorded if it has buckets
+        final SimpleCollector<?> secondsCollector = requestSecondsCollector;
+        if (secondsCollector != null) {
+            String[] secondsLabels = admit(requestSecondsBudget, secondsCollector, labelValues);
+            overflow = secondsLabels != labelValues;
+            series.requestSeconds(observer(secondsCollector, secondsLabels),
+                    lastSeen(requestSecondsBudget, secondsLabels));
+        }
+        final SimpleCollector<?> ttfbCollector = requestTtfbSecondsCollector;
+        if (ttfbCollector != null) {
+            String[] ttfbLabels = admit(requestTtfbSecondsBudget, ttfbCollector, labelValues);
+            overflow |= ttfbLabels != labelValues;
+            series.requestTtfbSeconds(observer(ttfbCollector, ttfbLabels), lastSeen(requestTtfbSecondsBudget,
+                    ttfbLabels));
+        }
+        if (requestSecondsWindow != null) {
+            final String[] windowValues = {addr};
+            String[] windowLabels = admit(requestSecondsWindowBudget, requestSecondsWindow, windowValues);
+            overflow |= windowLabels != windowValues;
+            series.requestSecondsWindow(requestSecondsWindow.labels(windowLabels),
+                    lastSeen(requestSecondsWindowBudget, windowLabels));
+        }
+        String[] sizeLabels = admit(responseSizeBudget, responseSize, labelValues);
+        overflow |= sizeLabels != labelValues;
+        series.responseSize(responseSize.labels(sizeLabels), lastSeen(responseSizeBudget, sizeLabels));
+        String[] wireLabels = admit(responseWireBytesBudget, responseWireBytes, labelValues);
+        overflow |= wireLabels != labelValues;
+        series.responseWireBytes(responseWireBytes.labels(wireLabels), lastSeen(responseWireBytesBudget, wireLabels));
+        String[] requestSizeLabels = admit(requestSizeBudget, requestSize, labelValues);
+        overflow |= requestSizeLabels != labelValues;
+        series.requestSize(requestSize.labels(requestSizeLabels), lastSeen(requestSizeBudget, requestSizeLabels));
+        return series.overflow(overflow).create();
+    }
+
+    /**
+     * Returns the last time an admitted series was recorded, see {@link SeriesBudget#lastSeen(String...)}.
+     *
+     * @param budget      series budget of the metric, null if not set
+     * @param labelValues label values returned by the budget
+     * @return last time in milliseconds the series was recorded, or null if it does not need to be updated
+     */
+    private static AtomicLong lastSeen(SeriesBudget budget, String[] labelValues) {
+        return budget == null ? null : budget.lastSeen(labelValues);
+    }
+
+    /**
+     * Returns a number that changes whenever series are removed from the metrics, invalidating the series
+     * previously bound by {@link #requestSeries(String, String, String, String, boolean, String)}.
+     *
+     * @return current series generation
+     */
+    public int getSeriesGeneration() {
+        return seriesGeneration.get();
+    }
+
+    /**
+     * Starts recording requests asynchronously through an {@link AsyncRecorder}, whose events are applied by a
+     * single aggregator thread. Must be executed after {@link #init(boolean, String, double...)}.
+     *
+     * @param bufferSize max number of pending events, events are dropped when the buffer is full
+     * @return the started recorder
+     */
+    public synchronized AsyncRecorder startAsyncRecording(int bufferSize) {
+        if (!initialized) {
+            throw new IllegalStateException("The MonitorMetrics.INSTANCE.init method must be executed before "
+                    + "starting the asynchronous recording");
+        }
+        if (asyncRecorder != null) {
+            throw new IllegalStateException("The asynchronous recording has already been started");
+        }
+        recordingDropped = Counter.build().name(RECORDING_DROPPED_METRIC_NAME)
+                .help("counts the requests not recorded because the asynchronous recording buffer was full")
+                .register(collectorRegistry);
+        AsyncRecorder recorder = new AsyncRecorder(bufferSize, recordingDropped);
+        recorder.start();
+        asyncRecorder = recorder;
+        return recorder;
+    }
+
+    /**
+     * Stops the asynchronous recording, if it was started, applying the pending events.
+     */
+    public synchronized void stopAsyncRecording() {
+        if (asyncRecorder != null) {
+            asyncRecorder.stop();
+            asyncRecorder = null;
+        }
+    }
+
+    /**
+     * Applies the requests pending in the asynchronous recording buffer, if the asynchronous recording was started.
+     * Executed before the metrics are exported.
+     */
+    public void flush() {
+        AsyncRecorder recorder = asyncRecorder;
+        if (recorder != null) {
+            recorder.flush();
+        }
+    }
+
     /**
      * Collect latency metric request_seconds
      *
@@ -122,12 +716,37 @@ public enum MonitorMetrics {
      */
     public void collectTime(String type, String status, String method, String addr, boolean isError,
             String errorMessage, double elapsedSeconds) {
-        if (initialized && !noBuckets) {
-            requestSeconds.labels(type, status, method, addr, Boolean.toString(isError), errorMessage)
+        final SimpleCollector<?> collector = requestSecondsCollector;
+        if (initialized && collector != null) {
+            observe(collector, elapsedSeconds, admit(requestSecondsBudget, collector, type, status, method, addr,
+                    Boolean.toString(isError), errorMessage));
+        }
+        if (initialized && requestSecondsWindow != null) {
+            requestSecondsWindow.labels(admit(requestSecondsWindowBudget, requestSecondsWindow, addr))
                     .observe(elapsedSeconds);
         }
     }
 
+    /**
+     * Collect latency metric request_ttfb_seconds
+     *
+     * @param type         which request protocol was used (e.g. grpc or http)
+     * @param status       the response status(e.g. response HTTP status code)
+     * @param method       the request method(e.g. HTTP methods GET, POST, PUT)
+     * @param addr         the requested endpoint address
+     * @param isError      if the status code reported is an error or not
+     * @param errorMessage the error message from a request with error
+     * @param ttfbSeconds  how long time did the request take to write or flush the first byte of the response
+     */
+    public void collectTtfb(String type, String status, String method, String addr, boolean isError,
+            String errorMessage, double ttfbSeconds) {
+        final SimpleCollector<?> collector = requestTtfbSecondsCollector;
+        if (initialized && collector != null) {
+            observe(collector, ttfbSeconds, admit(requestTtfbSecondsBudget, collector, type, status, method, addr,
+                    Boolean.toString(isError), errorMessage));
+        }
+    }
+
     /**
      * Collect size metric response_size_bytes
      *
@@ -142,8 +761,46 @@ public enum MonitorMetrics {
     public void collectSize(String type, String status, String method, String addr, boolean isError,
             String errorMessage, final long size) {
         if (initialized) {
-            MonitorMetrics.INSTANCE.responseSize
-                    .labels(type, status, method, addr, Boolean.toString(isError), errorMessage).inc(size);
+            MonitorMetrics.INSTANCE.responseSize.labels(admit(responseSizeBudget, responseSize, type, status, method,
+                    addr, Boolean.toString(isError), errorMessage)).inc(size);
+        }
+    }
+
+    /**
+     * Collect size metric response_wire_bytes
+     *
+     * @param type         which request protocol was used (e.g. grpc or http)
+     * @param status       the response status(e.g. response HTTP status code)
+     * @param method       the request method(e.g. HTTP methods GET, POST, PUT)
+     * @param addr         the requested endpoint address
+     * @param isError      if the status code reported is an error or not
+     * @param errorMessage the error message from a request with error
+     * @param size         the response size as sent, with its content encoding applied
+     */
+    public void collectWireSize(String type, String status, String method, String addr, boolean isError,
+            String errorMessage, final long size) {
+        if (initialized) {
+            responseWireBytes.labels(admit(responseWireBytesBudget, responseWireBytes, type, status, method, addr,
+                    Boolean.toString(isError), errorMessage)).inc(size);
+        }
+    }
+
+    /**
+     * Collect size metric request_size_bytes
+     *
+     * @param type         which request protocol was used (e.g. grpc or http)
+     * @param status       the response status(e.g. response HTTP status code)
+     * @param method       the request method(e.g. HTTP methods GET, POST, PUT)
+     * @param addr         the requested endpoint address
+     * @param isError      if the status code reported is an error or not
+     * @param errorMessage the error message from a request with error
+     * @param size         the request body size
+     */
+    public void collectRequestSize(String type, String status, String method, String addr, boolean isError,
+            String errorMessage, final long size) {
+        if (initialized) {
+            requestSize.labels(admit(requestSizeBudget, requestSize, type, status, method, addr,
+                    Boolean.toString(isError), errorMessage)).inc(size);
         }
     }
 
@@ -161,10 +818,54 @@ public enum MonitorMetrics {
      */
     public void collectDependencyTime(String name, String type, String status, String method, String addr,
             boolean isError, String errorMessage, double elapsedSeconds) {
-        if (initialized && !noBuckets) {
-            dependencyRequestSeconds.labels(name, type, status, method, addr, Boolean.toString(isError), errorMessage)
-                    .observe(elapsedSeconds);
+        final SimpleCollector<?> collector = dependencyRequestSecondsCollector;
+        if (initialized && collector != null) {
+            observe(collector, elapsedSeconds, admit(dependencyRequestSecondsBudget, collector, name, type, status,
+                    method, addr, Boolean.toString(isError), errorMessage));
+        }
+    }
+
+    /**
+     * Returns the label values to be recorded, applying the series budget if it was set.
+     *
+     * @param budget      series budget of the metric, null if not set
+     * @param collector   metric to be recorded
+     * @param labelValues label values of the series
+     * @return label values of the series or of the overflow series
+     */
+    private String[] admit(SeriesBudget budget, SimpleCollector<?> collector, String... labelValues) {
+        return budget == null ? labelValues : budget.admit(collector, seriesDropped, labelValues);
+    }
+
+    /**
+     * Records an observation into a series of a histogram of any {@link HistogramType}.
+     *
+     * @param collector   {@link Histogram} or collector whose children are {@link Observer}s
+     * @param value       observed value
+     * @param labelValues label values of the series
+     */
+    private static void observe(SimpleCollector<?> collector, double value, String... labelValues) {
+        Object child = collector.labels(labelValues);
+        if (child instanceof Observer) {
+            ((Observer) child).observe(value);
+        } else {
+            ((Histogram.Child) child).observe(value);
+        }
+    }
+
+    /**
+     * Returns the {@link Observer} of a series of a histogram of any {@link HistogramType}.
+     *
+     * @param collector   {@link Histogram} or collector whose children are {@link Observer}s
+     * @param labelValues label values of the series
+     * @return observer of the series
+     */
+    private static Observer observer(SimpleCollector<?> collector, String... labelValues) {
+        Object child = collector.labels(labelValues);
+        if (child instanceof Observer) {
+            return (Observer) child;
         }
+        return new HistogramObserver((Histogram.Child) child);
     }
 
     /**
@@ -0,0 +1,201 @@
+package br.com.labbs.monitor;
+
+import br.com.labbs.monitor.histogram.Observer;
+import io.prometheus.client.Counter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The request_seconds, request_seconds_window, request_ttfb_seconds, response_size_bytes, response_wire_bytes and
+ * request_size_bytes series of one label combination, bound once so they can be recorded
+ * without resolving the labels again.
+ *
+ * @see MonitorMetrics#requestSeries(String, String, String, String, boolean, String)
+ */
+public final class RequestSeries {
+
+    private final Observer requestSeconds;
+    private final AtomicLong requestSecondsLastSeen;
+    private final Observer requestSecondsWindow;
+    private final AtomicLong requestSecondsWindowLastSeen;
+    private final Observer requestTtfbSeconds;
+    private final AtomicLong requestTtfbSecondsLastSeen;
+    private final Counter.Child responseSize;
+    private final AtomicLong responseSizeLastSeen;
+    private final Counter.Child responseWireBytes;
+    private final AtomicLong responseWireBytesLastSeen;
+    private final Counter.Child requestSize;
+    private final AtomicLong requestSizeLastSeen;
+    private final boolean overflow;
+
+    private RequestSeries(Builder b) {
+        this.requestSeconds = b.requestSeconds;
+        this.requestSecondsLastSeen = b.requestSecondsLastSeen;
+        this.requestSecondsWindow = b.requestSecondsWindow;
+        this.requestSecondsWindowLastSeen = b.requestSecondsWindowLastSeen;
+        this.requestTtfbSeconds = b.requestTtfbSeconds;
+        this.requestTtfbSecondsLastSeen = b.requestTtfbSecondsLastSeen;
+        this.responseSize = b.responseSize;
+        this.responseSizeLastSeen = b.responseSizeLastSeen;
+        this.responseWireBytes = b.responseWireBytes;
+        this.responseWireBytesLastSeen = b.responseWireBytesLastSeen;
+        this.requestSize = b.requestSize;
+        this.requestSizeLastSeen = b.requestSizeLastSeen;
+        this.overflow = b.overflow;
+    }
+
+    static Builder build() {
+        return new Builder();
+    }
+
+    /**
+     * Builder of the series of one label combination. Each series is given with the last time it was recorded, to
+     * be updated on every observation, or null if idle series are never evicted. Only the response_size_bytes
+     * series is required.
+     */
+    static final class Builder {
+
+        private Observer requestSeconds;
+        private AtomicLong requestSecondsLastSeen;
+        private Observer requestSecondsWindow;
+        private AtomicLong requestSecondsWindowLastSeen;
+        private Observer requestTtfbSeconds;
+        private AtomicLong requestTtfbSecondsLastSeen;
+        private Counter.Child responseSize;
+        private AtomicLong responseSizeLastSeen;
+        private Counter.Child responseWireBytes;
+        private AtomicLong responseWireBytesLastSeen;
+        private Counter.Child requestSize;
+        private AtomicLong requestSizeLastSeen;
+        private boolean overflow;
+
+        private Builder() {
+        }
+
+        Builder requestSeconds(Observer series, AtomicLong lastSeen) {
+            this.requestSeconds = series;
+            this.requestSecondsLastSeen = lastSeen;
+            return this;
+        }
+
+        Builder requestSecondsWindow(Observer series, AtomicLong lastSeen) {
+            this.requestSecondsWindow = series;
+            this.requestSecondsWindowLastSeen = lastSeen;
+            return this;
+        }
+
+        Builder requestTtfbSeconds(Observer series, AtomicLong lastSeen) {
+            this.requestTtfbSeconds = series;
+            this.requestTtfbSecondsLastSeen = lastSeen;
+            return this;
+        }
+
+        Builder responseSize(Counter.Child series, AtomicLong lastSeen) {
+            this.responseSize = series;
+            this.responseSizeLastSeen = lastSeen;
+            return this;
+        }
+
+        Builder responseWireBytes(Counter.Child series, AtomicLong lastSeen) {
+            this.responseWireBytes = series;
+            this.responseWireBytesLastSeen = lastSeen;
+            return this;
+        }
+
+        Builder requestSize(Counter.Child series, AtomicLong lastSeen) {
+            this.requestSize = series;
+            this.requestSizeLastSeen = lastSeen;
+            return this;
+        }
+
+        /**
+         * Sets whether any of the series is an overflow series because the series budget was full.
+         */
+        Builder overflow(boolean overflow) {
+            this.overflow = overflow;
+            return this;
+        }
+
+        RequestSeries create() {
+            if (responseSize == null) {
+                throw new IllegalStateException("Request series must have a response size series.");
+            }
+            return new RequestSeries(this);
+        }
+    }
+
+    /**
+     * Records a request without body, whose response was sent without content encoding.
+     *
+     * @param elapsedSeconds how long time did the request has executed
+     * @param size           the response content size
+     */
+    public void observe(double elapsedSeconds, long size) {
+        observe(elapsedSeconds, -1, size, size, 0);
+    }
+
+    /**
+     * Records a request.
+     *
+     * @param elapsedSeconds how long time did the request has executed
+     * @param ttfbSeconds    how long time did the request take to write or flush the first byte of the response,
+     *                       negative if no byte was written
+     * @param size           the response content size, before content encoding
+     * @param wireSize       the response size as sent, with its content encoding applied
+     * @param requestSize    the request body size
+     */
+    public void observe(double elapsedSeconds, double ttfbSeconds, long size, long wireSize, long requestSize) {
+        if (requestSeconds != null) {
+            requestSeconds.observe(elapsedSeconds);
+        }
+        if (requestSecondsWindow != null) {
+            requestSecondsWindow.observe(elapsedSeconds);
+        }
+        if (requestTtfbSeconds != null && ttfbSeconds >= 0) {
+            requestTtfbSeconds.observe(ttfbSeconds);
+        }
+        responseSize.inc(size);
+        if (responseWireBytes != null) {
+            responseWireBytes.inc(wireSize);
+        }
+        if (this.requestSize != null) {
+            this.requestSize.inc(requestSize);
+        }
+        if (requestSecondsLastSeen != null || requestSecondsWindowLastSeen != null
+                || requestTtfbSecondsLastSeen != null || responseSizeLastSeen != null
+                || responseWireBytesLastSeen != null || requestSizeLastSeen != null) {
+            touch(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns whether the label combination was recorded into the overflow series because the series budget was
+     * full.
+     *
+     * @return <code>true</code> if these are overflow series
+     */
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    private void touch(long now) {
+        if (requestSecondsLastSeen != null) {
+            requestSecondsLastSeen.lazySet(now);
+        }
+        if (requestSecondsWindowLastSeen != null) {
+            requestSecondsWindowLastSeen.lazySet(now);
+        }
+        if (requestTtfbSecondsLastSeen != null) {
+            requestTtfbSecondsLastSeen.lazySet(now);
+        }
+        if (responseSizeLastSeen != null) {
+            responseSizeLastSeen.lazySet(now);
+        }
+        if (responseWireBytesLastSeen != null) {
+            responseWireBytesLastSeen.lazySet(now);
+        }
+        if (requestSizeLastSeen != null) {
+            requestSizeLastSeen.lazySet(now);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package br.com.labbs.monitor;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of series of a metric.
+ *
+ * <p>Once the budget is full, new label combinations are recorded into an overflow series, whose {@code addr} label
+ * is {@value #OVERFLOW_ADDR}, {@code method} label, if any, is {@value #OVERFLOW_METHOD} and {@code errorMessage}
+ * label, if any, is empty, and the dropped series counter is incremented. The other labels are bounded by the
+ * application, e.g. the status codes, so the number of overflow series is too, whatever the requests.
+ * When a max idle time is set, series not recorded within that time are removed from the metric to make room for
+ * new ones.
+ */
+final class SeriesBudget {
+
+    static final String OVERFLOW_ADDR = "__overflow__";
+    static final String OVERFLOW_METHOD = "__overflow__";
+    private static final long SWEEP_INTERVAL_MILLIS = 1000L;
+
+    private final String metricName;
+    private final int maxSeries;
+    private final long maxIdleMillis;
+    private final int methodIndex;
+    private final int addrIndex;
+    private final AtomicInteger generation;
+    private final ConcurrentMap<List<String>, AtomicLong> series = new ConcurrentHashMap<List<String>, AtomicLong>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    /**
+     * Creates an instance of {@link SeriesBudget}
+     *
+     * @param metricName    name of the metric, used as label of the dropped series counter
+     * @param maxSeries     max number of series of the metric
+     * @param maxIdleMillis time in milliseconds after which a series not recorded can be evicted, 0 to never evict
+     * @param methodIndex   index of the {@code method} label, -1 if there is none
+     * @param addrIndex     index of the {@code addr} label, the {@code errorMessage} label must be the last one if
+     *                      the {@code addr} label isn't
+     * @param generation    incremented whenever series are evicted
+     */
+    SeriesBudget(String metricName, int maxSeries, long maxIdleMillis, int methodIndex, int addrIndex,
+            AtomicInteger generation) {
+        this.metricName = metricName;
+        this.maxSeries = maxSeries;
+        this.maxIdleMillis = maxIdleMillis;
+        this.methodIndex = methodIndex;
+        this.addrIndex = addrIndex;
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the label values to be recorded: the given ones if the series is already known or fits the budget,
+     * otherwise the label values of the overflow series.
+     *
+     * @param collector   metric whose series are limited
+     * @param dropped     counter of dropped series
+     * @param labelValues label values of the series
+     * @return label values to be recorded
+     */
+    String[] admit(SimpleCollector<?> collector, Counter dropped, String... labelValues) {
+        final List<String> key = Arrays.asList(labelValues);
+        final long now = maxIdleMillis > 0 ? System.currentTimeMillis() : 0L;
+        AtomicLong lastSeen = series.get(key);
+        if (lastSeen != null) {
+            if (maxIdleMillis > 0) {
+                lastSeen.lazySet(now);
+            }
+            return labelValues;
+        }
+        if (reserve(collector, now)) {
+            if (series.putIfAbsent(key, new AtomicLong(now)) != null) {
+                // another thread has added the same series
+                size.decrementAndGet();
+            }
+            return labelValues;
+        }
+        dropped.labels(metricName).inc();
+        String[] overflow = labelValues.clone();
+        if (addrIndex != overflow.length - 1) {
+            overflow[overflow.length - 1] = "";
+        }
+        if (methodIndex >= 0) {
+            // the method is sent by the client, unlike the other labels
+            overflow[methodIndex] = OVERFLOW_METHOD;
+        }
+        overflow[addrIndex] = OVERFLOW_ADDR;
+        return overflow;
+    }
+
+    /**
+     * Returns the last time the series was recorded, to be updated by callers that record the series without
+     * {@link #admit(SimpleCollector, Counter, String...)}.
+     *
+     * @param labelValues label values of an admitted series
+     * @return last time in milliseconds the series was recorded, or null if idle series are never evicted
+     */
+    AtomicLong lastSeen(String... labelValues) {
+        return maxIdleMillis > 0 ? series.get(Arrays.asList(labelValues)) : null;
+    }
+
+    private boolean reserve(SimpleCollector<?> collector, long now) {
+        for (;;) {
+            int n = size.get();
+            if (n >= maxSeries) {
+                if (!evictIdle(collector, now)) {
+                    return false;
+                }
+            } else if (size.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the idle series, at most once per sweep interval.
+     *
+     * @return <code>true</code> if any series was removed
+     */
+    private boolean evictIdle(SimpleCollector<?> collector, long now) {
+        if (maxIdleMillis <= 0) {
+            return false;
+        }
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MILLIS || !lastSweep.compareAndSet(last, now)) {
+            return false;
+        }
+        boolean evicted = false;
+        Iterator<Map.Entry<List<String>, AtomicLong>> it = series.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<List<String>, AtomicLong> entry = it.next();
+            if (now - entry.getValue().get() > maxIdleMillis) {
+                it.remove();
+                size.decrementAndGet();
+                List<String> labelValues = entry.getKey();
+                collector.remove(labelValues.toArray(new String[labelValues.size()]));
+                evicted = true;
+            }
+        }
+        if (evicted) {
+            generation.incrementAndGet();
+        }
+        return evicted;
+    }
+}
@@ -0,0 +1,49 @@
+package br.com.labbs.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped per thread, like the Java 8 {@code LongAdder}: each thread adds to the cell selected by its id,
+ * every cell on its own cache line, and the cells are summed only when read. Updates from many threads are cheap
+ * while reads are rare, e.g. when the metrics are scraped.
+ *
+ * <p>Each counter takes one cache line per {@link Stripes stripe}, plus one on each side, e.g. 4.2 KB on 64 cores.
+ */
+public final class StripedCounter {
+
+    private static final int LINE = Stripes.LINE;
+
+    private final AtomicLongArray cells = new AtomicLongArray((Stripes.COUNT + 2) * LINE);
+
+    /**
+     * Adds one to the counter.
+     *
+     * @return value of the cell of the current thread after the update, not the counter value
+     */
+    public long increment() {
+        return add(1);
+    }
+
+    /**
+     * Adds a value, which may be negative, to the counter.
+     *
+     * @param value value to be added
+     * @return value of the cell of the current thread after the update, not the counter value
+     */
+    public long add(long value) {
+        return cells.addAndGet(Stripes.current() * LINE + LINE, value);
+    }
+
+    /**
+     * Returns the counter value. Updates concurrent with this call may or may not be included.
+     *
+     * @return sum of the cells
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 1; i <= Stripes.COUNT; i++) {
+            sum += cells.get(i * LINE);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,43 @@
+package br.com.labbs.monitor;
+
+/**
+ * Striping shared by the {@link StripedCounter} and the striped histograms: each thread updates the stripe selected
+ * by its id, and each stripe lives on its own cache lines.
+ *
+ * <p>There is one stripe per processor, rounded down to a power of two, as more stripes than processors would not
+ * lower the contention much more but would multiply the memory of every striped series.
+ */
+public final class Stripes {
+
+    /**
+     * Number of longs per cache line.
+     */
+    public static final int LINE = 8;
+
+    /**
+     * Number of stripes, a power of two.
+     */
+    public static final int COUNT = count(Runtime.getRuntime().availableProcessors());
+
+    private Stripes() {
+    }
+
+    /**
+     * Returns the stripe of the current thread.
+     *
+     * @return stripe between 0 and {@link #COUNT} exclusive
+     */
+    public static int current() {
+        return (int) Thread.currentThread().getId() & (COUNT - 1);
+    }
+
+    /**
+     * Returns the number of stripes for a number of processors: the highest power of two not greater than it.
+     *
+     * @param processors number of processors
+     * @return number of stripes
+     */
+    static int count(int processors) {
+        return Integer.highestOneBit(Math.max(processors, 1));
+    }
+}
@@ -1,6 +1,7 @@
 package br.com.labbs.monitor.exporter;
 
 import br.com.labbs.monitor.MonitorMetrics;
+import br.com.labbs.monitor.histogram.ExponentialHistogram;
 import io.prometheus.client.exporter.common.TextFormat;
 
 import javax.servlet.http.HttpServlet;
@@ -11,9 +12,15 @@ import java.io.Writer;
 
 /**
  * Provides a simple way of exposing the metrics values.
+ * <p>
+ * A scrape with the {@code resolution=high} query parameter gets every populated bucket of the exponential
+ * histograms, instead of their bounded classic buckets.
  */
 public class MetricsServlet extends HttpServlet {
 
+    private static final String RESOLUTION_PARAM = "resolution";
+    private static final String HIGH_RESOLUTION = "high";
+
     /**
      * {@inheritDoc}
      * {@link javax.servlet.http.HttpServlet#doGet(HttpServletRequest, HttpServletResponse)}
@@ -23,11 +30,14 @@ public class MetricsServlet extends HttpServlet {
         resp.setStatus(HttpServletResponse.SC_OK);
         resp.setContentType(TextFormat.CONTENT_TYPE_004);
 
+        MonitorMetrics.INSTANCE.flush();
         Writer writer = resp.getWriter();
+        ExponentialHistogram.setHighResolution(HIGH_RESOLUTION.equals(req.getParameter(RESOLUTION_PARAM)));
         try {
             TextFormat.write004(writer, MonitorMetrics.INSTANCE.collectorRegistry.metricFamilySamples());
             writer.flush();
         } finally {
+            ExponentialHistogram.setHighResolution(false);
             writer.close();
         }
     }
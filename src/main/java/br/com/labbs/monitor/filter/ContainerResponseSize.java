@@ -0,0 +1,170 @@
+package br.com.labbs.monitor.filter;
+
+import javax.servlet.ServletResponse;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the number of bytes written in a response from the container's own response object, so the response does
+ * not need to be wrapped by a {@link CountingServletResponse}.
+ * <p>
+ * The adapters of Tomcat, Jetty and Undertow are chains of fields and no-arg methods from the container's response
+ * class to its bytes written counter, resolved through reflection on the first response of each class. The
+ * container classes are loaded through the class loader of the response class, as the class loader of the webapp
+ * usually hides them, e.g. {@code org.eclipse.jetty.server} in Jetty or the {@code io.undertow} modules in WildFly.
+ * Responses of other classes, e.g. wrapped by another filter, are not supported and must be wrapped.
+ */
+final class ContainerResponseSize {
+
+    /**
+     * Response class followed by the chain of members reaching the bytes written, fields prefixed by {@code #}.
+     */
+    static final String[][] CONTAINERS = {
+            // Tomcat: ResponseFacade.response.getContentWritten()
+            {"org.apache.catalina.connector.ResponseFacade", "#response", "getContentWritten"},
+            // Jetty 9: Response.getHttpOutput().getWritten()
+            {"org.eclipse.jetty.server.Response", "getHttpOutput", "getWritten"},
+            // Undertow: HttpServletResponseImpl.getExchange().getResponseBytesSent()
+            {"io.undertow.servlet.spec.HttpServletResponseImpl", "getExchange", "getResponseBytesSent"},
+    };
+
+    // adapter of each response class seen, UNSUPPORTED if no container supports it
+    private final ConcurrentMap<Class<?>, Adapter> adapters = new ConcurrentHashMap<Class<?>, Adapter>();
+    private final String[][] containers;
+    private volatile boolean failed;
+
+    /**
+     * Creates an instance of {@link ContainerResponseSize}, whose adapters are resolved on first use.
+     *
+     * @param containers response class and members of each container
+     */
+    ContainerResponseSize(String[][] containers) {
+        this.containers = containers;
+    }
+
+    /**
+     * Returns whether the number of bytes written in the response can be read from it.
+     *
+     * @param response response passed to the filter
+     * @return <code>true</code> if an adapter supports the response
+     */
+    boolean supports(ServletResponse response) {
+        return !failed && adapterOf(response) != null;
+    }
+
+    /**
+     * Returns the number of bytes written in the response.
+     *
+     * @param response response supported by an adapter
+     * @return number of bytes written or 0 if they could not be read
+     */
+    long bytesWritten(ServletResponse response) {
+        Adapter adapter = adapterOf(response);
+        if (adapter != null) {
+            try {
+                return adapter.bytesWritten(response);
+            } catch (Exception e) {
+                // stops using the adapters, the responses are wrapped from now on
+                failed = true;
+                DebugUtil.debug("Error reading the container response size: ", String.valueOf(e));
+            }
+        }
+        return 0;
+    }
+
+    private Adapter adapterOf(ServletResponse response) {
+        final Class<?> responseClass = response.getClass();
+        Adapter adapter = adapters.get(responseClass);
+        if (adapter == null) {
+            adapter = resolve(responseClass);
+            adapters.putIfAbsent(responseClass, adapter);
+        }
+        return adapter == Adapter.UNSUPPORTED ? null : adapter;
+    }
+
+    /**
+     * Resolves the adapter of a response class, loading the container classes through its class loader.
+     *
+     * @param responseClass class of a response passed to the filter
+     * @return the adapter or {@link Adapter#UNSUPPORTED} if no container supports the class
+     */
+    private Adapter resolve(Class<?> responseClass) {
+        final ClassLoader loader = responseClass.getClassLoader();
+        if (loader != null) {
+            for (String[] container : containers) {
+                try {
+                    Adapter adapter = new Adapter(loader, container);
+                    if (adapter.responseClass.isAssignableFrom(responseClass)) {
+                        DebugUtil.debug("Container response size adapter resolved for ", container[0]);
+                        return adapter;
+                    }
+                } catch (Exception e) {
+                    // container not present or not a supported version
+                } catch (LinkageError e) {
+                    // container classes not loadable
+                }
+            }
+        }
+        DebugUtil.debug("No container response size adapter for ", responseClass.getName(),
+                ", its responses are wrapped");
+        return Adapter.UNSUPPORTED;
+    }
+
+    /**
+     * Chain of members from a container response class to its bytes written.
+     */
+    private static final class Adapter {
+
+        static final Adapter UNSUPPORTED = new Adapter();
+
+        private final Class<?> responseClass;
+        private final Member[] members;
+
+        private Adapter() {
+            responseClass = null;
+            members = new Member[0];
+        }
+
+        Adapter(ClassLoader loader, String[] container) throws ClassNotFoundException, NoSuchFieldException,
+                NoSuchMethodException {
+            responseClass = Class.forName(container[0], false, loader);
+            members = new Member[container.length - 1];
+            Class<?> type = responseClass;
+            for (int i = 1; i < container.length; i++) {
+                String name = container[i];
+                if (name.charAt(0) == '#') {
+                    Field field = type.getDeclaredField(name.substring(1));
+                    type = field.getType();
+                    members[i - 1] = accessible(field);
+                } else {
+                    Method method = type.getMethod(name);
+                    type = method.getReturnType();
+                    members[i - 1] = accessible(method);
+                }
+            }
+            if (type != long.class && type != int.class) {
+                throw new NoSuchMethodException(container[container.length - 1] + " does not return a number");
+            }
+        }
+
+        long bytesWritten(Object response) throws Exception {
+            Object value = response;
+            for (Member member : members) {
+                value = member instanceof Field ? ((Field) member).get(value) : ((Method) member).invoke(value);
+                if (value == null) {
+                    return 0;
+                }
+            }
+            return ((Number) value).longValue();
+        }
+
+        private static <T extends AccessibleObject & Member> T accessible(T member) {
+            member.setAccessible(true);
+            return member;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package br.com.labbs.monitor.filter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Counts the bytes of the response content before its Content-Encoding is applied, as a second counting point
+ * next to the {@link MetricsCollectorFilter}.
+ * <p>
+ * The {@link MetricsCollectorFilter} counts the bytes on the wire, after the compression done by the filters mapped
+ * after it. Mapped after the compression filter, this filter counts the bytes written by the application before
+ * they are compressed, and the {@link MetricsCollectorFilter} records them as the response_size_bytes metric:
+ * <pre>{@code
+ * <filter-mapping>
+ *   <filter-name>metricsFilter</filter-name>
+ *   <url-pattern>/*</url-pattern>
+ * </filter-mapping>
+ * <filter-mapping>
+ *   <filter-name>gzipFilter</filter-name>
+ *   <url-pattern>/*</url-pattern>
+ * </filter-mapping>
+ * <filter-mapping>
+ *   <filter-name>contentSizeFilter</filter-name>
+ *   <url-pattern>/*</url-pattern>
+ * </filter-mapping>
+ * }</pre>
+ */
+public class ContentSizeFilter implements Filter {
+
+    /**
+     * Request attribute holding the {@link CountingServletResponse} counting the content bytes.
+     */
+    static final String RESPONSE_ATTRIBUTE = ContentSizeFilter.class.getName() + ".response";
+
+    /**
+     * {@inheritDoc}
+     * {@link Filter#init(FilterConfig)}
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // nothing to configure
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link Filter#doFilter(ServletRequest, ServletResponse, FilterChain)}
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(response instanceof HttpServletResponse) || request.getDispatcherType() == DispatcherType.ASYNC
+                || request.getAttribute(RESPONSE_ATTRIBUTE) != null) {
+            // the response of an async dispatch is already counted by the request dispatch
+            chain.doFilter(request, response);
+            return;
+        }
+        final CountingServletResponse counterResponse = new CountingServletResponse((HttpServletResponse) response);
+        request.setAttribute(RESPONSE_ATTRIBUTE, counterResponse);
+        chain.doFilter(request, counterResponse);
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link Filter#destroy()}
+     */
+    @Override
+    public void destroy() {
+        // nothing to release
+    }
+}
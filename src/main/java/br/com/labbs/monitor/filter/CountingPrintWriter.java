@@ -10,9 +10,12 @@ import java.util.Locale;
  */
 public class CountingPrintWriter extends PrintWriter {
 
-    private final int newLine = count(System.getProperty("line.separator"));
+    private final String newLine = System.getProperty("line.separator");
     private final PrintWriter writer;
     private long count;
+    /* a high surrogate written last, counted with the char written next */
+    private boolean pendingHighSurrogate;
+    private long firstWriteNanos;
 
     /**
      * Creates an instance of {@link CountingPrintWriter}
@@ -34,32 +37,94 @@ public class CountingPrintWriter extends PrintWriter {
         return count;
     }
 
+    /**
+     * Returns when the first char was written or the writer was first flushed.
+     *
+     * @return the {@link System#nanoTime()} of the first write or flush, 0 if there was none
+     */
+    long getFirstWriteNanos() {
+        return firstWriteNanos;
+    }
+
+    private void firstWrite() {
+        if (firstWriteNanos == 0) {
+            firstWriteNanos = System.nanoTime();
+        }
+    }
+
     private void sum(CharSequence str) {
         if (str == null) {
             return;
         }
-        int sum = 0;
-        for (int i = 0; i < str.length(); i++) {
-            char aChar = str.charAt(i);
-            sum += CountingPrintWriter.this.count(aChar);
+        sum(str, 0, str.length());
+    }
+
+    private void sum(CharSequence str, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        firstWrite();
+        if (pendingHighSurrogate) {
+            start = sumPendingHighSurrogate(str.charAt(start), start);
+        }
+        if (start < end && Character.isHighSurrogate(str.charAt(end - 1))) {
+            end--;
+            pendingHighSurrogate = true;
         }
-        count += sum;
+        count += Utf8.length(str, start, end);
     }
 
     private void sum(char[] chars) {
         if (chars == null) {
             return;
         }
+        sum(chars, 0, chars.length);
+    }
 
-        int sum = 0;
-        for (char aChar : chars) {
-            sum += CountingPrintWriter.this.count(aChar);
+    private void sum(char[] chars, int start, int end) {
+        if (start >= end) {
+            return;
         }
-        count += sum;
+        firstWrite();
+        if (pendingHighSurrogate) {
+            start = sumPendingHighSurrogate(chars[start], start);
+        }
+        if (start < end && Character.isHighSurrogate(chars[end - 1])) {
+            end--;
+            pendingHighSurrogate = true;
+        }
+        count += Utf8.length(chars, start, end);
+    }
+
+    private void sum(char aChar) {
+        firstWrite();
+        if (pendingHighSurrogate) {
+            sumPendingHighSurrogate(aChar, 0);
+        } else if (Character.isHighSurrogate(aChar)) {
+            pendingHighSurrogate = true;
+        } else {
+            count += Utf8.length(aChar);
+        }
+    }
+
+    /**
+     * Counts the pending high surrogate with the next char written.
+     *
+     * @return index of the first char not counted yet
+     */
+    private int sumPendingHighSurrogate(char next, int index) {
+        pendingHighSurrogate = false;
+        if (Character.isLowSurrogate(next)) {
+            count += 4;
+            return index + 1;
+        }
+        // lone surrogate, encoded as '?'
+        count += 1;
+        return index;
     }
 
     private void sumNewLine() {
-        count += newLine;
+        sum(newLine);
     }
 
     private void sumPrintLn(CharSequence s) {
@@ -72,26 +137,6 @@ public class CountingPrintWriter extends PrintWriter {
         sumNewLine();
     }
 
-    private int count(CharSequence str) {
-        if (str == null) {
-            return 0;
-        }
-        int sum = 0;
-        for (int i = 0; i < str.length(); i++) {
-            char aChar = str.charAt(i);
-            sum += CountingPrintWriter.this.count(aChar);
-        }
-        return sum;
-    }
-
-    private int count(char aChar) {
-        if ((aChar >= 0x0001) && (aChar <= 0x007F)) {
-            return 1;
-        } else {
-            return (aChar > 0x07FF) ? 3 : 2;
-        }
-    }
-
     @Override
     public void write(String s) {
         this.writer.write(s);
@@ -107,36 +152,36 @@ public class CountingPrintWriter extends PrintWriter {
     @Override
     public void write(int c) {
         this.writer.write(c);
-        count += CountingPrintWriter.this.count((char) c);
+        sum((char) c);
     }
 
     @Override
     public void write(String s, int off, int len) {
         this.writer.write(s, off, len);
-        sum(s);
+        sum(s, off, off + len);
     }
 
     @Override
     public void write(char[] buf, int off, int len) {
         this.writer.write(buf, off, len);
-        sum(buf);
+        sum(buf, off, off + len);
     }
 
     @Override
     public PrintWriter append(CharSequence csq) {
-        sum(csq);
+        sum(csq == null ? "null" : csq);
         return this.writer.append(csq);
     }
 
     @Override
     public PrintWriter append(char c) {
-        count += CountingPrintWriter.this.count(c);
+        sum(c);
         return this.writer.append(c);
     }
 
     @Override
     public PrintWriter append(CharSequence csq, int start, int end) {
-        sum(csq);
+        sum(csq == null ? "null" : csq, start, end);
         return this.writer.append(csq, start, end);
     }
 
@@ -152,17 +197,22 @@ public class CountingPrintWriter extends PrintWriter {
 
     @Override
     public void flush() {
+        firstWrite();
         this.writer.flush();
     }
 
     @Override
     public PrintWriter format(String format, Object... args) {
-        return this.writer.format(format, args);
+        // formats through this writer, so the output is counted
+        super.format(format, args);
+        return this;
     }
 
     @Override
     public PrintWriter format(Locale l, String format, Object... args) {
-        return this.writer.format(l, format, args);
+        // formats through this writer, so the output is counted
+        super.format(l, format, args);
+        return this;
     }
 
     @Override
@@ -174,7 +224,7 @@ public class CountingPrintWriter extends PrintWriter {
     @Override
     public void print(String s) {
         this.writer.print(s);
-        sum(s);
+        sum(String.valueOf(s));
     }
 
     @Override
@@ -186,7 +236,7 @@ public class CountingPrintWriter extends PrintWriter {
     @Override
     public void print(char c) {
         this.writer.print(c);
-        count += count(c);
+        sum(c);
     }
 
     @Override
@@ -221,12 +271,12 @@ public class CountingPrintWriter extends PrintWriter {
 
     @Override
     public PrintWriter printf(String format, Object... args) {
-        return this.writer.printf(format, args);
+        return format(format, args);
     }
 
     @Override
     public PrintWriter printf(Locale l, String format, Object... args) {
-        return this.writer.printf(l, format, args);
+        return format(l, format, args);
     }
 
     @Override
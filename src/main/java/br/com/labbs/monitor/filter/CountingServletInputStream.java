@@ -0,0 +1,161 @@
+package br.com.labbs.monitor.filter;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.IOException;
+
+/**
+ * A {@link ServletInputStream} that counts the bytes read from the request and provide
+ * methods to retrieve that amount.
+ * <p>
+ * Bulk reads are passed through to the container's stream as a single call. Servlet 3.1 non-blocking reads are
+ * supported: {@link #isFinished()}, {@link #isReady()} and {@link #setReadListener(ReadListener)} are delegated to
+ * the container's stream, and the count is published whenever a callback of the read listener returns.
+ */
+public class CountingServletInputStream extends ServletInputStream {
+
+    private final ServletInputStream input;
+    private long count;
+    private volatile boolean nonBlocking;
+    private volatile long published;
+
+    public CountingServletInputStream(ServletInputStream input) {
+        this.input = input;
+        DebugUtil.debug("CountingServletInputStream init");
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#read()}
+     */
+    @Override
+    public int read() throws IOException {
+        int b = input.read();
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#read(byte[])}
+     */
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#read(byte[], int, int)}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = input.read(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#readLine(byte[], int, int)}
+     */
+    @Override
+    public int readLine(byte[] b, int off, int len) throws IOException {
+        int n = input.readLine(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#skip(long)}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = input.skip(n);
+        if (skipped > 0) {
+            count += skipped;
+        }
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#available()}
+     */
+    @Override
+    public int available() throws IOException {
+        return input.available();
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#close()}
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#isFinished()}
+     */
+    @Override
+    public boolean isFinished() {
+        return input.isFinished();
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#isReady()}
+     */
+    @Override
+    public boolean isReady() {
+        return input.isReady();
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletInputStream#setReadListener(ReadListener)}
+     */
+    @Override
+    public void setReadListener(final ReadListener readListener) {
+        nonBlocking = true;
+        input.setReadListener(new ReadListener() {
+            public void onDataAvailable() throws IOException {
+                try {
+                    readListener.onDataAvailable();
+                } finally {
+                    published = count;
+                }
+            }
+
+            public void onAllDataRead() throws IOException {
+                published = count;
+                readListener.onAllDataRead();
+            }
+
+            public void onError(Throwable t) {
+                published = count;
+                readListener.onError(t);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of bytes read from the {@link ServletInputStream}
+     *
+     * @return number of bytes read from the request
+     */
+    public long getByteCount() {
+        // with a read listener, the bytes are read by container threads
+        return nonBlocking ? Math.max(published, count) : count;
+    }
+}
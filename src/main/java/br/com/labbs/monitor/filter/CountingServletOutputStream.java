@@ -1,6 +1,7 @@
 package br.com.labbs.monitor.filter;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -8,12 +9,30 @@ import java.io.OutputStream;
 /**
  * A {@link ServletOutputStream} that counts the bytes written in the response and provide
  * methods to retrieve that amount.
+ * <p>
+ * Bulk writes and {@link #print(String)} are passed through to the container's stream as a single call, counted by
+ * one addition.
+ * <p>
+ * Servlet 3.1 non-blocking writes are supported: {@link #isReady()} and {@link #setWriteListener(WriteListener)}
+ * are delegated to the container's stream, and the count is published whenever a callback of the write listener
+ * returns, so the size recorded when the asynchronous request completes is the final one.
+ * <p>
+ * The first two and the last four bytes written are kept, so the uncompressed size of a complete gzip encoded
+ * response can be read from its trailer without decoding it.
+ * <p>
+ * The time of the first write or flush is kept, to measure the time to first byte of the response.
  */
 public class CountingServletOutputStream extends ServletOutputStream {
 
+    private final ServletOutputStream stream;
     private final CountingOutputStream output;
+    private volatile boolean nonBlocking;
+    private volatile long published;
+    private long firstWriteNanos;
+    private boolean closed;
 
     public CountingServletOutputStream(ServletOutputStream output) {
+        this.stream = output;
         this.output = new CountingOutputStream(output);
         DebugUtil.debug("CountingServletOutputStream init");
     }
@@ -24,15 +43,90 @@ public class CountingServletOutputStream extends ServletOutputStream {
      */
     @Override
     public void write(int b) throws IOException {
+        firstWrite();
         output.write(b);
     }
 
+    /**
+     * {@inheritDoc}
+     * {@link ServletOutputStream#write(byte[])}
+     */
+    @Override
+    public void write(byte[] b) throws IOException {
+        if (b.length > 0) {
+            firstWrite();
+        }
+        output.write(b, 0, b.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletOutputStream#write(byte[], int, int)}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            firstWrite();
+        }
+        output.write(b, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletOutputStream#print(String)}
+     * <p>
+     * The other print and println methods end up here.
+     */
+    @Override
+    public void print(String s) throws IOException {
+        if (s == null) {
+            s = "null";
+        }
+        if (s.length() > 0) {
+            firstWrite();
+        }
+        output.print(stream, s);
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletOutputStream#isReady()}
+     */
+    @Override
+    public boolean isReady() {
+        return stream.isReady();
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link ServletOutputStream#setWriteListener(WriteListener)}
+     */
+    @Override
+    public void setWriteListener(final WriteListener writeListener) {
+        nonBlocking = true;
+        stream.setWriteListener(new WriteListener() {
+            public void onWritePossible() throws IOException {
+                try {
+                    writeListener.onWritePossible();
+                } finally {
+                    published = output.getCount();
+                }
+            }
+
+            public void onError(Throwable t) {
+                published = output.getCount();
+                writeListener.onError(t);
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      * {@link ServletOutputStream#flush()}
      */
     @Override
     public void flush() throws IOException {
+        firstWrite();
         output.flush();
     }
 
@@ -43,6 +137,7 @@ public class CountingServletOutputStream extends ServletOutputStream {
     @Override
     public void close() throws IOException {
         output.close();
+        closed = true;
     }
 
     /**
@@ -51,7 +146,51 @@ public class CountingServletOutputStream extends ServletOutputStream {
      * @return number of bytes written to the response
      */
     public long getByteCount() {
-        return output.getCount();
+        // with a write listener, the bytes are written by container threads
+        return nonBlocking ? Math.max(published, output.getCount()) : output.getCount();
+    }
+
+    /**
+     * Returns when the first byte was written to or flushed from the {@link ServletOutputStream}
+     *
+     * @return the {@link System#nanoTime()} of the first write or flush, 0 if there was none
+     */
+    long getFirstWriteNanos() {
+        return firstWriteNanos;
+    }
+
+    private void firstWrite() {
+        if (firstWriteNanos == 0) {
+            firstWriteNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns the last four bytes written to the {@link ServletOutputStream}, the last one in the highest byte
+     *
+     * @return last bytes written, as a little-endian int
+     */
+    int getLastBytes() {
+        return output.getLastBytes();
+    }
+
+    /**
+     * Returns the first two bytes written to the {@link ServletOutputStream}, the first one in the lowest byte
+     *
+     * @return first bytes written, as a little-endian int
+     */
+    int getFirstBytes() {
+        return output.getFirstBytes();
+    }
+
+    /**
+     * Returns whether the stream was closed with every write and the close succeeding, so the last bytes written
+     * are the end of the content.
+     *
+     * @return <code>true</code> if the stream was closed normally
+     */
+    boolean isClosedNormally() {
+        return closed && !output.isFailed();
     }
 
     /**
@@ -64,6 +203,9 @@ public class CountingServletOutputStream extends ServletOutputStream {
     static final class CountingOutputStream extends FilterOutputStream {
 
         private long count;
+        private int firstBytes;
+        private int lastBytes;
+        private boolean failed;
 
         /**
          * Wraps another output stream, counting the number of bytes written.
@@ -82,16 +224,85 @@ public class CountingServletOutputStream extends ServletOutputStream {
             return count;
         }
 
+        /**
+         * Returns the last four bytes written, as a little-endian int.
+         */
+        int getLastBytes() {
+            return lastBytes;
+        }
+
+        /**
+         * Returns the first two bytes written, as a little-endian int.
+         */
+        int getFirstBytes() {
+            return firstBytes;
+        }
+
+        /**
+         * Returns whether a write failed.
+         */
+        boolean isFailed() {
+            return failed;
+        }
+
+        private void keep(int b) {
+            lastBytes = (lastBytes >>> 8) | ((b & 0xff) << 24);
+        }
+
+        /**
+         * Prints a string to the wrapped stream, counting one byte per char as the container writes them, or fails
+         * for chars not in ISO-8859-1.
+         *
+         * @param stream the wrapped stream
+         * @param s      string printed
+         */
+        void print(ServletOutputStream stream, String s) throws IOException {
+            try {
+                stream.print(s);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            final int length = s.length();
+            for (int i = 0; i < length && count + i < 2; i++) {
+                firstBytes |= (s.charAt(i) & 0xff) << (8 * (count + i));
+            }
+            count += length;
+            for (int i = Math.max(0, length - 4); i < length; i++) {
+                keep(s.charAt(i));
+            }
+        }
+
         @Override
         public void write(byte[] b, int off, int len) throws IOException {
-            out.write(b, off, len);
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            for (int i = 0; i < len && count + i < 2; i++) {
+                firstBytes |= (b[off + i] & 0xff) << (8 * (count + i));
+            }
             count += len;
+            for (int i = Math.max(off, off + len - 4); i < off + len; i++) {
+                keep(b[i]);
+            }
         }
 
         @Override
         public void write(int b) throws IOException {
-            out.write(b);
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            if (count < 2) {
+                firstBytes |= (b & 0xff) << (8 * count);
+            }
             count++;
+            keep(b);
         }
 
         // Overriding close() because FilterOutputStream's close() method pre-JDK8 has bad behavior:
@@ -0,0 +1,123 @@
+package br.com.labbs.monitor.filter;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+
+/**
+ * A {@link HttpServletRequest} that counts the bytes read from the request body and provide
+ * methods to retrieve that amount.
+ * <p>
+ * The counting stream is created on the first call of {@link #getInputStream()} or {@link #getReader()}. The reader
+ * decodes the counting stream with the request charset, so the bytes read through it are counted exactly.
+ * When the body is not read through this wrapper, e.g. it's never read or the container parses it as form
+ * parameters, the declared Content-Length is reported as the number of bytes read.
+ */
+public class CountingServletRequest extends HttpServletRequestWrapper {
+
+    private static final String DEFAULT_CHARSET = "ISO-8859-1";
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private final HttpServletRequest request;
+    private CountingServletInputStream input;
+    private BufferedReader reader;
+
+    /**
+     * Creates an instance of {@link CountingServletRequest} encapsulating the {@link HttpServletRequest}
+     *
+     * @param request request
+     */
+    CountingServletRequest(HttpServletRequest request) {
+        super(request);
+        this.request = request;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletRequestWrapper#getInputStream()}
+     */
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (reader != null) {
+            throw new IllegalStateException("getReader() has already been called for this request");
+        }
+        if (input == null) {
+            input = new CountingServletInputStream(request.getInputStream());
+        }
+        return input;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletRequestWrapper#getReader()}
+     */
+    @Override
+    public BufferedReader getReader() throws IOException {
+        if (reader == null) {
+            if (input != null) {
+                throw new IllegalStateException("getInputStream() has already been called for this request");
+            }
+            String charset = request.getCharacterEncoding();
+            if (charset == null) {
+                charset = DEFAULT_CHARSET;
+            }
+            if (!isSupported(charset)) {
+                // fails before the body is touched, as the container's reader does
+                throw new UnsupportedEncodingException(charset);
+            }
+            input = new CountingServletInputStream(request.getInputStream());
+            reader = new BufferedReader(new InputStreamReader(input, charset));
+        }
+        return reader;
+    }
+
+    /**
+     * Returns the number of bytes read from the request body
+     *
+     * @return number of bytes read from the request
+     */
+    long getByteCount() {
+        if (input != null) {
+            return input.getByteCount();
+        }
+        return Math.max(getContentLength(request), 0);
+    }
+
+    /**
+     * Returns the declared length of the request body. Only uses the Servlet 3.0 API, so it works on Servlet 3.0
+     * containers, where {@code getContentLengthLong()} does not exist.
+     *
+     * @param request request
+     * @return the length or -1 if it's not declared or not valid
+     */
+    static long getContentLength(HttpServletRequest request) {
+        final int length = request.getContentLength();
+        if (length >= 0) {
+            return length;
+        }
+        // lengths greater than Integer.MAX_VALUE are only available from the header
+        final String header = request.getHeader(CONTENT_LENGTH);
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isSupported(String charset) {
+        try {
+            return Charset.isSupported(charset);
+        } catch (IllegalCharsetNameException e) {
+            return false;
+        }
+    }
+}
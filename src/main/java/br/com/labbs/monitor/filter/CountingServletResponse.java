@@ -5,16 +5,58 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 
 /**
  * A {@link HttpServletResponse} that counts the bytes written in the response and provide
  * methods to retrieve that amount.
+ * <p>
+ * When the response declares its Content-Length before getting the output stream or the writer, the container's
+ * stream or writer is returned unwrapped and the declared length is reported as the number of bytes written, unless
+ * the bytes written must be counted while the response is open, see
+ * {@link #CountingServletResponse(HttpServletResponse, boolean, boolean)}.
+ * Responses that never get a stream or a writer, e.g. HEAD requests, errors sent with {@code sendError} and 304
+ * responses, report no bytes written whatever their declared length.
+ * <p>
+ * With exact writer size, the writer encodes the chars with the response charset into the counting output stream,
+ * so the bytes written through the writer are counted exactly whatever the charset. The encoded bytes are buffered
+ * by the writer until its buffer is full, it's flushed or the request dispatch returns, see
+ * {@link #dispatchReturned(boolean)}.
+ * <p>
+ * The bytes counted are the bytes on the wire, with the Content-Encoding applied by the application or by the
+ * filters after this one. When the response is gzip encoded and its output stream starts with the gzip magic
+ * number and was closed normally, the size of the content before the encoding is read from the gzip trailer, the
+ * size modulo 2^32 of the last gzip member. The content size is counted exactly by a {@link ContentSizeFilter}
+ * mapped after the compression filter.
+ * <p>
+ * The time to first byte is the time of the first write or flush through the counting stream or writer, or of the
+ * first {@link #flushBuffer()}. It's unknown when the container's stream or writer is returned unwrapped and the
+ * response is not flushed through this wrapper.
  */
 public class CountingServletResponse extends HttpServletResponseWrapper {
 
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    /**
+     * Size of a gzip member without content: 10 bytes of header and 8 bytes of trailer.
+     */
+    private static final int GZIP_MIN_SIZE = 18;
+    /**
+     * First two bytes of a gzip member, 1f 8b, as a little-endian int.
+     */
+    private static final int GZIP_MAGIC = 0x8b1f;
+
     private final HttpServletResponse response;
+    private final boolean exactWriterSize;
+    private final boolean unwrapDeclaredLength;
     private CountingServletOutputStream output;
     private CountingPrintWriter writer;
+    private ServletOutputStream rawOutput;
+    private PrintWriter rawWriter;
+    private EncodingPrintWriter encodingWriter;
+    private long contentLength = -1;
+    private long flushNanos;
 
     /**
      * Creates an instance of {@link CountingServletResponse} encapsulating the {@link HttpServletResponse}
@@ -22,8 +64,33 @@ public class CountingServletResponse extends HttpServletResponseWrapper {
      * @param response response
      */
     CountingServletResponse(HttpServletResponse response) {
+        this(response, false);
+    }
+
+    /**
+     * Creates an instance of {@link CountingServletResponse} encapsulating the {@link HttpServletResponse}
+     *
+     * @param response        response
+     * @param exactWriterSize whether the writer encodes into the counting output stream
+     */
+    CountingServletResponse(HttpServletResponse response, boolean exactWriterSize) {
+        this(response, exactWriterSize, true);
+    }
+
+    /**
+     * Creates an instance of {@link CountingServletResponse} encapsulating the {@link HttpServletResponse}
+     *
+     * @param response             response
+     * @param exactWriterSize      whether the writer encodes into the counting output stream
+     * @param unwrapDeclaredLength whether the container's stream or writer is returned unwrapped when the
+     *                             Content-Length is declared. Must be false when the bytes written are sampled while
+     *                             the response is open, e.g. by {@link StreamingResponses}
+     */
+    CountingServletResponse(HttpServletResponse response, boolean exactWriterSize, boolean unwrapDeclaredLength) {
         super(response);
         this.response = response;
+        this.exactWriterSize = exactWriterSize;
+        this.unwrapDeclaredLength = unwrapDeclaredLength;
     }
 
     /**
@@ -32,7 +99,17 @@ public class CountingServletResponse extends HttpServletResponseWrapper {
      */
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
+        if (rawOutput != null) {
+            return rawOutput;
+        }
+        if (encodingWriter != null) {
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
         if (output == null) {
+            if (contentLength >= 0 && unwrapDeclaredLength) {
+                rawOutput = response.getOutputStream();
+                return rawOutput;
+            }
             output = new CountingServletOutputStream(response.getOutputStream());
         }
         return output;
@@ -44,23 +121,161 @@ public class CountingServletResponse extends HttpServletResponseWrapper {
      */
     @Override
     public PrintWriter getWriter() throws IOException {
+        if (rawWriter != null) {
+            return rawWriter;
+        }
+        if (encodingWriter != null) {
+            return encodingWriter;
+        }
         if (writer == null) {
+            if (contentLength >= 0 && unwrapDeclaredLength) {
+                rawWriter = response.getWriter();
+                return rawWriter;
+            }
+            if (exactWriterSize) {
+                encodingWriter = newEncodingWriter();
+                if (encodingWriter != null) {
+                    return encodingWriter;
+                }
+            }
             writer = new CountingPrintWriter(response.getWriter());
         }
         return writer;
     }
 
+    /**
+     * Creates a writer encoding into the counting output stream with the response charset.
+     *
+     * @return the writer or null if the charset is not supported
+     */
+    private EncodingPrintWriter newEncodingWriter() throws IOException {
+        if (output != null) {
+            throw new IllegalStateException("getOutputStream() has already been called for this response");
+        }
+        final String charset = response.getCharacterEncoding();
+        if (!isSupported(charset)) {
+            DebugUtil.debug("Unsupported response charset ", charset);
+            return null;
+        }
+        // sets the charset in the Content-Type header, as the container does when getting its writer
+        response.setCharacterEncoding(charset);
+        output = new CountingServletOutputStream(response.getOutputStream());
+        return new EncodingPrintWriter(output, charset);
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#setContentLength(int)}
+     */
+    @Override
+    public void setContentLength(int len) {
+        response.setContentLength(len);
+        contentLength = len;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#setContentLengthLong(long)}
+     */
+    @Override
+    public void setContentLengthLong(long len) {
+        response.setContentLengthLong(len);
+        contentLength = len;
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#setHeader(String, String)}
+     */
+    @Override
+    public void setHeader(String name, String value) {
+        response.setHeader(name, value);
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            contentLength = parseContentLength(value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#addHeader(String, String)}
+     */
+    @Override
+    public void addHeader(String name, String value) {
+        response.addHeader(name, value);
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            contentLength = parseContentLength(value);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#setIntHeader(String, int)}
+     */
+    @Override
+    public void setIntHeader(String name, int value) {
+        response.setIntHeader(name, value);
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            contentLength = value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#addIntHeader(String, int)}
+     */
+    @Override
+    public void addIntHeader(String name, int value) {
+        response.addIntHeader(name, value);
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            contentLength = value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * {@link HttpServletResponseWrapper#reset()}
+     */
+    @Override
+    public void reset() {
+        response.reset();
+        contentLength = -1;
+    }
+
     /**
      * {@inheritDoc}
      * {@link HttpServletResponseWrapper#flushBuffer()}
      */
     @Override
     public void flushBuffer() throws IOException {
+        if (flushNanos == 0) {
+            flushNanos = System.nanoTime();
+        }
+        if (encodingWriter != null) {
+            encodingWriter.drain();
+        }
         response.flushBuffer();
     }
 
     /**
-     * Returns the number of bytes written to the response
+     * Hands the bytes still buffered by the encoder of the writer to the counting stream, when the request dispatch
+     * returns, so they are counted and written before the container completes the response. In asynchronous mode,
+     * the writer then hands them after every write.
+     *
+     * @param async whether the request is in asynchronous mode
+     */
+    void dispatchReturned(boolean async) {
+        if (encodingWriter != null) {
+            if (async) {
+                encodingWriter.autoDrain();
+            } else {
+                encodingWriter.drain();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to the response, with its content encoding applied. The declared
+     * Content-Length is only reported once the container's stream or writer has been handed out.
      *
      * @return number of bytes written to the response
      */
@@ -70,10 +285,88 @@ public class CountingServletResponse extends HttpServletResponseWrapper {
             count = output.getByteCount();
         } else if (writer != null) {
             count = writer.getCount();
+        } else if ((rawOutput != null || rawWriter != null) && contentLength > 0) {
+            count = contentLength;
         }
         return count;
     }
 
+    /**
+     * Returns when the first byte of the response was written or flushed
+     *
+     * @return the {@link System#nanoTime()} of the first write or flush, 0 if it's unknown
+     */
+    long getFirstByteNanos() {
+        long first = flushNanos;
+        if (output != null) {
+            first = earliest(first, output.getFirstWriteNanos());
+        }
+        if (writer != null) {
+            first = earliest(first, writer.getFirstWriteNanos());
+        }
+        if (encodingWriter != null) {
+            first = earliest(first, encodingWriter.getFirstWriteNanos());
+        }
+        return first;
+    }
+
+    private static long earliest(long a, long b) {
+        if (a == 0) {
+            return b;
+        }
+        // nanoTime values are compared by their difference, they may overflow
+        return b == 0 || a - b < 0 ? a : b;
+    }
+
+    /**
+     * Returns the number of bytes of the response content before its content encoding was applied, read from the
+     * gzip trailer of a complete gzip encoded response. Otherwise, e.g. other encodings or aborted responses, the
+     * bytes written are returned.
+     *
+     * @return number of bytes of the response content
+     */
+    long getDecodedByteCount() {
+        long count = getByteCount();
+        if (output != null && count >= GZIP_MIN_SIZE && output.getFirstBytes() == GZIP_MAGIC
+                && output.isClosedNormally() && isGzip(response.getHeader(CONTENT_ENCODING))) {
+            return output.getLastBytes() & 0xFFFFFFFFL;
+        }
+        return count;
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        String encoding = contentEncoding.trim();
+        return "gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding);
+    }
+
+    private static boolean isSupported(String charset) {
+        try {
+            return charset != null && Charset.isSupported(charset);
+        } catch (IllegalCharsetNameException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a Content-Length header value.
+     *
+     * @param value header value, may be null
+     * @return the length or -1 if the value is not a valid length
+     */
+    private static long parseContentLength(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Returns the range of status code.
      * The first digit of the status code followed by XX suffix.
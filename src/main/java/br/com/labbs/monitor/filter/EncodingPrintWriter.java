@@ -0,0 +1,157 @@
+package br.com.labbs.monitor.filter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A {@link PrintWriter} that encodes the chars with the response charset into a byte stream, so the bytes written
+ * can be counted exactly by the stream.
+ * <p>
+ * The encoder buffers the encoded bytes and hands them to the stream when its buffer is full, when the writer is
+ * flushed or closed, and when {@link #drain()} is executed. The response drains the writer when the request
+ * dispatch returns and before flushing its buffer, without flushing the stream, so nothing is left in the encoder
+ * when the container completes the response and the container still decides when to commit it. Once the request is
+ * in asynchronous mode, the writer is in auto drain mode and the encoded bytes are handed to the stream after every
+ * write, as the container may complete the response from another thread.
+ * <p>
+ * The time of the first write is kept, to measure the time to first byte of the response.
+ */
+final class EncodingPrintWriter extends PrintWriter {
+
+    private final Sink sink;
+    private volatile boolean autoDrain;
+    private long firstWriteNanos;
+
+    /**
+     * Creates an instance of {@link EncodingPrintWriter}
+     *
+     * @param output  byte stream
+     * @param charset name of the charset
+     * @throws UnsupportedEncodingException if the charset is not supported
+     */
+    EncodingPrintWriter(OutputStream output, String charset) throws UnsupportedEncodingException {
+        this(new Sink(output), charset);
+    }
+
+    private EncodingPrintWriter(Sink sink, String charset) throws UnsupportedEncodingException {
+        super(new OutputStreamWriter(sink, charset));
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int c) {
+        firstWrite();
+        super.write(c);
+        if (autoDrain) {
+            drain();
+        }
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        if (len > 0) {
+            firstWrite();
+        }
+        super.write(buf, off, len);
+        if (autoDrain) {
+            drain();
+        }
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+        if (len > 0) {
+            firstWrite();
+        }
+        super.write(s, off, len);
+        if (autoDrain) {
+            drain();
+        }
+    }
+
+    @Override
+    public void println() {
+        // PrintWriter writes the line separator straight to the encoder
+        super.println();
+        if (autoDrain) {
+            drain();
+        }
+    }
+
+    /**
+     * Hands the encoded bytes to the stream after every write from now on, and the ones buffered now.
+     */
+    void autoDrain() {
+        autoDrain = true;
+        drain();
+    }
+
+    /**
+     * Moves the encoded bytes to the stream without flushing the stream.
+     */
+    void drain() {
+        synchronized (lock) {
+            sink.propagateFlush = false;
+            try {
+                out.flush();
+            } catch (IOException e) {
+                setError();
+            } finally {
+                sink.propagateFlush = true;
+            }
+        }
+    }
+
+    /**
+     * Returns when the first char was written
+     *
+     * @return the {@link System#nanoTime()} of the first write, 0 if there was none
+     */
+    long getFirstWriteNanos() {
+        return firstWriteNanos;
+    }
+
+    private void firstWrite() {
+        if (firstWriteNanos == 0) {
+            firstWriteNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Byte stream whose flush can be held back while the encoder is drained.
+     */
+    private static final class Sink extends OutputStream {
+
+        private final OutputStream output;
+        private boolean propagateFlush = true;
+
+        Sink(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            output.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (propagateFlush) {
+                output.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
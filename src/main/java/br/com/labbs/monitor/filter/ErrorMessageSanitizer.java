@@ -0,0 +1,102 @@
+package br.com.labbs.monitor.filter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns error messages into errorMessage label values: removes the characters matched by the filter regex, compiled
+ * once, and truncates the result. The labels of the messages seen are kept in a bounded cache, cleared when it is
+ * full, so a burst of identical errors is sanitized once without the request threads locking each other.
+ *
+ * <p>With fingerprinting, UUIDs, quoted values and numbers are replaced by the {@code {uuid}}, {@code {str}} and
+ * {@code {num}} placeholders before filtering, so errors differing only by such values share the same label.
+ */
+final class ErrorMessageSanitizer {
+
+    static final String UUID_PLACEHOLDER = "{uuid}";
+    static final String QUOTED_PLACEHOLDER = "{str}";
+    static final String NUMBER_PLACEHOLDER = "{num}";
+
+    private static final Pattern FINGERPRINT = Pattern.compile(
+            "([0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})"
+                    + "|(\"[^\"]*\"|'[^']*')"
+                    + "|(\\d+)");
+
+    private final Pattern filter;
+    private final int maxSize;
+    private final boolean fingerprint;
+    private final int cacheSize;
+    private final ConcurrentMap<String, String> cache;
+
+    /**
+     * Creates an instance of {@link ErrorMessageSanitizer}
+     *
+     * @param filter      regex of the characters to be removed, null to remove all the characters
+     * @param maxSize     max length of the label
+     * @param fingerprint whether to replace UUIDs, quoted values and numbers by placeholders
+     * @param cacheSize   max number of messages cached, 0 to disable the cache
+     */
+    ErrorMessageSanitizer(Pattern filter, int maxSize, boolean fingerprint, int cacheSize) {
+        this.filter = filter;
+        this.maxSize = maxSize;
+        this.fingerprint = fingerprint;
+        this.cacheSize = cacheSize;
+        this.cache = cacheSize <= 0 ? null : new ConcurrentHashMap<String, String>(Math.min(cacheSize, 1024));
+    }
+
+    /**
+     * Returns the label of an error message.
+     *
+     * @param message error message
+     * @return sanitized error message
+     */
+    String sanitize(String message) {
+        if (filter == null) {
+            return "";
+        }
+        if (cache == null) {
+            return compute(message);
+        }
+        String label = cache.get(message);
+        if (label != null) {
+            return label;
+        }
+        label = compute(message);
+        if (cache.size() >= cacheSize) {
+            cache.clear();
+        }
+        cache.put(message, label);
+        return label;
+    }
+
+    private String compute(String message) {
+        String result;
+        if (fingerprint) {
+            StringBuilder sb = new StringBuilder(message.length());
+            Matcher m = FINGERPRINT.matcher(message);
+            int last = 0;
+            while (m.find()) {
+                // placeholders are not filtered
+                sb.append(filter.matcher(message.substring(last, m.start())).replaceAll(""));
+                if (m.group(1) != null) {
+                    sb.append(UUID_PLACEHOLDER);
+                } else if (m.group(2) != null) {
+                    sb.append(QUOTED_PLACEHOLDER);
+                } else {
+                    sb.append(NUMBER_PLACEHOLDER);
+                }
+                last = m.end();
+            }
+            sb.append(filter.matcher(message.substring(last)).replaceAll(""));
+            result = sb.toString();
+        } else {
+            result = filter.matcher(message).replaceAll("");
+        }
+        if (result.length() > maxSize) {
+            result = result.substring(0, maxSize);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.StripedCounter;
+import br.com.labbs.monitor.histogram.StripedHistogram;
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the requests in flight per route with striped counters, so the request threads entering and leaving a
+ * route do not contend on a shared gauge, and records the number of requests in flight on all routes when each
+ * request arrives.
+ *
+ * <p>Exported as the http_requests_in_flight gauge and the http_requests_in_flight_at_arrival histogram. The route
+ * counters are summed only when the metrics are collected. The total is a single atomic counter, as every request
+ * reads it when it arrives, which would sum every stripe of a striped counter.
+ */
+final class InFlightRequests extends Collector {
+
+    static final String OVERFLOW_ROUTE = "__overflow__";
+    private static final double[] ARRIVAL_BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096};
+
+    private final int maxRoutes;
+    private final ConcurrentMap<String, StripedCounter> routes = new ConcurrentHashMap<String, StripedCounter>();
+    private final AtomicLong total = new AtomicLong();
+    private final StripedHistogram atArrival = StripedHistogram.build("http_requests_in_flight_at_arrival",
+            "counts the requests by the number of requests in flight, including themselves, when they arrived")
+            .buckets(ARRIVAL_BUCKETS).create();
+
+    /**
+     * Creates an instance of {@link InFlightRequests}
+     *
+     * @param maxRoutes max number of routes tracked, the requests of other routes are tracked in an overflow route
+     */
+    InFlightRequests(int maxRoutes) {
+        this.maxRoutes = maxRoutes;
+    }
+
+    /**
+     * Records a request arriving on a route.
+     *
+     * @param route  route of the request
+     * @param weight number of requests the request stands for
+     * @return the counter of the route, to be passed to {@link #exit(StripedCounter, long)} when the request ends
+     */
+    StripedCounter enter(String route, long weight) {
+        StripedCounter counter = routes.get(route);
+        if (counter == null) {
+            counter = routes.size() < maxRoutes ? route(route) : route(OVERFLOW_ROUTE);
+        }
+        counter.add(weight);
+        atArrival.observe(total.addAndGet(weight));
+        return counter;
+    }
+
+    /**
+     * Records a request leaving its route.
+     *
+     * @param counter counter returned by {@link #enter(String, long)}
+     * @param weight  number of requests the request stands for
+     */
+    void exit(StripedCounter counter, long weight) {
+        counter.add(-weight);
+        total.addAndGet(-weight);
+    }
+
+    private StripedCounter route(String route) {
+        StripedCounter counter = routes.get(route);
+        if (counter == null) {
+            counter = new StripedCounter();
+            StripedCounter existing = routes.putIfAbsent(route, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        GaugeMetricFamily inFlight = new GaugeMetricFamily("http_requests_in_flight",
+                "number of requests being handled", Arrays.asList("addr"));
+        for (Map.Entry<String, StripedCounter> route : routes.entrySet()) {
+            inFlight.addMetric(Arrays.asList(route.getKey()), route.getValue().sum());
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(2);
+        mfs.add(inFlight);
+        mfs.addAll(atArrival.collect());
+        return mfs;
+    }
+}
@@ -1,8 +1,18 @@
 package br.com.labbs.monitor.filter;
 
+import br.com.labbs.monitor.AsyncRecorder;
 import br.com.labbs.monitor.MonitorMetrics;
-import io.prometheus.client.SimpleTimer;
+import br.com.labbs.monitor.RequestSeries;
+import br.com.labbs.monitor.StripedCounter;
+import br.com.labbs.monitor.histogram.Buckets;
+import br.com.labbs.monitor.histogram.ExponentialHistogram;
+import br.com.labbs.monitor.histogram.HistogramType;
+import br.com.labbs.monitor.histogram.RollingSummary;
+import io.prometheus.client.Collector;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -17,8 +27,10 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 /**
@@ -26,7 +38,8 @@ import java.util.logging.Logger;
  * size metrics) for Servlet performance, based on schema, status code, HTTP method and URI path.
  *
  * <p>The Histogram buckets can be configured with a {@code buckets} init parameter whose value is a comma-separated list
- * of valid {@code double} values.
+ * of valid {@code double} values, or a {@code linear:start,width,count} or {@code exponential:start,factor,count}
+ * generator. Each histogram can have its own buckets with a {@code buckets.<metric name>} init parameter.
  * <p>
  * Filter can be programmatically added to {@link ServletContext} or initialized via web.xml.
  * <p>
@@ -55,18 +68,59 @@ public class MetricsCollectorFilter implements Filter {
 
     private static final String EXPORT_JVM_METRICS_PARAM = "export-jvm-metrics";
     private static final String BUCKET_CONFIG_PARAM = "buckets";
+    private static final String ROUTE_GROUP_BUCKETS_PARAM = "route-group-buckets";
+    private static final String[] HISTOGRAM_NAMES = {"request_seconds", "request_ttfb_seconds",
+            "dependency_request_seconds"};
     private static final String PATH_DEPTH_PARAM = "path-depth";
     private static final String EXCLUSIONS = "exclusions";
+    private static final String PATH_TEMPLATES_PARAM = "path-templates";
+    private static final String PATH_NORMALIZATION_PARAM = "path-normalization";
+    private static final String PATH_NORMALIZATION_CACHE_SIZE_PARAM = "path-normalization-cache-size";
+    private static final int DEFAULT_PATH_NORMALIZATION_CACHE_SIZE = 10000;
+    private static final String MAX_SERIES_PARAM = "max-series";
+    private static final String SERIES_MAX_IDLE_SECONDS_PARAM = "series-max-idle-seconds";
+    private static final int SERIES_CACHE_MAX_ROUTES = 10000;
+    private static final String ASYNC_RECORDING_BUFFER_SIZE_PARAM = "async-recording-buffer-size";
+    private static final String HISTOGRAM_TYPE_PARAM = "histogram-type";
+    private static final String HISTOGRAM_SCHEMA_PARAM = "histogram-schema";
+    private static final String HISTOGRAM_GROWTH_FACTOR_PARAM = "histogram-growth-factor";
+    private static final String HISTOGRAM_MAX_BUCKETS_PARAM = "histogram-max-buckets";
+    private static final String SKETCH_RELATIVE_ACCURACY_PARAM = "sketch-relative-accuracy";
+    private static final String ROLLING_WINDOW_SECONDS_PARAM = "rolling-window-seconds";
+    private static final String ROLLING_WINDOW_SLICES_PARAM = "rolling-window-slices";
+    private static final String BUCKETS_CALIBRATION_SECONDS_PARAM = "buckets-calibration-seconds";
+    private static final String BUCKETS_CALIBRATION_COUNT_PARAM = "buckets-calibration-count";
+    private static final String BUCKETS_CALIBRATION_FILE_PARAM = "buckets-calibration-file";
+    private static final int DEFAULT_BUCKETS_CALIBRATION_COUNT = 12;
+    private static final String SAMPLING_PARAM = "sampling";
+    private static final String EXACT_WRITER_SIZE_PARAM = "exact-writer-size";
+    private static final String CONTAINER_RESPONSE_SIZE_PARAM = "container-response-size";
+    private static final String IN_FLIGHT_REQUESTS_PARAM = "in-flight-requests";
+    private static final String STREAMING_INTERVAL_SECONDS_PARAM = "streaming-interval-seconds";
     private static final String ERROR_MESSAGE_PARAM = "error-message";
     private static final String DEBUG = "debug";
     private static final String APPLICATION_VERSION = "application-version";
     private static final String DEFAULT_FILTER_REGEX = "[^A-zÀ-ú .,]+";
     private static final String FILTER_REGEX_PARAM = "error-info-regex";
     private static final String FILTER_MAX_SIZE_PARAM = "error-info-max-size";
+    private static final String FILTER_FINGERPRINT_PARAM = "error-info-fingerprint";
+    private static final String FILTER_CACHE_SIZE_PARAM = "error-info-cache-size";
+    private static final int DEFAULT_FILTER_CACHE_SIZE = 1000;
     private static final Logger LOGGER = Logger.getLogger(MetricsCollectorFilter.class.getName());
-    private final List<String> exclusions = new ArrayList<String>();
+    private PathMatcher exclusionMatcher = PathMatcher.EMPTY;
+    private PathNormalizer pathNormalizer;
+    private RequestSeriesCache seriesCache;
+    private AsyncRecorder asyncRecorder;
+    private RequestSampler sampler;
+    private boolean exactWriterSize;
+    private ContainerResponseSize containerResponseSize;
+    private InFlightRequests inFlight;
+    private StreamingResponses streaming;
     private int filter_max_size = 50;
     private String filter_regex = "";
+    private boolean filter_fingerprint = false;
+    private int filter_cache_size = DEFAULT_FILTER_CACHE_SIZE;
+    private ErrorMessageSanitizer errorMessageSanitizer;
 
 
     private int pathDepth = 0;
@@ -98,20 +152,49 @@ public class MetricsCollectorFilter implements Filter {
             // Allow users to override the default bucket configuration
             String bucketsParam = filterConfig.getInitParameter(BUCKET_CONFIG_PARAM);
             if (isNotEmpty(bucketsParam)) {
-                String[] bucketParams = bucketsParam.split(",");
-                buckets = new double[bucketParams.length];
-
-                for (int i = 0; i < bucketParams.length; i++) {
-                    buckets[i] = Double.parseDouble(bucketParams[i]);
+                buckets = parseBuckets(BUCKET_CONFIG_PARAM, bucketsParam);
+            }
+            // Allow users to set the buckets of each histogram
+            for (String metricName : HISTOGRAM_NAMES) {
+                String metricBucketsParam = filterConfig.getInitParameter(BUCKET_CONFIG_PARAM + "." + metricName);
+                double[] metricBuckets = isNotEmpty(metricBucketsParam)
+                        ? parseBuckets(BUCKET_CONFIG_PARAM + "." + metricName, metricBucketsParam) : null;
+                if (metricBuckets != null) {
+                    MonitorMetrics.INSTANCE.setBuckets(metricName, metricBuckets);
+                }
+            }
+            // Allow users to set the buckets of groups of routes
+            String routeGroupsParam = filterConfig.getInitParameter(ROUTE_GROUP_BUCKETS_PARAM);
+            if (isNotEmpty(routeGroupsParam)) {
+                for (String group : routeGroupsParam.split(";")) {
+                    int separator = group.indexOf('=');
+                    double[] groupBuckets = separator > 0
+                            ? parseBuckets(ROUTE_GROUP_BUCKETS_PARAM, group.substring(separator + 1)) : null;
+                    if (groupBuckets != null) {
+                        MonitorMetrics.INSTANCE.addRouteGroup(group.substring(0, separator).trim(), groupBuckets);
+                    } else if (separator <= 0 && group.trim().length() > 0) {
+                        LOGGER.warning("Invalid " + ROUTE_GROUP_BUCKETS_PARAM + ": groups must be pattern=buckets "
+                                + "but got '" + group + "'.");
+                    }
+                }
+                // the groups are matched after the context path, as the exclusions
+                ServletContext servletContext = filterConfig.getServletContext();
+                if (servletContext != null) {
+                    MonitorMetrics.INSTANCE.setContextPath(servletContext.getContextPath());
                 }
             }
             // Allow users to define paths to be excluded from metrics collect
             String exclusionsParam = filterConfig.getInitParameter(EXCLUSIONS);
             if (isNotEmpty(exclusionsParam)) {
-                String[] arrayExclusions = exclusionsParam.split(",");
-                for (String string : arrayExclusions) {
-                    exclusions.add(string.trim());
-                }
+                exclusionMatcher = PathMatcher.compile(splitParam(exclusionsParam));
+            }
+            // Allow users to rewrite paths to route templates
+            String pathTemplatesParam = filterConfig.getInitParameter(PATH_TEMPLATES_PARAM);
+            boolean pathNormalization = Boolean.parseBoolean(filterConfig.getInitParameter(PATH_NORMALIZATION_PARAM));
+            if (isNotEmpty(pathTemplatesParam) || pathNormalization) {
+                int cacheSize = getIntParam(filterConfig, PATH_NORMALIZATION_CACHE_SIZE_PARAM,
+                        DEFAULT_PATH_NORMALIZATION_CACHE_SIZE);
+                pathNormalizer = new PathNormalizer(splitParam(pathTemplatesParam), pathNormalization, cacheSize);
             }
             // Allow users to enable/disable the JVM metrics export
             String exportJvmMetricsStr = filterConfig.getInitParameter(EXPORT_JVM_METRICS_PARAM);
@@ -119,17 +202,135 @@ public class MetricsCollectorFilter implements Filter {
                 exportJvmMetrics = Boolean.parseBoolean(exportJvmMetricsStr);
             }
             exportApplicationVersion = filterConfig.getInitParameter(APPLICATION_VERSION);
+            // Allow users to count the bytes written through the writer with the response charset
+            exactWriterSize = Boolean.parseBoolean(filterConfig.getInitParameter(EXACT_WRITER_SIZE_PARAM));
+            // Allow users to read the response size from the container instead of wrapping the response
+            if (Boolean.parseBoolean(filterConfig.getInitParameter(CONTAINER_RESPONSE_SIZE_PARAM))) {
+                // resolved on the first response, as the webapp class loader hides the container classes
+                containerResponseSize = new ContainerResponseSize(ContainerResponseSize.CONTAINERS);
+            }
+            // Allow users to track the requests in flight per route
+            if (Boolean.parseBoolean(filterConfig.getInitParameter(IN_FLIGHT_REQUESTS_PARAM))) {
+                inFlight = new InFlightRequests(SERIES_CACHE_MAX_ROUTES);
+            }
+            // Allow users to sample the bytes written by long-lived responses while they are open
+            int streamingIntervalSeconds = getIntParam(filterConfig, STREAMING_INTERVAL_SECONDS_PARAM, 0);
+            if (streamingIntervalSeconds > 0) {
+                streaming = new StreamingResponses(streamingIntervalSeconds * 1000L);
+            }
+            // Allow users to record only a sample of the requests of some routes
+            String samplingParam = filterConfig.getInitParameter(SAMPLING_PARAM);
+            if (isNotEmpty(samplingParam)) {
+                try {
+                    sampler = RequestSampler.parse(splitParam(samplingParam));
+                } catch (IllegalArgumentException e) {
+                    DebugUtil.debug("Error: " + e.getMessage() + " in " + SAMPLING_PARAM + ".");
+                }
+            }
+            // Allow users to limit the number of series per metric
+            int maxSeries = getIntParam(filterConfig, MAX_SERIES_PARAM, 0);
+            if (maxSeries > 0) {
+                long maxIdleSeconds = getIntParam(filterConfig, SERIES_MAX_IDLE_SECONDS_PARAM, 0);
+                MonitorMetrics.INSTANCE.setSeriesBudget(maxSeries, maxIdleSeconds * 1000L);
+            }
+            // Allow users to choose the histogram implementation
+            String histogramTypeParam = filterConfig.getInitParameter(HISTOGRAM_TYPE_PARAM);
+            if (isNotEmpty(histogramTypeParam)) {
+                try {
+                    MonitorMetrics.INSTANCE.setHistogramType(HistogramType.fromName(histogramTypeParam));
+                } catch (IllegalArgumentException e) {
+                    DebugUtil.debug("Error: " + HISTOGRAM_TYPE_PARAM + " must be classic, striped, exponential or "
+                            + "sketch but got '" + histogramTypeParam + "'.");
+                }
+            }
+            // Allow users to set the resolution of the exponential histograms
+            int histogramSchema = getIntParam(filterConfig, HISTOGRAM_SCHEMA_PARAM,
+                    ExponentialHistogram.DEFAULT_SCHEMA);
+            String growthFactorParam = filterConfig.getInitParameter(HISTOGRAM_GROWTH_FACTOR_PARAM);
+            if (isNotEmpty(growthFactorParam)) {
+                try {
+                    histogramSchema = ExponentialHistogram.schemaForGrowthFactor(Double.parseDouble(growthFactorParam));
+                } catch (IllegalArgumentException e) {
+                    DebugUtil.debug("Error: " + HISTOGRAM_GROWTH_FACTOR_PARAM + " must be a number greater than 1 "
+                            + "but got '" + growthFactorParam + "'.");
+                }
+            }
+            if (histogramSchema < ExponentialHistogram.MIN_SCHEMA
+                    || histogramSchema > ExponentialHistogram.MAX_SCHEMA) {
+                DebugUtil.debug("Error: " + HISTOGRAM_SCHEMA_PARAM + " must be between "
+                        + ExponentialHistogram.MIN_SCHEMA + " and " + ExponentialHistogram.MAX_SCHEMA + " but got '"
+                        + histogramSchema + "'.");
+                histogramSchema = ExponentialHistogram.DEFAULT_SCHEMA;
+            }
+            int histogramMaxBuckets = getIntParam(filterConfig, HISTOGRAM_MAX_BUCKETS_PARAM,
+                    ExponentialHistogram.DEFAULT_MAX_BUCKETS);
+            MonitorMetrics.INSTANCE.setExponentialHistogram(histogramSchema,
+                    histogramMaxBuckets > 0 ? histogramMaxBuckets : ExponentialHistogram.DEFAULT_MAX_BUCKETS);
+            // Allow users to set the accuracy of the sketch summaries
+            String sketchAccuracyParam = filterConfig.getInitParameter(SKETCH_RELATIVE_ACCURACY_PARAM);
+            if (isNotEmpty(sketchAccuracyParam)) {
+                try {
+                    double sketchAccuracy = Double.parseDouble(sketchAccuracyParam);
+                    if (!(sketchAccuracy > 0 && sketchAccuracy < 1)) {
+                        throw new NumberFormatException();
+                    }
+                    MonitorMetrics.INSTANCE.setSketchRelativeAccuracy(sketchAccuracy);
+                } catch (NumberFormatException e) {
+                    DebugUtil.debug("Error: " + SKETCH_RELATIVE_ACCURACY_PARAM + " must be a number between 0 and 1 "
+                            + "but got '" + sketchAccuracyParam + "'.");
+                }
+            }
+            // Allow users to keep the request latency of the last time window
+            int rollingWindowSeconds = getIntParam(filterConfig, ROLLING_WINDOW_SECONDS_PARAM, 0);
+            if (rollingWindowSeconds > 0) {
+                int rollingWindowSlices = getIntParam(filterConfig, ROLLING_WINDOW_SLICES_PARAM,
+                        RollingSummary.DEFAULT_SLICES);
+                MonitorMetrics.INSTANCE.setRollingWindow(rollingWindowSeconds,
+                        rollingWindowSlices > 0 ? rollingWindowSlices : RollingSummary.DEFAULT_SLICES);
+            }
+            // Allow users to calibrate the buckets from the warmup traffic
+            int calibrationSeconds = getIntParam(filterConfig, BUCKETS_CALIBRATION_SECONDS_PARAM, 0);
+            if (calibrationSeconds > 0) {
+                int calibrationCount = getIntParam(filterConfig, BUCKETS_CALIBRATION_COUNT_PARAM,
+                        DEFAULT_BUCKETS_CALIBRATION_COUNT);
+                String calibrationFile = filterConfig.getInitParameter(BUCKETS_CALIBRATION_FILE_PARAM);
+                MonitorMetrics.INSTANCE.setBucketCalibration(calibrationSeconds,
+                        calibrationCount > 1 ? calibrationCount : DEFAULT_BUCKETS_CALIBRATION_COUNT,
+                        isNotEmpty(calibrationFile) ? calibrationFile.trim() : null);
+            }
 
             filter_max_size = filterConfig.getInitParameter(FILTER_MAX_SIZE_PARAM) != null ?
                 Integer.valueOf(filterConfig.getInitParameter(FILTER_MAX_SIZE_PARAM)) : filter_max_size;
             filter_regex = filterConfig.getInitParameter(FILTER_REGEX_PARAM) != null ?
                 filterConfig.getInitParameter(FILTER_REGEX_PARAM) : DEFAULT_FILTER_REGEX;
+            filter_fingerprint = Boolean.parseBoolean(filterConfig.getInitParameter(FILTER_FINGERPRINT_PARAM));
+            filter_cache_size = getIntParam(filterConfig, FILTER_CACHE_SIZE_PARAM, filter_cache_size);
         }
         String version = isNotEmpty(exportApplicationVersion) ? exportApplicationVersion : getApplicationVersionFromPropertiesFile();
         // Allow users to capture error messages
         errorMessageParam = filterConfig.getInitParameter(ERROR_MESSAGE_PARAM);
+        errorMessageSanitizer = new ErrorMessageSanitizer(compileFilterRegex(), filter_max_size, filter_fingerprint,
+                filter_cache_size);
 
         MonitorMetrics.INSTANCE.init(exportJvmMetrics, version, buckets);
+        seriesCache = new RequestSeriesCache(SERIES_CACHE_MAX_ROUTES);
+        if (sampler != null) {
+            MonitorMetrics.INSTANCE.collectorRegistry.register(sampler);
+        }
+        if (inFlight != null) {
+            MonitorMetrics.INSTANCE.collectorRegistry.register(inFlight);
+        }
+        if (streaming != null) {
+            MonitorMetrics.INSTANCE.collectorRegistry.register(streaming);
+            streaming.start();
+        }
+        // Allow users to record the requests asynchronously
+        if (filterConfig != null) {
+            int asyncBufferSize = getIntParam(filterConfig, ASYNC_RECORDING_BUFFER_SIZE_PARAM, 0);
+            if (asyncBufferSize > 0) {
+                asyncRecorder = MonitorMetrics.INSTANCE.startAsyncRecording(asyncBufferSize);
+            }
+        }
     }
 
     /**
@@ -142,22 +343,52 @@ public class MetricsCollectorFilter implements Filter {
             chain.doFilter(request, response);
             return;
         }
-        final SimpleTimer timer = new SimpleTimer();
+        final long startNanos = System.nanoTime();
         final HttpServletRequest httpRequest = (HttpServletRequest) request;
 
         // TODO parameterize whether or not to add the context path
         String path = httpRequest.getRequestURI();
-        path = substringMaxDepth(path, pathDepth);
 
-        if (isExcludedPath(httpRequest, path)) {
+        if (httpRequest.getDispatcherType() == DispatcherType.ASYNC || isExcludedPath(httpRequest, path)) {
+            // async dispatches are recorded by the listener registered by the request dispatch
             chain.doFilter(request, response);
         } else {
-            final CountingServletResponse counterResponse =
-                    new CountingServletResponse((HttpServletResponse) response);
+            final long weight = sampler == null ? 1
+                    : sampler.sample(path, contextPathLength(httpRequest, path), startNanos);
+            if (weight == 0) {
+                // sampled out, only counted by the sampler
+                chain.doFilter(request, response);
+                return;
+            }
+            if (pathNormalizer != null) {
+                path = pathNormalizer.normalize(path, httpRequest.getContextPath());
+            }
+            path = substringMaxDepth(path, pathDepth);
+            // streaming responses are sampled while open, so their writes are counted even with a Content-Length
+            final HttpServletResponse counterResponse = containerResponseSize != null
+                    && containerResponseSize.supports(response) ? (HttpServletResponse) response
+                    : new CountingServletResponse((HttpServletResponse) response, exactWriterSize,
+                    streaming == null);
+            // requests without body are not wrapped, their size is 0
+            final HttpServletRequest counterRequest = hasBody(httpRequest) ? new CountingServletRequest(httpRequest)
+                    : httpRequest;
+            final StripedCounter inFlightRoute = inFlight == null ? null : inFlight.enter(path, weight);
+            if (streaming != null && counterResponse instanceof CountingServletResponse) {
+                streaming.open(path, (CountingServletResponse) counterResponse, startNanos);
+            }
+            boolean async = false;
             try {
-                chain.doFilter(httpRequest, counterResponse);
+                chain.doFilter(counterRequest, counterResponse);
+                async = httpRequest.isAsyncStarted();
             } finally {
-                collect(httpRequest, counterResponse, path, timer.elapsedSeconds());
+                if (counterResponse instanceof CountingServletResponse) {
+                    ((CountingServletResponse) counterResponse).dispatchReturned(async);
+                }
+                if (!async || !collectOnAsyncEnd(counterRequest, counterResponse, path, startNanos, weight,
+                        inFlightRoute)) {
+                    collect(counterRequest, counterResponse, path, counterResponse.getStatus(), startNanos, weight,
+                            inFlightRoute);
+                }
             }
         }
     }
@@ -168,47 +399,179 @@ public class MetricsCollectorFilter implements Filter {
      */
     @Override
     public void destroy() {
-        //ignored
+        if (asyncRecorder != null) {
+            MonitorMetrics.INSTANCE.stopAsyncRecording();
+            asyncRecorder = null;
+        }
+        if (streaming != null) {
+            streaming.stop();
+        }
+        MonitorMetrics.INSTANCE.stopBucketCalibration();
+    }
+
+    /**
+     * Parses a bucket layout, see {@link Buckets#parse(String)}. An invalid layout is logged as a warning, as the
+     * histograms it was meant for are then not recorded or use other buckets.
+     *
+     * @param paramName name of the init parameter
+     * @param layout    bucket layout
+     * @return upper bounds of the buckets or null if the layout is not valid
+     */
+    private static double[] parseBuckets(String paramName, String layout) {
+        try {
+            return Buckets.parse(layout);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid " + paramName + ": must be a comma-separated list of increasing numbers, "
+                    + "linear:start,width,count or exponential:start,factor,count but got '" + layout + "'.");
+            return null;
+        }
     }
 
     /**
-     * Checks whether the path is configured to be ignored from the metrics collection.
+     * Checks whether the path, without the context path, is configured to be ignored from the metrics collection.
      *
      * @param httpRequest request
      * @param path        HTTP request path
      * @return <code>true</code> if the path is configured to be excluded.
      */
     private boolean isExcludedPath(final HttpServletRequest httpRequest, String path) {
-        if (path.startsWith(httpRequest.getContextPath())) {
-            path = path.substring(httpRequest.getContextPath().length());
+        if (exclusionMatcher.isEmpty()) {
+            return false;
         }
-        for (String exclusion : exclusions) {
-            if (path.startsWith(exclusion)) {
-                DebugUtil.debug("Excluded ", path);
-                return true;
-            }
+        if (exclusionMatcher.matches(path, contextPathLength(httpRequest, path))) {
+            DebugUtil.debug("Excluded ", path);
+            return true;
         }
         return false;
     }
 
+    /**
+     * Returns the length of the context path the path starts with.
+     *
+     * @param httpRequest request
+     * @param path        HTTP request path
+     * @return index of the path where the context path ends, 0 if the path does not start with the context path
+     */
+    private static int contextPathLength(final HttpServletRequest httpRequest, String path) {
+        final String contextPath = httpRequest.getContextPath();
+        return path.startsWith(contextPath) ? contextPath.length() : 0;
+    }
+
+    /**
+     * Registers a listener that collects the metrics when the asynchronous processing of the request ends.
+     *
+     * @param httpRequest     request in asynchronous mode
+     * @param counterResponse response counting the bytes written or supported by the container response size
+     * @param path            path
+     * @param startNanos      when the request started, from {@link System#nanoTime()}
+     * @param weight          number of requests the request stands for
+     * @param inFlightRoute   in flight counter of the route, or null if the requests in flight are not tracked
+     * @return <code>false</code> if the asynchronous processing has already ended and the listener was not registered
+     */
+    private boolean collectOnAsyncEnd(HttpServletRequest httpRequest, HttpServletResponse counterResponse,
+                                      String path, long startNanos, long weight, StripedCounter inFlightRoute) {
+        try {
+            httpRequest.getAsyncContext().addListener(new CollectingAsyncListener(httpRequest, counterResponse,
+                    path, startNanos, weight, inFlightRoute));
+            return true;
+        } catch (IllegalStateException e) {
+            DebugUtil.debug("Async request already completed ", path);
+            return false;
+        }
+    }
+
     /**
      * Collect metrics
      *
-     * @param httpRequest     request
-     * @param counterResponse response
+     * @param httpRequest     request, counting the bytes read if it has a body
+     * @param counterResponse response counting the bytes written or supported by the container response size
      * @param path            path
-     * @param elapsedSeconds  how long time did the request has executed
+     * @param status          the response status code
+     * @param startNanos      when the request started, from {@link System#nanoTime()}
+     * @param weight          number of requests the request stands for, the request and response sizes are scaled
+     *                        by it
+     * @param inFlightRoute   in flight counter of the route, or null if the requests in flight are not tracked
      */
-    private void collect(HttpServletRequest httpRequest, CountingServletResponse counterResponse, String path, double elapsedSeconds) {
-    	final String method = httpRequest.getMethod();
-        final String status = Integer.toString(counterResponse.getStatus());
-        final boolean isError = isErrorStatus(counterResponse.getStatus());
+    private void collect(HttpServletRequest httpRequest, HttpServletResponse counterResponse, String path,
+                         int status, long startNanos, long weight, StripedCounter inFlightRoute) {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        if (inFlightRoute != null) {
+            inFlight.exit(inFlightRoute, weight);
+        }
+        if (streaming != null && counterResponse instanceof CountingServletResponse) {
+            streaming.close((CountingServletResponse) counterResponse);
+        }
+        final String method = httpRequest.getMethod();
+        final boolean isError = isErrorStatus(status);
         final String errorMessage = getErrorMessage(httpRequest);
-        final long count = counterResponse.getByteCount();
+        final long wireBytes = getByteCount(counterResponse);
+        final long wireCount = wireBytes * weight;
+        final long count = getContentByteCount(httpRequest, counterResponse, wireBytes) * weight;
+        final long requestCount = httpRequest instanceof CountingServletRequest
+                ? ((CountingServletRequest) httpRequest).getByteCount() * weight : 0;
+        final long firstByteNanos = counterResponse instanceof CountingServletResponse
+                ? ((CountingServletResponse) counterResponse).getFirstByteNanos() : 0;
+        final long ttfbNanos = firstByteNanos == 0 ? -1 : Math.max(firstByteNanos - startNanos, 0);
         final String scheme = httpRequest.getScheme();
         DebugUtil.debug(path, " ; bytes count = ", count);
-        MonitorMetrics.INSTANCE.collectTime(scheme, status, method, path, isError, errorMessage, elapsedSeconds);
-        MonitorMetrics.INSTANCE.collectSize(scheme, status, method, path, isError, errorMessage, count);
+        DebugUtil.debug(path, " ; wire bytes count = ", wireCount);
+        DebugUtil.debug(path, " ; request bytes count = ", requestCount);
+        RequestSeries series = seriesCache.get(scheme, method, status, isError, path, errorMessage);
+        if (series == null) {
+            return;
+        }
+        if (asyncRecorder != null) {
+            asyncRecorder.record(series, elapsedNanos, ttfbNanos, count, wireCount, requestCount);
+        } else {
+            series.observe(elapsedNanos / Collector.NANOSECONDS_PER_SECOND,
+                    ttfbNanos < 0 ? -1 : ttfbNanos / Collector.NANOSECONDS_PER_SECOND, count, wireCount,
+                    requestCount);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written in the response, with its content encoding applied.
+     *
+     * @param counterResponse response counting the bytes written or supported by the container response size
+     * @return number of bytes written
+     */
+    private long getByteCount(HttpServletResponse counterResponse) {
+        if (counterResponse instanceof CountingServletResponse) {
+            return ((CountingServletResponse) counterResponse).getByteCount();
+        }
+        return containerResponseSize.bytesWritten(counterResponse);
+    }
+
+    /**
+     * Returns the number of bytes of the response content, before its content encoding was applied: the count of
+     * the {@link ContentSizeFilter} if it's mapped after this filter, otherwise the size read from the gzip trailer
+     * or the bytes written.
+     *
+     * @param httpRequest     request
+     * @param counterResponse response counting the bytes written or supported by the container response size
+     * @param wireCount       number of bytes written
+     * @return number of bytes of the response content
+     */
+    private static long getContentByteCount(HttpServletRequest httpRequest, HttpServletResponse counterResponse,
+                                            long wireCount) {
+        final Object content = httpRequest.getAttribute(ContentSizeFilter.RESPONSE_ATTRIBUTE);
+        if (content instanceof CountingServletResponse) {
+            return ((CountingServletResponse) content).getByteCount();
+        }
+        // the container response size does not tell the encoded size apart
+        return counterResponse instanceof CountingServletResponse
+                ? ((CountingServletResponse) counterResponse).getDecodedByteCount() : wireCount;
+    }
+
+    /**
+     * Checks if the request has a body, declared by the Content-Length or the Transfer-Encoding header
+     *
+     * @param httpRequest request
+     * @return <code>true</code> if the request has a body
+     */
+    private static boolean hasBody(HttpServletRequest httpRequest) {
+        return CountingServletRequest.getContentLength(httpRequest) > 0
+                || httpRequest.getHeader("Transfer-Encoding") != null;
     }
 
     /**
@@ -238,23 +601,60 @@ public class MetricsCollectorFilter implements Filter {
             return "";
         }
         String errorMessage = (String) httpRequest.getAttribute(errorMessageParam);
-        String result = "";
         if (errorMessage == null) {
-            return result;
+            return "";
         }
+        return errorMessageSanitizer.sanitize(errorMessage);
+    }
 
+    /**
+     * Compiles the regex used to filter the error messages.
+     *
+     * @return compiled regex or null if it is invalid, then error messages are not recorded
+     */
+    private Pattern compileFilterRegex() {
         try {
-            // apply whitelist filter
-            result = errorMessage.replaceAll(filter_regex, "");
-            if (result.length() > filter_max_size) {
-                result = result.substring(0, filter_max_size);
-            }
-        } catch (Exception e) {
-            // avoid invalid regex or invalid matcher group index
-            result = "";
+            return Pattern.compile(filter_regex);
+        } catch (PatternSyntaxException e) {
             LOGGER.warning("Invalid regex: " + e.getMessage());
+            return null;
         }
-        return result;
+    }
+
+    /**
+     * Splits a comma-separated init parameter value into trimmed values.
+     *
+     * @param param init parameter value, may be null
+     * @return list of values, empty if the parameter is not set
+     */
+    private List<String> splitParam(String param) {
+        List<String> values = new ArrayList<String>();
+        if (isNotEmpty(param)) {
+            for (String value : param.split(",")) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads an int init parameter.
+     *
+     * @param filterConfig filter configuration
+     * @param name         init parameter name
+     * @param defaultValue value returned if the parameter is not set or is not an int
+     * @return init parameter value
+     */
+    private int getIntParam(FilterConfig filterConfig, String name, int defaultValue) {
+        String value = filterConfig.getInitParameter(name);
+        if (isNotEmpty(value)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                DebugUtil.debug("Error: " + name + " must be an int value but got '" + value + "'.");
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -319,4 +719,64 @@ public class MetricsCollectorFilter implements Filter {
         }
     }
 
+    /**
+     * Collects the metrics of an asynchronous request once, when it completes, times out or fails, so the time
+     * spent after the request dispatch returned is recorded too.
+     */
+    private final class CollectingAsyncListener implements AsyncListener {
+
+        private final HttpServletRequest httpRequest;
+        private final HttpServletResponse counterResponse;
+        private final String path;
+        private final long startNanos;
+        private final long weight;
+        private final StripedCounter inFlightRoute;
+        private final AtomicBoolean collected = new AtomicBoolean();
+
+        CollectingAsyncListener(HttpServletRequest httpRequest, HttpServletResponse counterResponse, String path,
+                                long startNanos, long weight, StripedCounter inFlightRoute) {
+            this.httpRequest = httpRequest;
+            this.counterResponse = counterResponse;
+            this.path = path;
+            this.startNanos = startNanos;
+            this.weight = weight;
+            this.inFlightRoute = inFlightRoute;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            collectOnce(counterResponse.getStatus());
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            collectOnce(errorStatus());
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            collectOnce(errorStatus());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // listeners are not kept when the request starts a new asynchronous cycle
+            event.getAsyncContext().addListener(this);
+        }
+
+        /**
+         * Returns the response status, or 500 as the container reports an unhandled timeout or error, if the
+         * status has not been set to an error yet.
+         */
+        private int errorStatus() {
+            final int status = counterResponse.getStatus();
+            return isErrorStatus(status) ? status : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
+
+        private void collectOnce(int status) {
+            if (collected.compareAndSet(false, true)) {
+                collect(httpRequest, counterResponse, path, status, startNanos, weight, inFlightRoute);
+            }
+        }
+    }
 }
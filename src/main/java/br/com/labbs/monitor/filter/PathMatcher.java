@@ -0,0 +1,379 @@
+package br.com.labbs.monitor.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Immutable automaton that matches request paths against a set of patterns in a single pass.
+ *
+ * <p>Plain patterns (e.g. {@code /static}) match any path starting with them. Patterns containing {@code *} are
+ * globs matched against the whole path:
+ * <ul>
+ * <li>{@code *} matches any sequence of characters except {@code /};</li>
+ * <li>{@code **} matches any sequence of characters, including {@code /}, and between two slashes it also matches
+ * no directory at all;</li>
+ * <li>a glob not starting with {@code /} matches in any directory, so {@code *.js} matches {@code /a/b/app.js};</li>
+ * <li>a glob ending with {@code /**} also matches the directory itself, so {@code /static/**} matches
+ * {@code /static}.</li>
+ * </ul>
+ *
+ * <p>All patterns are compiled at once into a deterministic automaton, so matching reads each char of the path at
+ * most once and does not allocate. Each state also knows the lowest index of the patterns it accepts and of the
+ * patterns that may still match after it, so {@link #match(String, int)} tells which pattern matches in the same
+ * pass.
+ */
+public final class PathMatcher {
+
+    private static final int DEAD = -1;
+    private static final int STAR = -1;
+    private static final int GLOBSTAR = -2;
+    private static final int OTHER_CHAR = -3;
+
+    private static final byte NO_MATCH = 0;
+    private static final byte MATCH_AT_END = 1;
+    private static final byte MATCH_PREFIX = 2;
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    /**
+     * Matcher without patterns, never matches.
+     */
+    public static final PathMatcher EMPTY = new PathMatcher(new char[][]{new char[0]}, new int[][]{new int[0]},
+            new int[]{DEAD}, new byte[]{0}, new int[]{NONE}, new int[]{NONE}, new int[]{NONE});
+
+    /* per state: sorted chars with a specific transition, their target states and the target for any other char */
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] otherTarget;
+    private final byte[] accept;
+    /* per state: lowest index of the patterns matching any path going through it, of the patterns matching the
+       paths ending at it and of the patterns that may still match a longer path, NONE if there is none */
+    private final int[] prefixIndex;
+    private final int[] endIndex;
+    private final int[] liveIndex;
+
+    private PathMatcher(char[][] keys, int[][] targets, int[] otherTarget, byte[] accept, int[] prefixIndex,
+                        int[] endIndex, int[] liveIndex) {
+        this.keys = keys;
+        this.targets = targets;
+        this.otherTarget = otherTarget;
+        this.accept = accept;
+        this.prefixIndex = prefixIndex;
+        this.endIndex = endIndex;
+        this.liveIndex = liveIndex;
+    }
+
+    /**
+     * Compiles the patterns into a matcher. Empty patterns are ignored.
+     *
+     * @param patterns plain path prefixes or glob patterns
+     * @return matcher for the given patterns
+     */
+    public static PathMatcher compile(Collection<String> patterns) {
+        List<int[]> tokens = new ArrayList<int[]>();
+        List<Boolean> prefixes = new ArrayList<Boolean>();
+        List<Integer> origins = new ArrayList<Integer>();
+        int index = -1;
+        for (String pattern : patterns) {
+            index++;
+            if (pattern == null || pattern.length() == 0) {
+                continue;
+            }
+            if (pattern.indexOf('*') < 0) {
+                tokens.add(literal(pattern));
+                prefixes.add(Boolean.TRUE);
+            } else {
+                String glob = pattern.startsWith("/") ? pattern : "**/" + pattern;
+                if (glob.endsWith("/**")) {
+                    addGlob(glob.substring(0, glob.length() - 3), 0, tokens, prefixes);
+                }
+                addGlob(glob, 0, tokens, prefixes);
+            }
+            while (origins.size() < tokens.size()) {
+                origins.add(index);
+            }
+        }
+        if (tokens.isEmpty()) {
+            return EMPTY;
+        }
+        return new Compiler(tokens, prefixes, origins).compile();
+    }
+
+    /**
+     * Checks whether the path, starting at the given offset, matches any of the patterns.
+     *
+     * @param path   request path
+     * @param offset index of the first char of the path to be matched, e.g. the context path length
+     * @return <code>true</code> if any pattern matches
+     */
+    public boolean matches(String path, int offset) {
+        int state = 0;
+        if (accept[state] == MATCH_PREFIX) {
+            return true;
+        }
+        for (int i = offset, length = path.length(); i < length; i++) {
+            state = next(state, path.charAt(i));
+            if (state == DEAD) {
+                return false;
+            }
+            if (accept[state] == MATCH_PREFIX) {
+                return true;
+            }
+        }
+        return accept[state] != NO_MATCH;
+    }
+
+    /**
+     * Returns the index of the first of the patterns matching the path, starting at the given offset.
+     *
+     * @param path   request path
+     * @param offset index of the first char of the path to be matched, e.g. the context path length
+     * @return index of the pattern in the collection compiled, -1 if no pattern matches
+     */
+    public int match(String path, int offset) {
+        int state = 0;
+        int best = prefixIndex[state];
+        for (int i = offset, length = path.length(); i < length; i++) {
+            if (best <= liveIndex[state]) {
+                // no pattern before the best one can match a longer path
+                return best == NONE ? -1 : best;
+            }
+            state = next(state, path.charAt(i));
+            if (state == DEAD) {
+                return best == NONE ? -1 : best;
+            }
+            best = Math.min(best, prefixIndex[state]);
+        }
+        best = Math.min(best, endIndex[state]);
+        return best == NONE ? -1 : best;
+    }
+
+    /**
+     * Checks whether there is no pattern to be matched.
+     *
+     * @return <code>true</code> if this matcher never matches
+     */
+    public boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(keys[state], c);
+        return i >= 0 ? targets[state][i] : otherTarget[state];
+    }
+
+    private static int[] literal(String s) {
+        int[] tokens = new int[s.length()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = s.charAt(i);
+        }
+        return tokens;
+    }
+
+    private static void addGlob(String glob, int from, List<int[]> tokens, List<Boolean> prefixes) {
+        // a "/**/" also matches a single "/", so each one is added both as is and collapsed
+        int dirs = glob.indexOf("/**/", from);
+        if (dirs >= 0) {
+            addGlob(glob, dirs + 3, tokens, prefixes);
+            addGlob(glob.substring(0, dirs) + glob.substring(dirs + 3), dirs, tokens, prefixes);
+            return;
+        }
+        int[] parsed = new int[glob.length()];
+        int n = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                parsed[n++] = GLOBSTAR;
+                i++;
+            } else {
+                parsed[n++] = c == '*' ? STAR : c;
+            }
+        }
+        // a trailing ** accepts anything left, so the glob matches as soon as the part before it does
+        boolean prefix = false;
+        while (n > 0 && parsed[n - 1] == GLOBSTAR) {
+            n--;
+            prefix = true;
+        }
+        tokens.add(Arrays.copyOf(parsed, n));
+        prefixes.add(prefix);
+    }
+
+    /**
+     * Subset construction of the automaton. An NFA state is a position in a pattern, encoded as
+     * {@code pattern << 16 | position}.
+     */
+    private static final class Compiler {
+
+        private final List<int[]> patterns;
+        private final List<Boolean> prefixes;
+        private final List<Integer> origins;
+        private final char[] alphabet;
+
+        private final List<List<Integer>> states = new ArrayList<List<Integer>>();
+        private final Map<List<Integer>, Integer> stateIds = new HashMap<List<Integer>, Integer>();
+        private final LinkedList<Integer> pending = new LinkedList<Integer>();
+
+        Compiler(List<int[]> patterns, List<Boolean> prefixes, List<Integer> origins) {
+            this.patterns = patterns;
+            this.prefixes = prefixes;
+            this.origins = origins;
+            SortedSet<Character> chars = new TreeSet<Character>();
+            chars.add('/');
+            for (int[] pattern : patterns) {
+                for (int token : pattern) {
+                    if (token >= 0) {
+                        chars.add((char) token);
+                    }
+                }
+            }
+            alphabet = new char[chars.size()];
+            int i = 0;
+            for (Character c : chars) {
+                alphabet[i++] = c;
+            }
+        }
+
+        PathMatcher compile() {
+            SortedSet<Integer> start = new TreeSet<Integer>();
+            for (int p = 0; p < patterns.size(); p++) {
+                addClosure(start, p, 0);
+            }
+            stateId(start);
+
+            List<char[]> keys = new ArrayList<char[]>();
+            List<int[]> targets = new ArrayList<int[]>();
+            List<Integer> otherTargets = new ArrayList<Integer>();
+            List<Byte> accepts = new ArrayList<Byte>();
+            List<int[]> indexes = new ArrayList<int[]>();
+            while (!pending.isEmpty()) {
+                List<Integer> state = states.get(pending.removeFirst());
+                byte accept = acceptOf(state);
+                int[] stateIndexes = indexesOf(state);
+                // a state is final once it accepts a pattern before every pattern that may still match
+                boolean last = stateIndexes[0] <= stateIndexes[2];
+                int other = last ? DEAD : stateId(move(state, OTHER_CHAR));
+                char[] stateKeys = new char[alphabet.length];
+                int[] stateTargets = new int[alphabet.length];
+                int n = 0;
+                if (!last) {
+                    for (char c : alphabet) {
+                        int target = stateId(move(state, c));
+                        if (target != other) {
+                            stateKeys[n] = c;
+                            stateTargets[n++] = target;
+                        }
+                    }
+                }
+                keys.add(Arrays.copyOf(stateKeys, n));
+                targets.add(Arrays.copyOf(stateTargets, n));
+                otherTargets.add(other);
+                accepts.add(accept);
+                indexes.add(stateIndexes);
+            }
+
+            int size = states.size();
+            int[] otherTarget = new int[size];
+            byte[] accept = new byte[size];
+            int[] prefixIndex = new int[size];
+            int[] endIndex = new int[size];
+            int[] liveIndex = new int[size];
+            for (int i = 0; i < size; i++) {
+                otherTarget[i] = otherTargets.get(i);
+                accept[i] = accepts.get(i);
+                prefixIndex[i] = indexes.get(i)[0];
+                endIndex[i] = indexes.get(i)[1];
+                liveIndex[i] = indexes.get(i)[2];
+            }
+            return new PathMatcher(keys.toArray(new char[size][]), targets.toArray(new int[size][]), otherTarget,
+                    accept, prefixIndex, endIndex, liveIndex);
+        }
+
+        private int stateId(SortedSet<Integer> set) {
+            if (set.isEmpty()) {
+                return DEAD;
+            }
+            List<Integer> state = new ArrayList<Integer>(set);
+            Integer id = stateIds.get(state);
+            if (id == null) {
+                id = states.size();
+                states.add(state);
+                stateIds.put(state, id);
+                pending.add(id);
+            }
+            return id;
+        }
+
+        private SortedSet<Integer> move(List<Integer> state, int c) {
+            SortedSet<Integer> result = new TreeSet<Integer>();
+            for (int nfaState : state) {
+                int p = nfaState >>> 16;
+                int pos = nfaState & 0xFFFF;
+                int[] pattern = patterns.get(p);
+                if (pos == pattern.length) {
+                    continue;
+                }
+                int token = pattern[pos];
+                if (token == c) {
+                    addClosure(result, p, pos + 1);
+                } else if (token == GLOBSTAR || (token == STAR && c != '/')) {
+                    addClosure(result, p, pos);
+                }
+            }
+            return result;
+        }
+
+        private void addClosure(SortedSet<Integer> set, int p, int pos) {
+            int[] pattern = patterns.get(p);
+            set.add(p << 16 | pos);
+            // wildcards may match nothing
+            while (pos < pattern.length && pattern[pos] < 0) {
+                set.add(p << 16 | ++pos);
+            }
+        }
+
+        /**
+         * Returns the lowest index of the patterns matching any path going through the state, of the patterns
+         * matching the paths ending at it and of the patterns whose positions are not complete prefix matches.
+         */
+        private int[] indexesOf(List<Integer> state) {
+            int[] indexes = {NONE, NONE, NONE};
+            for (int nfaState : state) {
+                int p = nfaState >>> 16;
+                int origin = origins.get(p);
+                boolean complete = (nfaState & 0xFFFF) == patterns.get(p).length;
+                if (complete && prefixes.get(p)) {
+                    indexes[0] = Math.min(indexes[0], origin);
+                    indexes[1] = Math.min(indexes[1], origin);
+                } else {
+                    if (complete) {
+                        indexes[1] = Math.min(indexes[1], origin);
+                    }
+                    indexes[2] = Math.min(indexes[2], origin);
+                }
+            }
+            return indexes;
+        }
+
+        private byte acceptOf(List<Integer> state) {
+            byte accept = NO_MATCH;
+            for (int nfaState : state) {
+                int p = nfaState >>> 16;
+                if ((nfaState & 0xFFFF) == patterns.get(p).length) {
+                    if (prefixes.get(p)) {
+                        return MATCH_PREFIX;
+                    }
+                    accept = MATCH_AT_END;
+                }
+            }
+            return accept;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package br.com.labbs.monitor.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rewrites request paths to route templates, e.g. {@code /users/123/orders/9} to {@code /users/{id}/orders/{id}},
+ * so the {@code addr} label does not create a new series per resource identifier.
+ *
+ * <p>The path, without the context path, is first matched against the configured templates, in the given order.
+ * A template segment between braces (e.g. {@code {userId}}) matches any non-empty segment and the other segments
+ * must be equal. When no template matches and the built-in detectors are enabled, numeric segments are replaced by
+ * {@code {id}}, UUID segments by {@code {uuid}} and long hexadecimal segments by {@code {hex}}.
+ *
+ * <p>Results are kept in a bounded cache keyed by the raw path, so a repeated path costs one hash lookup.
+ * The cache is cleared when it is full.
+ */
+public final class PathNormalizer {
+
+    static final String ID = "{id}";
+    static final String UUID = "{uuid}";
+    static final String HEX = "{hex}";
+    private static final int UUID_LENGTH = 36;
+    private static final int MIN_HEX_LENGTH = 16;
+
+    private final List<String> templates = new ArrayList<String>();
+    private final List<String[]> templateSegments = new ArrayList<String[]>();
+    private final boolean detectIds;
+    private final int cacheSize;
+    private final ConcurrentMap<String, String> cache;
+
+    /**
+     * Creates an instance of {@link PathNormalizer}
+     *
+     * @param templates route templates, e.g. {@code /users/{id}/orders/{id}}
+     * @param detectIds whether numeric, UUID and hexadecimal segments not matched by a template are replaced
+     * @param cacheSize max number of paths kept in the cache
+     */
+    public PathNormalizer(Collection<String> templates, boolean detectIds, int cacheSize) {
+        for (String template : templates) {
+            if (template == null || template.length() == 0) {
+                continue;
+            }
+            this.templates.add(template);
+            this.templateSegments.add(segmentsOf(template));
+        }
+        this.detectIds = detectIds;
+        this.cacheSize = cacheSize;
+        this.cache = new ConcurrentHashMap<String, String>(Math.min(cacheSize, 1024));
+    }
+
+    /**
+     * Returns the route template of the path.
+     *
+     * @param path        HTTP request path
+     * @param contextPath context path of the request, kept as is
+     * @return template of the path, or the path itself when there is nothing to rewrite
+     */
+    public String normalize(String path, String contextPath) {
+        String normalized = cache.get(path);
+        if (normalized != null) {
+            return normalized;
+        }
+        final int offset = contextPath != null && path.startsWith(contextPath) ? contextPath.length() : 0;
+        normalized = normalize(path, offset);
+        if (cacheSize > 0) {
+            if (cache.size() >= cacheSize) {
+                cache.clear();
+            }
+            cache.put(path, normalized);
+        }
+        return normalized;
+    }
+
+    String normalize(String path, int offset) {
+        for (int i = 0; i < templateSegments.size(); i++) {
+            if (matches(templateSegments.get(i), path, offset)) {
+                return path.substring(0, offset) + templates.get(i);
+            }
+        }
+        return detectIds ? replaceIds(path, offset) : path;
+    }
+
+    /**
+     * Checks whether the path segments after the offset match the template segments.
+     */
+    private static boolean matches(String[] segments, String path, int offset) {
+        int start = path.startsWith("/", offset) ? offset + 1 : offset;
+        for (int i = 0; i < segments.length; i++) {
+            if (start > path.length()) {
+                return false;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = segments[i];
+            if (isPlaceholder(segment)) {
+                if (end == start) {
+                    return false;
+                }
+            } else if (segment.length() != end - start || !path.startsWith(segment, start)) {
+                return false;
+            }
+            start = end + 1;
+        }
+        // every path segment must have been consumed
+        return start == path.length() + 1;
+    }
+
+    private static String replaceIds(String path, int offset) {
+        StringBuilder sb = null;
+        int start = offset;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String replacement = idOf(path, start, end);
+            if (replacement != null && sb == null) {
+                sb = new StringBuilder(path.length()).append(path, 0, start);
+            }
+            if (sb != null) {
+                if (replacement != null) {
+                    sb.append(replacement);
+                } else {
+                    sb.append(path, start, end);
+                }
+                if (end < path.length()) {
+                    sb.append('/');
+                }
+            }
+            start = end + 1;
+        }
+        return sb == null ? path : sb.toString();
+    }
+
+    /**
+     * Returns the placeholder of a segment detected as an identifier or null when it is not one.
+     */
+    private static String idOf(String path, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return null;
+        }
+        boolean digits = true;
+        boolean hex = true;
+        boolean hasDigit = false;
+        for (int i = start; i < end && hex; i++) {
+            char c = path.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+            } else {
+                digits = false;
+                hex = (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+            }
+        }
+        if (digits) {
+            return ID;
+        }
+        if (hex && hasDigit && length >= MIN_HEX_LENGTH) {
+            return HEX;
+        }
+        return length == UUID_LENGTH && isUuid(path, start) ? UUID : null;
+    }
+
+    private static boolean isUuid(String path, int start) {
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = path.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPlaceholder(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    private static String[] segmentsOf(String template) {
+        String t = template.startsWith("/") ? template.substring(1) : template;
+        return t.split("/", -1);
+    }
+}
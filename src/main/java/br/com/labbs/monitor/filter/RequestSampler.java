@@ -0,0 +1,170 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.StripedCounter;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which requests are recorded into the metrics, per route prefix. A rule {@code /health=100} records one
+ * in 100 requests of the paths starting with {@code /health}, a rule {@code /search=adaptive:50} records at most 50
+ * requests per second of the paths starting with {@code /search}. The longest matching prefix wins and the requests
+ * not matched by any rule are always recorded.
+ *
+ * <p>The requests of each rule are counted exactly by striped counters and exported as
+ * monitor_sampling_requests_total and monitor_sampling_recorded_total, so the recorded metrics can be scaled back.
+ */
+final class RequestSampler extends Collector {
+
+    private static final String ADAPTIVE = "adaptive:";
+    private static final long WINDOW_NANOS = 1000000000L;
+
+    private final Rule[] rules;
+
+    private RequestSampler(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Parses the sampling rules.
+     *
+     * @param rules rules formatted as {@code <prefix>=<N>} or {@code <prefix>=adaptive:<requests per second>}
+     * @return sampler of the rules
+     * @throws IllegalArgumentException if a rule is not valid
+     */
+    static RequestSampler parse(Collection<String> rules) {
+        List<Rule> parsed = new ArrayList<Rule>();
+        for (String rule : rules) {
+            if (rule.length() == 0) {
+                continue;
+            }
+            int eq = rule.lastIndexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Invalid sampling rule '" + rule + "'");
+            }
+            String prefix = rule.substring(0, eq).trim();
+            String value = rule.substring(eq + 1).trim();
+            int every = 0;
+            int maxPerSecond = 0;
+            try {
+                if (value.startsWith(ADAPTIVE)) {
+                    maxPerSecond = Integer.parseInt(value.substring(ADAPTIVE.length()).trim());
+                } else {
+                    every = Integer.parseInt(value);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid sampling rule '" + rule + "'");
+            }
+            if (every < 0 || maxPerSecond < 0 || every == 0 && maxPerSecond == 0) {
+                throw new IllegalArgumentException("Invalid sampling rule '" + rule + "'");
+            }
+            parsed.add(new Rule(prefix, every, maxPerSecond));
+        }
+        // longest prefixes first, so the first match is the most specific
+        Collections.sort(parsed, new Comparator<Rule>() {
+            public int compare(Rule a, Rule b) {
+                return b.prefix.length() - a.prefix.length();
+            }
+        });
+        return new RequestSampler(parsed.toArray(new Rule[parsed.size()]));
+    }
+
+    /**
+     * Decides whether a request is recorded.
+     *
+     * @param path      request path
+     * @param offset    index of the path where the route starts, i.e. the context path length
+     * @param nowNanos  current time from {@link System#nanoTime()}
+     * @return 0 if the request must not be recorded, otherwise the number of requests it stands for
+     */
+    long sample(String path, int offset, long nowNanos) {
+        for (Rule rule : rules) {
+            if (path.startsWith(rule.prefix, offset)) {
+                return rule.sample(nowNanos);
+            }
+        }
+        return 1;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<String> labelNames = Arrays.asList("route");
+        CounterMetricFamily requests = new CounterMetricFamily("monitor_sampling_requests_total",
+                "counts the requests matched by a sampling rule", labelNames);
+        CounterMetricFamily recorded = new CounterMetricFamily("monitor_sampling_recorded_total",
+                "counts the requests matched by a sampling rule that were recorded", labelNames);
+        for (Rule rule : rules) {
+            List<String> labelValues = Arrays.asList(rule.prefix);
+            requests.addMetric(labelValues, rule.requests.sum());
+            recorded.addMetric(labelValues, rule.recorded.sum());
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(2);
+        mfs.add(requests);
+        mfs.add(recorded);
+        return mfs;
+    }
+
+    /**
+     * Sampling rule of one route prefix.
+     */
+    private static final class Rule {
+
+        private final String prefix;
+        private final int every;
+        private final int maxPerSecond;
+        private final StripedCounter requests = new StripedCounter();
+        private final StripedCounter recorded = new StripedCounter();
+        /* adaptive sampling state, per window of one second */
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private final AtomicInteger windowRecorded = new AtomicInteger();
+        private volatile long windowRequests;
+        private volatile long weight = 1;
+
+        Rule(String prefix, int every, int maxPerSecond) {
+            this.prefix = prefix;
+            this.every = every;
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        long sample(long nowNanos) {
+            final long cell = requests.increment();
+            if (every > 0) {
+                // one in every requests of each stripe, so one in every requests overall
+                if (cell % every != 0) {
+                    return 0;
+                }
+                recorded.increment();
+                return every;
+            }
+            final long start = windowStart.get();
+            if (nowNanos - start >= WINDOW_NANOS && windowStart.compareAndSet(start, nowNanos)) {
+                rotate();
+            }
+            if (windowRecorded.get() >= maxPerSecond || windowRecorded.incrementAndGet() > maxPerSecond) {
+                return 0;
+            }
+            recorded.increment();
+            return weight;
+        }
+
+        /**
+         * Starts a new window, weighting the requests recorded by the ratio of the previous window.
+         */
+        private void rotate() {
+            final long total = requests.sum();
+            final long seen = total - windowRequests;
+            final int sampled = Math.min(windowRecorded.get(), maxPerSecond);
+            windowRequests = total;
+            weight = sampled == 0 ? 1 : Math.max(1, Math.round((double) seen / sampled));
+            windowRecorded.set(0);
+        }
+    }
+}
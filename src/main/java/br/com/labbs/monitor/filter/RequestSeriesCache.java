@@ -0,0 +1,153 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.MonitorMetrics;
+import br.com.labbs.monitor.RequestSeries;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the {@link RequestSeries} bound by {@link MonitorMetrics} per route and per scheme, method and status, so a
+ * request recorded with an already seen label combination costs one hash lookup on the route and one binary search
+ * on a small int array, with no allocation.
+ *
+ * <p>Only requests with a common scheme and HTTP method and without error message are cached. Overflow series
+ * are never cached, and the cache is cleared whenever {@link MonitorMetrics} removes series.
+ */
+final class RequestSeriesCache {
+
+    private static final String[] SCHEMES = {"http", "https"};
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS", "TRACE",
+            "CONNECT"};
+    private static final int MAX_STATUS = 1 << 10;
+
+    private final int maxRoutes;
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    private volatile int generation;
+
+    /**
+     * Creates an instance of {@link RequestSeriesCache}
+     *
+     * @param maxRoutes max number of routes cached
+     */
+    RequestSeriesCache(int maxRoutes) {
+        this.maxRoutes = maxRoutes;
+        this.generation = MonitorMetrics.INSTANCE.getSeriesGeneration();
+    }
+
+    /**
+     * Returns the series of the label combination, binding them if they are not cached.
+     *
+     * @param scheme       which request protocol was used
+     * @param method       the request method
+     * @param status       the response status code
+     * @param isError      if the status code reported is an error or not, must be derived from the status
+     * @param addr         the requested endpoint address
+     * @param errorMessage the error message from a request with error
+     * @return the series or null if {@link MonitorMetrics} has not been initialized
+     */
+    RequestSeries get(String scheme, String method, int status, boolean isError, String addr, String errorMessage) {
+        final int currentGeneration = MonitorMetrics.INSTANCE.getSeriesGeneration();
+        if (currentGeneration != generation) {
+            routes.clear();
+            generation = currentGeneration;
+        }
+        final int key = errorMessage.length() == 0 ? keyOf(scheme, method, status) : -1;
+        Route route = null;
+        if (key >= 0) {
+            route = routes.get(addr);
+            if (route != null) {
+                RequestSeries series = route.get(key);
+                if (series != null) {
+                    return series;
+                }
+            }
+        }
+        RequestSeries series = MonitorMetrics.INSTANCE.requestSeries(scheme, Integer.toString(status), method, addr,
+                isError, errorMessage);
+        if (key < 0 || series == null || series.isOverflow()
+                || currentGeneration != MonitorMetrics.INSTANCE.getSeriesGeneration()) {
+            return series;
+        }
+        if (route == null) {
+            if (routes.size() >= maxRoutes) {
+                return series;
+            }
+            route = new Route();
+            Route existing = routes.putIfAbsent(addr, route);
+            if (existing != null) {
+                route = existing;
+            }
+        }
+        route.put(key, series);
+        return series;
+    }
+
+    /**
+     * Returns the int key of scheme, method and status, or -1 if any of them is not cacheable.
+     */
+    private static int keyOf(String scheme, String method, int status) {
+        if (status < 0 || status >= MAX_STATUS) {
+            return -1;
+        }
+        int schemeIndex = indexOf(SCHEMES, scheme);
+        int methodIndex = indexOf(METHODS, method);
+        if (schemeIndex < 0 || methodIndex < 0) {
+            return -1;
+        }
+        return (schemeIndex * METHODS.length + methodIndex) * MAX_STATUS + status;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value || values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Series of one route, sorted by key and replaced on write.
+     */
+    private static final class Route {
+
+        private volatile Entries entries = new Entries(new int[0], new RequestSeries[0]);
+
+        RequestSeries get(int key) {
+            final Entries e = entries;
+            int i = Arrays.binarySearch(e.keys, key);
+            return i >= 0 ? e.series[i] : null;
+        }
+
+        synchronized void put(int key, RequestSeries series) {
+            final Entries e = entries;
+            int i = Arrays.binarySearch(e.keys, key);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            int[] keys = new int[e.keys.length + 1];
+            RequestSeries[] values = new RequestSeries[keys.length];
+            System.arraycopy(e.keys, 0, keys, 0, i);
+            System.arraycopy(e.series, 0, values, 0, i);
+            keys[i] = key;
+            values[i] = series;
+            System.arraycopy(e.keys, i, keys, i + 1, e.keys.length - i);
+            System.arraycopy(e.series, i, values, i + 1, e.keys.length - i);
+            entries = new Entries(keys, values);
+        }
+    }
+
+    private static final class Entries {
+
+        final int[] keys;
+        final RequestSeries[] series;
+
+        Entries(int[] keys, RequestSeries[] series) {
+            this.keys = keys;
+            this.series = series;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package br.com.labbs.monitor.filter;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Samples the bytes written by the responses still open, so long-lived responses such as server-sent events,
+ * chunked exports and file downloads are visible while they are streaming, not only when they end.
+ *
+ * <p>A single daemon timer samples all the open responses once per interval. A response open for at least one
+ * interval is a stream. Per route, the throughput of the streams in bytes per second over the last interval, the
+ * number of streams and the number of streams that wrote nothing during the last interval are exported as the
+ * http_stream_throughput_bytes_per_second, http_streams_in_progress and http_streams_stalled gauges.
+ *
+ * <p>The byte counts are read from the timer thread without synchronization, so a sample may miss the latest
+ * writes, which are then counted in the next interval. The bytes written by a stream since the last sample when it
+ * closes are counted in the next interval too. The responses are counted through the counting stream or writer even
+ * when they declare their Content-Length, see {@link CountingServletResponse}.
+ */
+final class StreamingResponses extends Collector {
+
+    private final long intervalNanos;
+    private final ConcurrentMap<CountingServletResponse, Stream> open =
+            new ConcurrentHashMap<CountingServletResponse, Stream>();
+    private final Timer timer;
+    private long lastTickNanos = System.nanoTime();
+    /* bytes written by the streams closed since the last sample, per route, guarded by this */
+    private final Map<String, Long> closedBytes = new HashMap<String, Long>();
+    private volatile Map<String, RouteSample> samples = Collections.emptyMap();
+
+    /**
+     * Creates an instance of {@link StreamingResponses}, without starting the timer
+     *
+     * @param intervalMillis sampling interval in milliseconds
+     */
+    StreamingResponses(long intervalMillis) {
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.timer = new Timer("monitor-metrics-streaming", true);
+    }
+
+    /**
+     * Starts sampling the open responses periodically.
+     */
+    void start() {
+        final long intervalMillis = intervalNanos / 1000000L;
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                tick(System.nanoTime());
+            }
+        }, intervalMillis, intervalMillis);
+    }
+
+    /**
+     * Stops sampling.
+     */
+    void stop() {
+        timer.cancel();
+    }
+
+    /**
+     * Tracks a response until {@link #close(CountingServletResponse)} is called.
+     *
+     * @param route      route of the request
+     * @param response   response counting the bytes written
+     * @param startNanos when the request started, from {@link System#nanoTime()}
+     */
+    void open(String route, CountingServletResponse response, long startNanos) {
+        open.put(response, new Stream(route, response, startNanos));
+    }
+
+    /**
+     * Stops tracking a response. If it's a stream, the bytes it wrote since the last sample are counted in the next
+     * one.
+     *
+     * @param response response passed to {@link #open(String, CountingServletResponse, long)}
+     */
+    void close(CountingServletResponse response) {
+        final Stream stream = open.remove(response);
+        if (stream != null && System.nanoTime() - stream.startNanos >= intervalNanos) {
+            closed(stream, response.getByteCount());
+        }
+    }
+
+    private synchronized void closed(Stream stream, long bytes) {
+        final long written = bytes - stream.sampledBytes;
+        if (written > 0) {
+            final Long pending = closedBytes.get(stream.route);
+            closedBytes.put(stream.route, pending == null ? written : pending + written);
+        }
+    }
+
+    /**
+     * Samples the bytes written by the open responses since the previous call.
+     *
+     * @param now current {@link System#nanoTime()}
+     */
+    synchronized void tick(long now) {
+        final double elapsedSeconds = (now - lastTickNanos) / NANOSECONDS_PER_SECOND;
+        lastTickNanos = now;
+        Map<String, RouteSample> routes = new HashMap<String, RouteSample>();
+        for (Stream stream : open.values()) {
+            final long bytes = stream.response.getByteCount();
+            final long written = bytes - stream.sampledBytes;
+            stream.sampledBytes = bytes;
+            if (now - stream.startNanos < intervalNanos) {
+                // not a stream yet
+                continue;
+            }
+            RouteSample route = route(routes, stream.route);
+            route.streams++;
+            route.bytes += written;
+            if (written == 0) {
+                route.stalled++;
+            }
+        }
+        for (Map.Entry<String, Long> closed : closedBytes.entrySet()) {
+            route(routes, closed.getKey()).bytes += closed.getValue();
+        }
+        closedBytes.clear();
+        for (RouteSample route : routes.values()) {
+            route.bytesPerSecond = elapsedSeconds > 0 ? route.bytes / elapsedSeconds : 0;
+        }
+        samples = routes;
+    }
+
+    private static RouteSample route(Map<String, RouteSample> routes, String name) {
+        RouteSample route = routes.get(name);
+        if (route == null) {
+            route = new RouteSample();
+            routes.put(name, route);
+        }
+        return route;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<String> labelNames = Arrays.asList("addr");
+        GaugeMetricFamily throughput = new GaugeMetricFamily("http_stream_throughput_bytes_per_second",
+                "bytes per second written by the streaming responses during the last sampling interval", labelNames);
+        GaugeMetricFamily inProgress = new GaugeMetricFamily("http_streams_in_progress",
+                "number of responses open for at least one sampling interval", labelNames);
+        GaugeMetricFamily stalled = new GaugeMetricFamily("http_streams_stalled",
+                "number of streaming responses that wrote nothing during the last sampling interval", labelNames);
+        for (Map.Entry<String, RouteSample> route : samples.entrySet()) {
+            List<String> labelValues = Arrays.asList(route.getKey());
+            throughput.addMetric(labelValues, route.getValue().bytesPerSecond);
+            inProgress.addMetric(labelValues, route.getValue().streams);
+            stalled.addMetric(labelValues, route.getValue().stalled);
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<MetricFamilySamples>(3);
+        mfs.add(throughput);
+        mfs.add(inProgress);
+        mfs.add(stalled);
+        return mfs;
+    }
+
+    /**
+     * An open response.
+     */
+    private static final class Stream {
+
+        private final String route;
+        private final CountingServletResponse response;
+        private final long startNanos;
+        /* guarded by StreamingResponses.this */
+        private long sampledBytes;
+
+        Stream(String route, CountingServletResponse response, long startNanos) {
+            this.route = route;
+            this.response = response;
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * Streams of one route in the last sampling interval.
+     */
+    private static final class RouteSample {
+
+        private int streams;
+        private int stalled;
+        private long bytes;
+        private double bytesPerSecond;
+    }
+}
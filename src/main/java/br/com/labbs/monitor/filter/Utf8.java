@@ -0,0 +1,103 @@
+package br.com.labbs.monitor.filter;
+
+/**
+ * Computes the UTF-8 encoded length of chars without encoding them.
+ * <p>
+ * Every char takes at least one byte, so the length starts from the number of chars and only the non-ASCII chars
+ * add bytes. Runs of ASCII chars are skipped four chars per step. A surrogate pair takes four bytes and a lone
+ * surrogate one byte, as the JDK encoder replaces it by {@code '?'}.
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * Returns the UTF-8 encoded length of a char that is not a high surrogate.
+     *
+     * @param c char
+     * @return number of bytes
+     */
+    static int length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        return Character.isLowSurrogate(c) ? 1 : 3;
+    }
+
+    /**
+     * Returns the UTF-8 encoded length of a range of chars.
+     *
+     * @param chars chars
+     * @param start index of the first char
+     * @param end   index after the last char
+     * @return number of bytes
+     */
+    static long length(char[] chars, int start, int end) {
+        long bytes = end - start;
+        int i = start;
+        while (i < end) {
+            while (i + 3 < end && ((chars[i] | chars[i + 1] | chars[i + 2] | chars[i + 3]) & 0xFF80) == 0) {
+                i += 4;
+            }
+            if (i == end) {
+                break;
+            }
+            char c = chars[i++];
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c)) {
+                if (i < end && Character.isLowSurrogate(chars[i])) {
+                    i++;
+                    bytes += 2;
+                }
+            } else if (!Character.isLowSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the UTF-8 encoded length of a range of chars.
+     *
+     * @param chars chars
+     * @param start index of the first char
+     * @param end   index after the last char
+     * @return number of bytes
+     */
+    static long length(CharSequence chars, int start, int end) {
+        long bytes = end - start;
+        int i = start;
+        while (i < end) {
+            while (i + 3 < end && ((chars.charAt(i) | chars.charAt(i + 1) | chars.charAt(i + 2)
+                    | chars.charAt(i + 3)) & 0xFF80) == 0) {
+                i += 4;
+            }
+            if (i == end) {
+                break;
+            }
+            char c = chars.charAt(i++);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c)) {
+                if (i < end && Character.isLowSurrogate(chars.charAt(i))) {
+                    i++;
+                    bytes += 2;
+                }
+            } else if (!Character.isLowSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+}
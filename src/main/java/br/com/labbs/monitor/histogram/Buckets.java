@@ -0,0 +1,119 @@
+package br.com.labbs.monitor.histogram;
+
+/**
+ * Generators of histogram bucket layouts.
+ */
+public final class Buckets {
+
+    private static final String LINEAR = "linear:";
+    private static final String EXPONENTIAL = "exponential:";
+
+    private Buckets() {
+    }
+
+    /**
+     * Returns {@code count} buckets, the first one with the upper bound {@code start} and each one {@code width}
+     * wider than the previous one.
+     *
+     * @param start upper bound of the first bucket
+     * @param width difference between two consecutive upper bounds, greater than 0
+     * @param count number of buckets, at least 1
+     * @return upper bounds in increasing order
+     * @throws IllegalArgumentException if the width or the count is not valid
+     */
+    public static double[] linear(double start, double width, int count) {
+        if (!(width > 0) || count < 1) {
+            throw new IllegalArgumentException("Linear buckets need a width greater than 0 and at least one bucket: "
+                    + width + ", " + count);
+        }
+        double[] buckets = new double[count];
+        for (int i = 0; i < count; i++) {
+            buckets[i] = start + i * width;
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns {@code count} buckets, the first one with the upper bound {@code start} and each upper bound
+     * {@code factor} times the previous one.
+     *
+     * @param start  upper bound of the first bucket, greater than 0
+     * @param factor ratio between two consecutive upper bounds, greater than 1
+     * @param count  number of buckets, at least 1
+     * @return upper bounds in increasing order
+     * @throws IllegalArgumentException if the start, the factor or the count is not valid
+     */
+    public static double[] exponential(double start, double factor, int count) {
+        if (!(start > 0) || !(factor > 1) || count < 1) {
+            throw new IllegalArgumentException("Exponential buckets need a start greater than 0, a factor greater "
+                    + "than 1 and at least one bucket: " + start + ", " + factor + ", " + count);
+        }
+        double[] buckets = new double[count];
+        buckets[0] = start;
+        for (int i = 1; i < count; i++) {
+            buckets[i] = buckets[i - 1] * factor;
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns the given upper bounds, checking they are in increasing order.
+     *
+     * @param upperBounds upper bounds
+     * @return a copy of the upper bounds
+     * @throws IllegalArgumentException if there is no upper bound or they are not in increasing order
+     */
+    public static double[] explicit(double... upperBounds) {
+        if (upperBounds.length == 0) {
+            throw new IllegalArgumentException("Histogram must have at least one bucket.");
+        }
+        for (int i = 0; i < upperBounds.length - 1; i++) {
+            if (!(upperBounds[i] < upperBounds[i + 1])) {
+                throw new IllegalArgumentException("Histogram buckets must be in increasing order: "
+                        + upperBounds[i] + " >= " + upperBounds[i + 1]);
+            }
+        }
+        return upperBounds.clone();
+    }
+
+    /**
+     * Parses a layout: {@code linear:start,width,count}, {@code exponential:start,factor,count} or a comma-separated
+     * list of upper bounds, e.g. {@code exponential:0.01,2,11} for 10 ms to about 10 s.
+     *
+     * @param layout layout
+     * @return upper bounds in increasing order
+     * @throws IllegalArgumentException if the layout is not valid
+     */
+    public static double[] parse(String layout) {
+        final String trimmed = layout.trim();
+        if (trimmed.startsWith(LINEAR)) {
+            double[] args = numbers(trimmed.substring(LINEAR.length()), 3);
+            return linear(args[0], args[1], count(args[2]));
+        }
+        if (trimmed.startsWith(EXPONENTIAL)) {
+            double[] args = numbers(trimmed.substring(EXPONENTIAL.length()), 3);
+            return exponential(args[0], args[1], count(args[2]));
+        }
+        return explicit(numbers(trimmed, -1));
+    }
+
+    private static double[] numbers(String list, int expected) {
+        String[] parts = list.split(",");
+        if (expected >= 0 && parts.length != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " numbers but got '" + list + "'");
+        }
+        double[] numbers = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            // NumberFormatException is an IllegalArgumentException
+            numbers[i] = Double.parseDouble(parts[i].trim());
+        }
+        return numbers;
+    }
+
+    private static int count(double count) {
+        if (count != Math.rint(count)) {
+            throw new IllegalArgumentException("Bucket count must be an integer: " + count);
+        }
+        return (int) count;
+    }
+}
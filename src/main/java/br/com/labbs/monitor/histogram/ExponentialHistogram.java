@@ -0,0 +1,508 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse histogram with exponential buckets, in the style of the Prometheus native histograms: with a schema
+ * {@code s}, the bucket of index {@code i} holds the values in {@code (2^((i-1)*2^-s)), 2^(i*2^-s)]}, so each bucket
+ * is {@code 2^(2^-s)} times wider than the previous one and the relative error of a quantile is bounded whatever
+ * the range of the values. Values lower than or equal to 0 are counted in a zero bucket.
+ *
+ * <p>Only the populated buckets are kept, in a primitive hash map. When a series has more than the max number of
+ * buckets, its schema is decreased by one, merging the buckets in pairs, until it fits.
+ *
+ * <p>It is exported as a classic Prometheus histogram. By default, the buckets are exported at the classic schema
+ * (1, growth factor 1.41), or at the lowest schema of the series if it is lower, over one range of buckets shared by
+ * every series of the family, so the {@code le} values of a series don't shift between scrapes and can be aggregated
+ * across series. The range is the one set with {@link Builder#classicRange(double, double)}, or else grows from the
+ * lowest to the highest bucket populated in any series since the histogram was created. A grown range has at most
+ * {@link Builder#maxClassicBuckets(int)} buckets: beyond that, the export schema is decreased by one, merging the
+ * buckets in pairs, so an outlier widens the buckets instead of adding {@code le} series to every series of the
+ * family. When the scrape asks for it with {@link #setHighResolution(boolean)},
+ * every populated bucket is exported at the schema of the series.
+ */
+public class ExponentialHistogram extends ObserverCollector<ExponentialHistogram.Child> {
+
+    public static final int MIN_SCHEMA = -4;
+    public static final int MAX_SCHEMA = 8;
+    public static final int DEFAULT_SCHEMA = 3;
+    public static final int DEFAULT_MAX_BUCKETS = 160;
+    public static final int DEFAULT_CLASSIC_SCHEMA = 1;
+    public static final int DEFAULT_MAX_CLASSIC_BUCKETS = 40;
+
+    private static final double INV_LN2 = 1 / Math.log(2);
+    private static final ThreadLocal<Boolean> HIGH_RESOLUTION = new ThreadLocal<Boolean>();
+
+    private final int schema;
+    private final int maxBuckets;
+    private final int classicSchema;
+    private final boolean classicRangeFixed;
+    private final int maxClassicBuckets;
+    private final boolean initialized;
+    // classic export range of the family, guarded by this
+    private int classicExportSchema;
+    private int classicLowest = Integer.MAX_VALUE;
+    private int classicHighest = Integer.MIN_VALUE;
+    private boolean classicZero;
+
+    ExponentialHistogram(Builder b) {
+        super(b, Type.HISTOGRAM);
+        this.schema = b.schema;
+        this.maxBuckets = b.maxBuckets;
+        this.classicSchema = b.classicSchema;
+        this.classicExportSchema = Math.min(b.classicSchema, b.schema);
+        this.classicRangeFixed = b.classicRangeLowest > 0;
+        this.maxClassicBuckets = b.maxClassicBuckets;
+        if (classicRangeFixed) {
+            this.classicLowest = index(b.classicRangeLowest, classicExportSchema);
+            this.classicHighest = index(b.classicRangeHighest, classicExportSchema);
+        }
+        this.initialized = true;
+        initializeNoLabelsChild();
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    public static class Builder extends SimpleCollector.Builder<Builder, ExponentialHistogram> {
+
+        private int schema = DEFAULT_SCHEMA;
+        private int maxBuckets = DEFAULT_MAX_BUCKETS;
+        private int classicSchema = DEFAULT_CLASSIC_SCHEMA;
+        private double classicRangeLowest;
+        private double classicRangeHighest;
+        private int maxClassicBuckets = DEFAULT_MAX_CLASSIC_BUCKETS;
+
+        /**
+         * Sets the initial schema of the series, from {@value #MIN_SCHEMA} to {@value #MAX_SCHEMA}. The growth
+         * factor of the buckets is {@code 2^(2^-schema)}, e.g. 1.09 with the default schema {@value #DEFAULT_SCHEMA}.
+         *
+         * @param schema initial schema
+         * @return this builder
+         */
+        public Builder schema(int schema) {
+            this.schema = schema;
+            return this;
+        }
+
+        /**
+         * Sets the initial schema to the highest one whose growth factor is at most the given one.
+         *
+         * @param growthFactor max ratio between the upper bounds of two consecutive buckets, greater than 1
+         * @return this builder
+         */
+        public Builder growthFactor(double growthFactor) {
+            this.schema = schemaForGrowthFactor(growthFactor);
+            return this;
+        }
+
+        /**
+         * Sets the max number of populated buckets of a series, {@value #DEFAULT_MAX_BUCKETS} by default.
+         *
+         * @param maxBuckets max number of buckets
+         * @return this builder
+         */
+        public Builder maxBuckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+            return this;
+        }
+
+        /**
+         * Sets the schema of the classic export, {@value #DEFAULT_CLASSIC_SCHEMA} by default. Series with a lower
+         * schema are exported at their own schema.
+         *
+         * @param classicSchema schema of the classic export
+         * @return this builder
+         */
+        public Builder classicSchema(int classicSchema) {
+            this.classicSchema = classicSchema;
+            return this;
+        }
+
+        /**
+         * Sets the range of the classic export, from the bucket of the lowest value to the bucket of the highest
+         * one. Lower values are counted in the first bucket and higher ones only in the {@code +Inf} bucket. By
+         * default, the range grows with the values observed.
+         *
+         * @param lowest  upper bound of the first bucket, greater than 0
+         * @param highest upper bound of the last bucket, at least the lowest one
+         * @return this builder
+         */
+        public Builder classicRange(double lowest, double highest) {
+            this.classicRangeLowest = lowest;
+            this.classicRangeHighest = highest;
+            return this;
+        }
+
+        /**
+         * Sets the max number of buckets of the classic export range grown from the values observed,
+         * {@value #DEFAULT_MAX_CLASSIC_BUCKETS} by default, e.g. 1 ms to 1000 s at the classic schema. Does not apply
+         * to the range set with {@link #classicRange(double, double)}.
+         *
+         * @param maxClassicBuckets max number of buckets of the classic export, besides the zero and {@code +Inf}
+         *                          buckets
+         * @return this builder
+         */
+        public Builder maxClassicBuckets(int maxClassicBuckets) {
+            this.maxClassicBuckets = maxClassicBuckets;
+            return this;
+        }
+
+        @Override
+        public ExponentialHistogram create() {
+            if (schema < MIN_SCHEMA || schema > MAX_SCHEMA) {
+                throw new IllegalStateException("Histogram schema must be between " + MIN_SCHEMA + " and "
+                        + MAX_SCHEMA + ": " + schema);
+            }
+            if (maxBuckets < 1 || maxClassicBuckets < 1) {
+                throw new IllegalStateException("Histogram must have at least one bucket.");
+            }
+            if (classicRangeLowest != 0 && !(classicRangeLowest > 0 && classicRangeHighest >= classicRangeLowest)) {
+                throw new IllegalStateException("Histogram classic range must be positive and increasing: "
+                        + classicRangeLowest + ", " + classicRangeHighest);
+            }
+            return new ExponentialHistogram(this);
+        }
+    }
+
+    /**
+     * Returns the highest schema whose growth factor is at most the given one.
+     *
+     * @param growthFactor max ratio between the upper bounds of two consecutive buckets, greater than 1
+     * @return schema between {@value #MIN_SCHEMA} and {@value #MAX_SCHEMA}
+     * @throws IllegalArgumentException if the growth factor is not greater than 1
+     */
+    public static int schemaForGrowthFactor(double growthFactor) {
+        if (!(growthFactor > 1)) {
+            throw new IllegalArgumentException("Histogram growth factor must be greater than 1: " + growthFactor);
+        }
+        // growthFactor = 2^(2^-schema)
+        int schema = (int) Math.ceil(-Math.log(Math.log(growthFactor) * INV_LN2) * INV_LN2 - 1e-9);
+        return Math.max(MIN_SCHEMA, Math.min(MAX_SCHEMA, schema));
+    }
+
+    /**
+     * Sets whether the exponential histograms collected by the current thread export every populated bucket at the
+     * schema of the series.
+     *
+     * @param highResolution <code>true</code> to export the high resolution buckets
+     */
+    public static void setHighResolution(boolean highResolution) {
+        if (highResolution) {
+            HIGH_RESOLUTION.set(Boolean.TRUE);
+        } else {
+            HIGH_RESOLUTION.remove();
+        }
+    }
+
+    @Override
+    protected boolean isInitialized() {
+        return initialized;
+    }
+
+    @Override
+    protected Child createChild() {
+        return new Child(schema, maxBuckets);
+    }
+
+    /**
+     * Returns the index of the bucket of a positive value.
+     *
+     * @param value  positive value
+     * @param schema schema
+     * @return bucket index
+     */
+    static int index(double value, int schema) {
+        if (schema > 0) {
+            return (int) Math.ceil(Math.log(value) * INV_LN2 * (1 << schema));
+        }
+        // exact for the powers of two, which are the upper bounds at the schemas up to 0
+        final int exponent = Math.getExponent(value);
+        final boolean powerOfTwo = exponent >= Double.MIN_EXPONENT
+                && (Double.doubleToRawLongBits(value) & 0x000FFFFFFFFFFFFFL) == 0;
+        final int index = powerOfTwo ? exponent : exponent + 1;
+        return ceilShift(index, -schema);
+    }
+
+    /**
+     * Returns the upper bound of a bucket.
+     *
+     * @param index  bucket index
+     * @param schema schema
+     * @return upper bound
+     */
+    static double upperBound(int index, int schema) {
+        if (schema > 0) {
+            return Math.pow(2, index / (double) (1 << schema));
+        }
+        return Math.pow(2, (double) index * (1 << -schema));
+    }
+
+    /**
+     * Returns {@code ceil(index / 2^shift)}.
+     */
+    static int ceilShift(int index, int shift) {
+        return shift == 0 ? index : (index + (1 << shift) - 1) >> shift;
+    }
+
+    /**
+     * The series of one label combination.
+     */
+    public static class Child implements Observer {
+
+        private final int maxBuckets;
+        private final IntLongHashMap buckets = new IntLongHashMap(16);
+        private int schema;
+        private long zeroCount;
+        private long count;
+        private double sum;
+
+        Child(int schema, int maxBuckets) {
+            this.schema = schema;
+            this.maxBuckets = maxBuckets;
+        }
+
+        @Override
+        public synchronized void observe(double value) {
+            if (value > 0) {
+                buckets.add(index(value, schema), 1);
+                while (buckets.size() > maxBuckets && schema > MIN_SCHEMA) {
+                    buckets.halveKeys();
+                    schema--;
+                }
+            } else {
+                zeroCount++;
+            }
+            count++;
+            sum += value;
+        }
+
+        /**
+         * Returns a consistent copy of the series.
+         *
+         * @return snapshot of the series
+         */
+        public synchronized Snapshot get() {
+            final int[] indexes = buckets.sortedKeys();
+            final long[] counts = new long[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                counts[i] = buckets.get(indexes[i]);
+            }
+            return new Snapshot(schema, indexes, counts, zeroCount, count, sum);
+        }
+    }
+
+    /**
+     * A copy of the populated buckets of a series.
+     */
+    public static final class Snapshot {
+
+        private final int schema;
+        private final int[] indexes;
+        private final long[] counts;
+        private final long zeroCount;
+        private final long count;
+        private final double sum;
+
+        Snapshot(int schema, int[] indexes, long[] counts, long zeroCount, long count, double sum) {
+            this.schema = schema;
+            this.indexes = indexes;
+            this.counts = counts;
+            this.zeroCount = zeroCount;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * Returns the schema of the buckets.
+         *
+         * @return schema
+         */
+        public int getSchema() {
+            return schema;
+        }
+
+        /**
+         * Returns the number of populated buckets, the zero bucket excluded.
+         *
+         * @return number of buckets
+         */
+        public int getBucketCount() {
+            return indexes.length;
+        }
+
+        /**
+         * Returns the number of values observed.
+         *
+         * @return count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the sum of the values observed.
+         *
+         * @return sum
+         */
+        public double getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns the cumulative counts of the buckets, with their upper bounds, at the given schema or at the
+         * schema of the series if it is lower.
+         *
+         * @param targetSchema schema of the buckets returned
+         * @param contiguous   whether the empty buckets between the populated ones are returned too
+         * @return pairs of upper bound and cumulative count, in increasing order of upper bound
+         */
+        public List<double[]> cumulativeBuckets(int targetSchema, boolean contiguous) {
+            final int shift = Math.max(schema - targetSchema, 0);
+            final int exportSchema = schema - shift;
+            List<double[]> result = new ArrayList<double[]>();
+            long cumulative = zeroCount;
+            if (zeroCount > 0) {
+                result.add(new double[]{0, cumulative});
+            }
+            int i = 0;
+            while (i < indexes.length) {
+                final int index = ceilShift(indexes[i], shift);
+                if (contiguous && !result.isEmpty() && i > 0) {
+                    int previous = ceilShift(indexes[i - 1], shift);
+                    for (int empty = previous + 1; empty < index; empty++) {
+                        result.add(new double[]{upperBound(empty, exportSchema), cumulative});
+                    }
+                }
+                while (i < indexes.length && ceilShift(indexes[i], shift) == index) {
+                    cumulative += counts[i];
+                    i++;
+                }
+                result.add(new double[]{upperBound(index, exportSchema), cumulative});
+            }
+            return result;
+        }
+
+        /**
+         * Returns the cumulative counts of a range of buckets, with their upper bounds. The values lower than the
+         * range are counted in its first bucket and the higher ones in none.
+         *
+         * @param targetSchema schema of the buckets returned, at most the schema of the series
+         * @param lowest       index of the first bucket at the target schema
+         * @param highest      index of the last bucket at the target schema
+         * @param zeroBucket   whether the zero bucket is returned first
+         * @return pairs of upper bound and cumulative count, in increasing order of upper bound
+         */
+        List<double[]> cumulativeBuckets(int targetSchema, int lowest, int highest, boolean zeroBucket) {
+            final int shift = schema - targetSchema;
+            List<double[]> result = new ArrayList<double[]>();
+            long cumulative = zeroCount;
+            if (zeroBucket) {
+                result.add(new double[]{0, cumulative});
+            }
+            int i = 0;
+            for (int index = lowest; index <= highest; index++) {
+                while (i < indexes.length && ceilShift(indexes[i], shift) <= index) {
+                    cumulative += counts[i];
+                    i++;
+                }
+                result.add(new double[]{upperBound(index, targetSchema), cumulative});
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Extends the classic export range of the family to the given series, at the lowest schema of the series, and
+     * decreases the export schema while the range has more than the max number of classic buckets. Must be called
+     * holding the lock of the histogram.
+     *
+     * @param snapshots series of the family
+     */
+    private void extendClassicRange(List<Snapshot> snapshots) {
+        int exportSchema = classicExportSchema;
+        for (Snapshot snapshot : snapshots) {
+            exportSchema = Math.min(exportSchema, snapshot.schema);
+        }
+        if (exportSchema < classicExportSchema) {
+            final int shift = classicExportSchema - exportSchema;
+            if (classicLowest <= classicHighest) {
+                classicLowest = ceilShift(classicLowest, shift);
+                classicHighest = ceilShift(classicHighest, shift);
+            }
+            classicExportSchema = exportSchema;
+        }
+        for (Snapshot snapshot : snapshots) {
+            classicZero |= snapshot.zeroCount > 0;
+            if (!classicRangeFixed && snapshot.indexes.length > 0) {
+                final int shift = snapshot.schema - exportSchema;
+                classicLowest = Math.min(classicLowest, ceilShift(snapshot.indexes[0], shift));
+                classicHighest = Math.max(classicHighest, ceilShift(snapshot.indexes[snapshot.indexes.length - 1],
+                        shift));
+            }
+        }
+        while (!classicRangeFixed && classicHighest - classicLowest >= maxClassicBuckets
+                && classicExportSchema > MIN_SCHEMA) {
+            classicLowest = ceilShift(classicLowest, 1);
+            classicHighest = ceilShift(classicHighest, 1);
+            classicExportSchema--;
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        final boolean highResolution = HIGH_RESOLUTION.get() != null;
+        List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+        List<String> bucketLabelNames = new ArrayList<String>(labelNames);
+        bucketLabelNames.add("le");
+        List<List<String>> labelValues = new ArrayList<List<String>>(children.size());
+        List<Snapshot> snapshots = new ArrayList<Snapshot>(children.size());
+        for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+            labelValues.add(c.getKey());
+            snapshots.add(c.getValue().get());
+        }
+        int exportSchema;
+        int lowest;
+        int highest;
+        boolean zeroBucket;
+        synchronized (this) {
+            if (!highResolution) {
+                extendClassicRange(snapshots);
+            }
+            exportSchema = classicExportSchema;
+            lowest = classicLowest;
+            highest = classicHighest;
+            zeroBucket = classicZero;
+        }
+        for (int s = 0; s < snapshots.size(); s++) {
+            final Snapshot snapshot = snapshots.get(s);
+            final List<String> key = labelValues.get(s);
+            List<double[]> cumulative = highResolution ? snapshot.cumulativeBuckets(MAX_SCHEMA, false)
+                    : snapshot.cumulativeBuckets(exportSchema, lowest, highest, zeroBucket);
+            for (double[] bucket : cumulative) {
+                samples.add(bucketSample(bucketLabelNames, key, bucket[0], bucket[1]));
+            }
+            samples.add(bucketSample(bucketLabelNames, key, Double.POSITIVE_INFINITY, snapshot.count));
+            samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, key, snapshot.count));
+            samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, key, snapshot.sum));
+        }
+        return familySamplesList(Type.HISTOGRAM, samples);
+    }
+
+    private MetricFamilySamples.Sample bucketSample(List<String> bucketLabelNames, List<String> labelValues,
+                                                    double upperBound, double cumulativeCount) {
+        List<String> bucketLabelValues = new ArrayList<String>(labelValues);
+        bucketLabelValues.add(doubleToGoString(upperBound));
+        return new MetricFamilySamples.Sample(fullname + "_bucket", bucketLabelNames, bucketLabelValues,
+                cumulativeCount);
+    }
+}
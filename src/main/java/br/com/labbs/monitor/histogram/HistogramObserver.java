@@ -0,0 +1,20 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.Histogram;
+
+/**
+ * {@link Observer} of a series of the Prometheus client {@link Histogram}.
+ */
+public final class HistogramObserver implements Observer {
+
+    private final Histogram.Child child;
+
+    public HistogramObserver(Histogram.Child child) {
+        this.child = child;
+    }
+
+    @Override
+    public void observe(double value) {
+        child.observe(value);
+    }
+}
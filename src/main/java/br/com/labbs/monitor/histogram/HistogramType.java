@@ -0,0 +1,40 @@
+package br.com.labbs.monitor.histogram;
+
+/**
+ * Defines the implementations available for the request_seconds, request_ttfb_seconds and
+ * dependency_request_seconds metrics.
+ */
+public enum HistogramType {
+
+    /**
+     * The Prometheus client {@link io.prometheus.client.Histogram}.
+     */
+    CLASSIC,
+
+    /**
+     * {@link StripedHistogram}, whose bucket counters are striped per thread and merged when collected.
+     */
+    STRIPED,
+
+    /**
+     * {@link ExponentialHistogram}, whose sparse exponential buckets need no bucket configuration.
+     */
+    EXPONENTIAL,
+
+    /**
+     * {@link SketchSummary}, exported as a summary whose quantiles are estimated within a relative error without any
+     * bucket configuration.
+     */
+    SKETCH;
+
+    /**
+     * Returns the type with the given name, ignoring case.
+     *
+     * @param name type name, e.g. {@code striped}
+     * @return histogram type
+     * @throws IllegalArgumentException if there is no type with the given name
+     */
+    public static HistogramType fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,133 @@
+package br.com.labbs.monitor.histogram;
+
+import java.util.Arrays;
+
+/**
+ * Map of int keys to long values with open addressing over primitive arrays, so a sparse histogram keeps its
+ * populated buckets without boxing or an entry object per bucket. Not thread safe.
+ */
+final class IntLongHashMap {
+
+    /* never a bucket index */
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    /**
+     * Creates an instance of {@link IntLongHashMap}
+     *
+     * @param expectedSize number of keys expected, the capacity is the next power of two of twice this size
+     */
+    IntLongHashMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1);
+    }
+
+    /**
+     * Adds a value to the value of a key, adding the key if it is absent.
+     *
+     * @param key   key, not {@link Integer#MIN_VALUE}
+     * @param delta value to be added
+     */
+    void add(int key, long delta) {
+        final int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                values[i] += delta;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Returns the value of a key.
+     *
+     * @param key key
+     * @return the value, 0 if the key is absent
+     */
+    long get(int key) {
+        final int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the keys in increasing order.
+     *
+     * @return new array of the keys
+     */
+    int[] sortedKeys() {
+        int[] sorted = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != FREE) {
+                sorted[n++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Replaces every key by {@code ceil(key / 2)}, adding up the values of the keys merged.
+     */
+    void halveKeys() {
+        final int[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                add((oldKeys[i] + 1) >> 1, oldValues[i]);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        final int[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                add(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new long[capacity];
+        size = 0;
+    }
+
+    /**
+     * Spreads consecutive bucket indexes over the table.
+     */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,14 @@
+package br.com.labbs.monitor.histogram;
+
+/**
+ * A series that records observations, e.g. the duration of the requests of one label combination.
+ */
+public interface Observer {
+
+    /**
+     * Records an observation.
+     *
+     * @param value observed value, e.g. a duration in seconds
+     */
+    void observe(double value);
+}
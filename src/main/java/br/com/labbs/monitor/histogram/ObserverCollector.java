@@ -0,0 +1,69 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class of the collectors whose children are {@link Observer}s.
+ *
+ * @param <C> type of the children
+ */
+public abstract class ObserverCollector<C extends Observer> extends SimpleCollector<C>
+        implements Collector.Describable {
+
+    private final Type type;
+
+    protected ObserverCollector(Builder<?, ?> b, Type type) {
+        super(b);
+        this.type = type;
+    }
+
+    /**
+     * Creates the child of a collector without labels once the subclass is initialized. The {@link SimpleCollector}
+     * constructor calls it before the subclass fields are set, so it does nothing then and the subclass constructor
+     * must call it again.
+     */
+    @Override
+    protected void initializeNoLabelsChild() {
+        if (isInitialized()) {
+            super.initializeNoLabelsChild();
+        }
+    }
+
+    @Override
+    protected C newChild() {
+        return createChild();
+    }
+
+    /**
+     * Returns whether the subclass fields are set.
+     *
+     * @return <code>true</code> if children can be created
+     */
+    protected abstract boolean isInitialized();
+
+    /**
+     * Creates a child.
+     *
+     * @return new child
+     */
+    protected abstract C createChild();
+
+    /**
+     * Records an observation in the collector without labels.
+     *
+     * @param value observed value
+     */
+    public void observe(double value) {
+        noLabelsChild.observe(value);
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(new MetricFamilySamples(fullname, type, help,
+                Collections.<MetricFamilySamples.Sample>emptyList()));
+    }
+}
@@ -0,0 +1,291 @@
+package br.com.labbs.monitor.histogram;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Quantile sketch with relative error guarantees, in the style of DDSketch: a value {@code v} is counted in the bin
+ * {@code ceil(log(v) / log(gamma))}, with {@code gamma = (1 + a) / (1 - a)} for a relative accuracy {@code a}, so any
+ * quantile is estimated within {@code a} of the true value, whatever the range of the values.
+ *
+ * <p>The bins are kept in a dense array of counts covering the populated range, at most {@code maxBins} wide. When a
+ * value would widen the range beyond it, the lowest bins are collapsed into one, so only the accuracy of the lowest
+ * quantiles degrades. Values lower than {@link #MIN_INDEXABLE_VALUE} are counted as zero.
+ *
+ * <p>Sketches with the same relative accuracy can be merged, e.g. the sketches of several routes or of several
+ * processes, written with {@link #writeTo(DataOutput)} and read back with {@link #readFrom(DataInput)}.
+ * Not thread safe.
+ */
+public final class RelativeErrorSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BINS = 2048;
+    public static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final double relativeAccuracy;
+    private final int maxBins;
+    private final double gamma;
+    private final double logGamma;
+    private long[] counts = new long[0];
+    /* index of counts[0] */
+    private int offset;
+    /* populated range of bins, empty if lo > hi */
+    private int lo = Integer.MAX_VALUE;
+    private int hi = Integer.MIN_VALUE;
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates a sketch with the default relative accuracy and max number of bins.
+     */
+    public RelativeErrorSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BINS);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param relativeAccuracy max relative error of the quantiles, between 0 and 1 exclusive
+     * @param maxBins          max number of bins
+     * @throws IllegalArgumentException if the relative accuracy or the max number of bins is not valid
+     */
+    public RelativeErrorSketch(double relativeAccuracy, int maxBins) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1: " + relativeAccuracy);
+        }
+        if (maxBins < 1) {
+            throw new IllegalArgumentException("Sketch must have at least one bin: " + maxBins);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxBins = maxBins;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value value
+     */
+    public void add(double value) {
+        if (value >= MIN_INDEXABLE_VALUE) {
+            increment((int) Math.ceil(Math.log(value) / logGamma), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of another sketch to this one.
+     *
+     * @param other sketch with the same relative accuracy
+     * @throws IllegalArgumentException if the relative accuracies differ
+     */
+    public void merge(RelativeErrorSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Sketches with different relative accuracies can't be merged: "
+                    + relativeAccuracy + " and " + other.relativeAccuracy);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        if (other.lo <= other.hi) {
+            // both ends first, so the range is widened at most twice
+            increment(other.hi, 0);
+            increment(other.lo, 0);
+            for (int i = other.lo; i <= other.hi; i++) {
+                final long n = other.counts[i - other.offset];
+                if (n != 0) {
+                    increment(i, n);
+                }
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the estimate of a quantile, within the relative accuracy of the true value.
+     *
+     * @param quantile quantile between 0 and 1
+     * @return the estimate, NaN if the sketch is empty
+     */
+    public double quantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        final double rank = quantile * (count - 1);
+        long cumulative = zeroCount;
+        if (cumulative > rank) {
+            return Math.max(min, 0);
+        }
+        for (int i = lo; i <= hi; i++) {
+            cumulative += counts[i - offset];
+            if (cumulative > rank) {
+                // the value of the bin with the same relative distance to both of its bounds
+                final double estimate = 2 * Math.pow(gamma, i) / (gamma + 1);
+                return Math.max(min, Math.min(max, estimate));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Removes every value, keeping the array of bins.
+     */
+    public void clear() {
+        if (lo <= hi) {
+            Arrays.fill(counts, lo - offset, hi - offset + 1, 0);
+        }
+        lo = Integer.MAX_VALUE;
+        hi = Integer.MIN_VALUE;
+        zeroCount = 0;
+        count = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns an independent copy of this sketch.
+     *
+     * @return copy
+     */
+    public RelativeErrorSketch copy() {
+        RelativeErrorSketch copy = new RelativeErrorSketch(relativeAccuracy, maxBins);
+        copy.merge(this);
+        return copy;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the number of bins of the populated range.
+     *
+     * @return number of bins
+     */
+    public int getBinCount() {
+        return lo <= hi ? hi - lo + 1 : 0;
+    }
+
+    /**
+     * Writes this sketch, so it can be read back and merged by another process.
+     *
+     * @param out output
+     * @throws IOException if the output fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(relativeAccuracy);
+        out.writeInt(maxBins);
+        out.writeLong(zeroCount);
+        out.writeLong(count);
+        out.writeDouble(sum);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        final int bins = getBinCount();
+        out.writeInt(bins);
+        if (bins > 0) {
+            out.writeInt(lo);
+            for (int i = lo; i <= hi; i++) {
+                out.writeLong(counts[i - offset]);
+            }
+        }
+    }
+
+    /**
+     * Reads a sketch written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in input
+     * @return the sketch
+     * @throws IOException if the input fails
+     */
+    public static RelativeErrorSketch readFrom(DataInput in) throws IOException {
+        RelativeErrorSketch sketch = new RelativeErrorSketch(in.readDouble(), in.readInt());
+        sketch.zeroCount = in.readLong();
+        sketch.count = in.readLong();
+        sketch.sum = in.readDouble();
+        sketch.min = in.readDouble();
+        sketch.max = in.readDouble();
+        final int bins = in.readInt();
+        if (bins > 0) {
+            final int first = in.readInt();
+            sketch.increment(first + bins - 1, 0);
+            sketch.increment(first, 0);
+            for (int i = first; i < first + bins; i++) {
+                sketch.increment(i, in.readLong());
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * Adds a count to a bin, widening the populated range, and collapsing its lowest bins if it gets wider than the
+     * max number of bins.
+     */
+    private void increment(int index, long n) {
+        if (lo > hi) {
+            final int capacity = Math.min(MIN_CAPACITY, maxBins);
+            counts = new long[capacity];
+            offset = index - capacity / 2;
+            lo = index;
+            hi = index;
+        } else if (index < lo || index > hi) {
+            int newLo = Math.min(lo, index);
+            final int newHi = Math.max(hi, index);
+            if (newHi - newLo + 1 > maxBins) {
+                newLo = newHi - maxBins + 1;
+                index = Math.max(index, newLo);
+            }
+            widen(newLo, newHi);
+        }
+        counts[index - offset] += n;
+    }
+
+    private void widen(int newLo, int newHi) {
+        // bins below the new range are collapsed into its lowest bin
+        long collapsed = 0;
+        for (int i = lo; i < newLo && i <= hi; i++) {
+            collapsed += counts[i - offset];
+            counts[i - offset] = 0;
+        }
+        if (newLo < offset || newHi >= offset + counts.length) {
+            final int span = newHi - newLo + 1;
+            final int capacity = Math.min(maxBins, Math.max(span + span / 2, MIN_CAPACITY));
+            final int nextOffset = capacity > span ? newLo - (capacity - span) / 2 : newLo;
+            final long[] next = new long[capacity];
+            final int from = Math.max(lo, newLo);
+            if (from <= hi) {
+                System.arraycopy(counts, from - offset, next, from - nextOffset, hi - from + 1);
+            }
+            counts = next;
+            offset = nextOffset;
+        }
+        counts[newLo - offset] += collapsed;
+        lo = newLo;
+        hi = newHi;
+    }
+}
@@ -0,0 +1,269 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of the values observed during the last time window. Each series keeps a ring of {@code slices}
+ * {@link RelativeErrorSketch}es, each one recording a {@code window / slices} interval. The slices are rotated lazily:
+ * a slice whose interval has passed is cleared when it is reused by an observation, and skipped when the window is
+ * read, so no timer thread is needed.
+ *
+ * <p>The window read covers the last {@code slices - 1} complete intervals and the current one. Its quantiles are
+ * exported as a Prometheus summary, with the cumulative {@code _count} and {@code _sum} of the series, and can be
+ * read in-process with {@link #window(String...)}, e.g. to shed load.
+ */
+public class RollingSummary extends ObserverCollector<RollingSummary.Child> {
+
+    public static final int DEFAULT_SLICES = 6;
+
+    private final long sliceNanos;
+    private final int slices;
+    private final double relativeAccuracy;
+    private final double[] quantiles;
+    private final boolean initialized;
+
+    RollingSummary(Builder b) {
+        super(b, Type.SUMMARY);
+        if (labelNames.contains("quantile")) {
+            throw new IllegalStateException("Summary cannot have a label named 'quantile'.");
+        }
+        this.sliceNanos = b.windowNanos / b.slices;
+        this.slices = b.slices;
+        this.relativeAccuracy = b.relativeAccuracy;
+        this.quantiles = b.quantiles;
+        this.initialized = true;
+        initializeNoLabelsChild();
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    public static class Builder extends SimpleCollector.Builder<Builder, RollingSummary> {
+
+        private long windowNanos = TimeUnit.MINUTES.toNanos(1);
+        private int slices = DEFAULT_SLICES;
+        private double relativeAccuracy = RelativeErrorSketch.DEFAULT_RELATIVE_ACCURACY;
+        private double[] quantiles = SketchSummary.DEFAULT_QUANTILES;
+
+        /**
+         * Sets the length of the window, 60 seconds by default.
+         *
+         * @param windowSeconds length of the window in seconds
+         * @return this builder
+         */
+        public Builder windowSeconds(long windowSeconds) {
+            this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+            return this;
+        }
+
+        /**
+         * Sets the number of slices of the window, {@value #DEFAULT_SLICES} by default. The more slices, the closer
+         * the window read is to the window length, at the cost of memory.
+         *
+         * @param slices number of slices
+         * @return this builder
+         */
+        public Builder slices(int slices) {
+            this.slices = slices;
+            return this;
+        }
+
+        /**
+         * Sets the max relative error of the quantiles, {@value RelativeErrorSketch#DEFAULT_RELATIVE_ACCURACY} by
+         * default.
+         *
+         * @param relativeAccuracy relative accuracy, between 0 and 1 exclusive
+         * @return this builder
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            this.relativeAccuracy = relativeAccuracy;
+            return this;
+        }
+
+        /**
+         * Sets the quantiles exported, 0.5, 0.9, 0.99 and 0.999 by default.
+         *
+         * @param quantiles quantiles between 0 and 1
+         * @return this builder
+         */
+        public Builder quantiles(double... quantiles) {
+            this.quantiles = quantiles.clone();
+            return this;
+        }
+
+        @Override
+        public RollingSummary create() {
+            if (slices < 1) {
+                throw new IllegalStateException("Window must have at least one slice.");
+            }
+            if (windowNanos < slices) {
+                throw new IllegalStateException("Window is too short for " + slices + " slices.");
+            }
+            for (double quantile : quantiles) {
+                if (quantile < 0 || quantile > 1) {
+                    throw new IllegalStateException("Quantile must be between 0 and 1: " + quantile);
+                }
+            }
+            // fails early on an invalid accuracy
+            new RelativeErrorSketch(relativeAccuracy, RelativeErrorSketch.DEFAULT_MAX_BINS);
+            return new RollingSummary(this);
+        }
+    }
+
+    @Override
+    protected boolean isInitialized() {
+        return initialized;
+    }
+
+    @Override
+    protected Child createChild() {
+        return new Child(sliceNanos, slices, relativeAccuracy);
+    }
+
+    /**
+     * Returns the values of the last window of a series, without creating the series if it doesn't exist.
+     *
+     * @param labelValues label values of the series
+     * @return a new sketch, empty if the series doesn't exist or has no values
+     */
+    public RelativeErrorSketch window(String... labelValues) {
+        Child child = children.get(Arrays.asList(labelValues));
+        if (child == null) {
+            return new RelativeErrorSketch(relativeAccuracy, RelativeErrorSketch.DEFAULT_MAX_BINS);
+        }
+        return child.window(System.nanoTime());
+    }
+
+    /**
+     * Returns the values of the last window of every series merged into one.
+     *
+     * @return a new sketch
+     */
+    public RelativeErrorSketch windowOfAll() {
+        final long nanos = System.nanoTime();
+        RelativeErrorSketch merged = new RelativeErrorSketch(relativeAccuracy, RelativeErrorSketch.DEFAULT_MAX_BINS);
+        for (Child child : children.values()) {
+            child.mergeInto(merged, nanos);
+        }
+        return merged;
+    }
+
+    /**
+     * The series of one label combination.
+     */
+    public static class Child implements Observer {
+
+        private final long sliceNanos;
+        private final RelativeErrorSketch[] sketches;
+        /* interval of each slice, in slices since the nanoTime origin */
+        private final long[] intervals;
+        private final double relativeAccuracy;
+        private long count;
+        private double sum;
+
+        Child(long sliceNanos, int slices, double relativeAccuracy) {
+            this.sliceNanos = sliceNanos;
+            this.relativeAccuracy = relativeAccuracy;
+            this.sketches = new RelativeErrorSketch[slices];
+            this.intervals = new long[slices];
+            for (int i = 0; i < slices; i++) {
+                sketches[i] = new RelativeErrorSketch(relativeAccuracy, RelativeErrorSketch.DEFAULT_MAX_BINS);
+                intervals[i] = Long.MIN_VALUE;
+            }
+        }
+
+        @Override
+        public void observe(double value) {
+            observe(value, System.nanoTime());
+        }
+
+        synchronized void observe(double value, long nanos) {
+            final long interval = interval(nanos);
+            final int i = slice(interval);
+            if (intervals[i] != interval) {
+                sketches[i].clear();
+                intervals[i] = interval;
+            }
+            sketches[i].add(value);
+            count++;
+            sum += value;
+        }
+
+        /**
+         * Returns the values of the last window.
+         *
+         * @return a new sketch
+         */
+        public RelativeErrorSketch get() {
+            return window(System.nanoTime());
+        }
+
+        RelativeErrorSketch window(long nanos) {
+            RelativeErrorSketch window = new RelativeErrorSketch(relativeAccuracy,
+                    RelativeErrorSketch.DEFAULT_MAX_BINS);
+            mergeInto(window, nanos);
+            return window;
+        }
+
+        synchronized void mergeInto(RelativeErrorSketch target, long nanos) {
+            final long oldest = interval(nanos) - sketches.length + 1;
+            for (int i = 0; i < sketches.length; i++) {
+                if (intervals[i] >= oldest) {
+                    target.merge(sketches[i]);
+                }
+            }
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized double getSum() {
+            return sum;
+        }
+
+        private long interval(long nanos) {
+            // floor division, nanoTime can be negative
+            final long interval = nanos / sliceNanos;
+            return nanos < 0 && interval * sliceNanos != nanos ? interval - 1 : interval;
+        }
+
+        private int slice(long interval) {
+            final int slice = (int) (interval % sketches.length);
+            return slice < 0 ? slice + sketches.length : slice;
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        final long nanos = System.nanoTime();
+        List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+        List<String> quantileLabelNames = new ArrayList<String>(labelNames);
+        quantileLabelNames.add("quantile");
+        for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+            Child child = c.getValue();
+            RelativeErrorSketch window = child.window(nanos);
+            for (double quantile : quantiles) {
+                List<String> quantileLabelValues = new ArrayList<String>(c.getKey());
+                quantileLabelValues.add(doubleToGoString(quantile));
+                samples.add(new MetricFamilySamples.Sample(fullname, quantileLabelNames, quantileLabelValues,
+                        window.quantile(quantile)));
+            }
+            samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, c.getKey(),
+                    child.getCount()));
+            samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, c.getKey(), child.getSum()));
+        }
+        return familySamplesList(Type.SUMMARY, samples);
+    }
+}
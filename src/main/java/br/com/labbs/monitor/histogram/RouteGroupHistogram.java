@@ -0,0 +1,160 @@
+package br.com.labbs.monitor.histogram;
+
+import br.com.labbs.monitor.filter.PathMatcher;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Histogram whose series have the buckets of their route group: the {@code addr} label of a series, without the
+ * context path, is matched against the patterns of the groups, e.g. {@code /search/**} and {@code /static/**}, and
+ * the series gets the buckets of the first group matched, or the default buckets if none is. Each series only has
+ * the buckets useful for its routes, instead of every series having the buckets of every group.
+ *
+ * <p>The series are {@link StripedHistogram} series. It is exported as a classic Prometheus histogram, whose series
+ * have different {@code le} labels.
+ */
+public class RouteGroupHistogram extends ObserverCollector<StripedHistogram.Child> {
+
+    private final int addrIndex;
+    private final PathMatcher groups;
+    private final double[][] groupUpperBounds;
+    private final double[] defaultUpperBounds;
+    private final String contextPath;
+
+    RouteGroupHistogram(Builder b) {
+        super(b, Type.HISTOGRAM);
+        this.addrIndex = labelNames.indexOf("addr");
+        if (addrIndex < 0) {
+            throw new IllegalStateException("Route group histogram must have an 'addr' label.");
+        }
+        this.groups = PathMatcher.compile(b.patterns);
+        this.groupUpperBounds = new double[b.groupBuckets.size()][];
+        for (int i = 0; i < groupUpperBounds.length; i++) {
+            groupUpperBounds[i] = StripedHistogram.withInfinity(b.groupBuckets.get(i));
+        }
+        this.defaultUpperBounds = StripedHistogram.withInfinity(b.defaultBuckets);
+        this.contextPath = b.contextPath;
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    public static class Builder extends SimpleCollector.Builder<Builder, RouteGroupHistogram> {
+
+        private final List<String> patterns = new ArrayList<String>();
+        private final List<double[]> groupBuckets = new ArrayList<double[]>();
+        private double[] defaultBuckets = {.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
+        private String contextPath = "";
+
+        /**
+         * Adds a route group. The groups are matched in the order they are added.
+         *
+         * @param pattern plain path prefix or glob pattern matched against the {@code addr} label, see
+         *                {@link PathMatcher}
+         * @param buckets upper bounds of the buckets of the series of the group, in increasing order
+         * @return this builder
+         */
+        public Builder group(String pattern, double... buckets) {
+            patterns.add(pattern);
+            groupBuckets.add(buckets);
+            return this;
+        }
+
+        /**
+         * Sets the upper bounds of the buckets of the series not matching any group.
+         *
+         * @param buckets upper bounds in increasing order
+         * @return this builder
+         */
+        public Builder buckets(double... buckets) {
+            this.defaultBuckets = buckets;
+            return this;
+        }
+
+        /**
+         * Sets the context path the {@code addr} labels start with, the patterns are matched after it as in the
+         * {@code exclusions} of the filter.
+         *
+         * @param contextPath context path of the application, empty for the root context
+         * @return this builder
+         */
+        public Builder contextPath(String contextPath) {
+            this.contextPath = contextPath == null ? "" : contextPath;
+            return this;
+        }
+
+        @Override
+        public RouteGroupHistogram create() {
+            return new RouteGroupHistogram(this);
+        }
+    }
+
+    @Override
+    protected boolean isInitialized() {
+        // a route group histogram always has the addr label, so no child is created without labels
+        return false;
+    }
+
+    @Override
+    protected StripedHistogram.Child createChild() {
+        return new StripedHistogram.Child(defaultUpperBounds);
+    }
+
+    /**
+     * Returns the series of a label combination, created with the buckets of its route group if it is absent.
+     */
+    @Override
+    public StripedHistogram.Child labels(String... labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException("Incorrect number of labels.");
+        }
+        for (String label : labelValues) {
+            if (label == null) {
+                throw new IllegalArgumentException("Label cannot be null.");
+            }
+        }
+        List<String> key = Arrays.asList(labelValues);
+        StripedHistogram.Child child = children.get(key);
+        if (child != null) {
+            return child;
+        }
+        child = new StripedHistogram.Child(upperBounds(labelValues[addrIndex]));
+        StripedHistogram.Child existing = children.putIfAbsent(key, child);
+        return existing == null ? child : existing;
+    }
+
+    /**
+     * Returns the upper bounds of the buckets of the series of a route, including +Inf.
+     *
+     * @param addr the requested endpoint address
+     * @return upper bounds
+     */
+    public double[] getUpperBounds(String addr) {
+        return upperBounds(addr).clone();
+    }
+
+    private double[] upperBounds(String addr) {
+        final int group = groups.match(addr, addr.startsWith(contextPath) ? contextPath.length() : 0);
+        return group < 0 ? defaultUpperBounds : groupUpperBounds[group];
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+        List<String> bucketLabelNames = new ArrayList<String>(labelNames);
+        bucketLabelNames.add("le");
+        for (Map.Entry<List<String>, StripedHistogram.Child> c : children.entrySet()) {
+            StripedHistogram.addSamples(samples, fullname, labelNames, bucketLabelNames, c.getKey(), c.getValue());
+        }
+        return familySamplesList(Type.HISTOGRAM, samples);
+    }
+}
@@ -0,0 +1,186 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary whose quantiles are estimated by a {@link RelativeErrorSketch} per series, so they are within the relative
+ * accuracy of the true values without any bucket configuration.
+ *
+ * <p>It is exported as a Prometheus summary, with the {@code quantile} label, the {@code _count} and the
+ * {@code _sum} samples. Unlike the quantiles of a summary, the sketches of several series can be combined with
+ * {@link #merge(int, String...)}, and the sketch of a series can be written with
+ * {@link RelativeErrorSketch#writeTo(java.io.DataOutput)} to be merged with the ones of other processes.
+ */
+public class SketchSummary extends ObserverCollector<SketchSummary.Child> {
+
+    public static final double[] DEFAULT_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final double relativeAccuracy;
+    private final int maxBins;
+    private final double[] quantiles;
+    private final boolean initialized;
+
+    SketchSummary(Builder b) {
+        super(b, Type.SUMMARY);
+        if (labelNames.contains("quantile")) {
+            throw new IllegalStateException("Summary cannot have a label named 'quantile'.");
+        }
+        this.relativeAccuracy = b.relativeAccuracy;
+        this.maxBins = b.maxBins;
+        this.quantiles = b.quantiles;
+        this.initialized = true;
+        initializeNoLabelsChild();
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    public static class Builder extends SimpleCollector.Builder<Builder, SketchSummary> {
+
+        private double relativeAccuracy = RelativeErrorSketch.DEFAULT_RELATIVE_ACCURACY;
+        private int maxBins = RelativeErrorSketch.DEFAULT_MAX_BINS;
+        private double[] quantiles = DEFAULT_QUANTILES;
+
+        /**
+         * Sets the max relative error of the quantiles, {@value RelativeErrorSketch#DEFAULT_RELATIVE_ACCURACY} by
+         * default.
+         *
+         * @param relativeAccuracy relative accuracy, between 0 and 1 exclusive
+         * @return this builder
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            this.relativeAccuracy = relativeAccuracy;
+            return this;
+        }
+
+        /**
+         * Sets the max number of bins of a series, {@value RelativeErrorSketch#DEFAULT_MAX_BINS} by default.
+         *
+         * @param maxBins max number of bins
+         * @return this builder
+         */
+        public Builder maxBins(int maxBins) {
+            this.maxBins = maxBins;
+            return this;
+        }
+
+        /**
+         * Sets the quantiles exported, 0.5, 0.9, 0.99 and 0.999 by default.
+         *
+         * @param quantiles quantiles between 0 and 1
+         * @return this builder
+         */
+        public Builder quantiles(double... quantiles) {
+            this.quantiles = quantiles.clone();
+            return this;
+        }
+
+        @Override
+        public SketchSummary create() {
+            for (double quantile : quantiles) {
+                if (quantile < 0 || quantile > 1) {
+                    throw new IllegalStateException("Quantile must be between 0 and 1: " + quantile);
+                }
+            }
+            // fails early on an invalid accuracy or number of bins
+            new RelativeErrorSketch(relativeAccuracy, maxBins);
+            return new SketchSummary(this);
+        }
+    }
+
+    @Override
+    protected boolean isInitialized() {
+        return initialized;
+    }
+
+    @Override
+    protected Child createChild() {
+        return new Child(new RelativeErrorSketch(relativeAccuracy, maxBins));
+    }
+
+    /**
+     * Returns the sketch of every series whose first label values are the given ones, merged into one, e.g. the
+     * latency of a route whatever the status or the method.
+     *
+     * @param labelIndex  index of the first label to match
+     * @param labelValues values of the labels to match from that index, none to merge every series
+     * @return a new sketch
+     */
+    public RelativeErrorSketch merge(int labelIndex, String... labelValues) {
+        RelativeErrorSketch merged = new RelativeErrorSketch(relativeAccuracy, maxBins);
+        for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+            if (matches(c.getKey(), labelIndex, labelValues)) {
+                c.getValue().mergeInto(merged);
+            }
+        }
+        return merged;
+    }
+
+    private static boolean matches(List<String> key, int labelIndex, String[] labelValues) {
+        for (int i = 0; i < labelValues.length; i++) {
+            if (!labelValues[i].equals(key.get(labelIndex + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The series of one label combination.
+     */
+    public static class Child implements Observer {
+
+        private final RelativeErrorSketch sketch;
+
+        Child(RelativeErrorSketch sketch) {
+            this.sketch = sketch;
+        }
+
+        @Override
+        public synchronized void observe(double value) {
+            sketch.add(value);
+        }
+
+        /**
+         * Returns a consistent copy of the sketch of the series.
+         *
+         * @return a new sketch
+         */
+        public synchronized RelativeErrorSketch get() {
+            return sketch.copy();
+        }
+
+        synchronized void mergeInto(RelativeErrorSketch target) {
+            target.merge(sketch);
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+        List<String> quantileLabelNames = new ArrayList<String>(labelNames);
+        quantileLabelNames.add("quantile");
+        for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+            RelativeErrorSketch sketch = c.getValue().get();
+            for (double quantile : quantiles) {
+                List<String> quantileLabelValues = new ArrayList<String>(c.getKey());
+                quantileLabelValues.add(doubleToGoString(quantile));
+                samples.add(new MetricFamilySamples.Sample(fullname, quantileLabelNames, quantileLabelValues,
+                        sketch.quantile(quantile)));
+            }
+            samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, c.getKey(),
+                    sketch.getCount()));
+            samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, c.getKey(), sketch.getSum()));
+        }
+        return familySamplesList(Type.SUMMARY, samples);
+    }
+}
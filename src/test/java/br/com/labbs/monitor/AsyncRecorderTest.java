@@ -0,0 +1,83 @@
+package br.com.labbs.monitor;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncRecorderTest {
+
+    private CollectorRegistry registry;
+    private Counter size;
+    private Counter dropped;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        size = Counter.build().name("size").help("size").register(registry);
+        dropped = Counter.build().name("dropped").help("dropped").register(registry);
+    }
+
+    @Test
+    public void test_flush_applies_pending_events() {
+        AsyncRecorder recorder = new AsyncRecorder(8, dropped);
+        RequestSeries series = RequestSeries.build().responseSize(size.labels(), null).create();
+
+        Assert.assertTrue(recorder.record(series, 1000L, 10));
+        Assert.assertTrue(recorder.record(series, 1000L, 5));
+        Assert.assertEquals(0.0, registry.getSampleValue("size"), 0);
+
+        recorder.flush();
+
+        Assert.assertEquals(15.0, registry.getSampleValue("size"), 0);
+    }
+
+    @Test
+    public void test_events_are_dropped_when_buffer_is_full() {
+        AsyncRecorder recorder = new AsyncRecorder(3, dropped);
+        RequestSeries series = RequestSeries.build().responseSize(size.labels(), null).create();
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(recorder.record(series, 1000L, 1));
+        }
+        Assert.assertFalse(recorder.record(series, 1000L, 1));
+        recorder.flush();
+        Assert.assertTrue(recorder.record(series, 1000L, 1));
+        recorder.flush();
+
+        Assert.assertEquals(5.0, registry.getSampleValue("size"), 0);
+        Assert.assertEquals(1.0, registry.getSampleValue("dropped"), 0);
+    }
+
+    @Test
+    public void test_concurrent_producers_with_aggregator_thread() throws InterruptedException {
+        final AsyncRecorder recorder = new AsyncRecorder(64, dropped);
+        final RequestSeries series = RequestSeries.build().responseSize(size.labels(), null).create();
+        final AtomicLong recorded = new AtomicLong();
+        final int threads = 8;
+        final int events = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        recorder.start();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < events; i++) {
+                        if (recorder.record(series, 1000L, 1)) {
+                            recorded.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        recorder.stop();
+
+        Assert.assertEquals(recorded.get(), registry.getSampleValue("size").longValue());
+        Assert.assertEquals(threads * events - recorded.get(), registry.getSampleValue("dropped").longValue());
+    }
+}
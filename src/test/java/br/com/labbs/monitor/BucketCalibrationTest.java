@@ -0,0 +1,107 @@
+package br.com.labbs.monitor;
+
+import br.com.labbs.monitor.histogram.RelativeErrorSketch;
+import br.com.labbs.monitor.histogram.SketchSummary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+public class BucketCalibrationTest {
+
+    @Test
+    public void test_buckets_cover_p1_to_p999() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch();
+        for (int i = 1; i <= 100000; i++) {
+            sketch.add(i / 10000.0);
+        }
+
+        double[] buckets = BucketCalibration.buckets(sketch, 5);
+
+        double[] expected = {0.1, 0.32, 1.0, 3.2, 10.0};
+        Assert.assertEquals(expected.length, buckets.length);
+        for (int i = 0; i < expected.length; i++) {
+            // sketch error and rounding to 2 significant digits
+            Assert.assertEquals(expected[i], buckets[i], expected[i] * 0.05);
+        }
+    }
+
+    @Test
+    public void test_too_few_values_are_not_calibrated() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch();
+        for (int i = 1; i < BucketCalibration.MIN_VALUES; i++) {
+            sketch.add(i);
+        }
+
+        Assert.assertNull(BucketCalibration.buckets(sketch, 5));
+    }
+
+    @Test
+    public void test_colliding_boundaries_are_removed() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch();
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(0.25);
+        }
+
+        Assert.assertArrayEquals(new double[]{0.25}, BucketCalibration.buckets(sketch, 12), 0.25 * 0.02);
+    }
+
+    @Test
+    public void test_calibrated_buckets_are_persisted() throws IOException {
+        File file = File.createTempFile("buckets", ".properties");
+        Assert.assertTrue(file.delete());
+        try {
+            BucketCalibration calibration = new BucketCalibration(1000, 4, file);
+            SketchSummary seconds = calibration.warmup("request_seconds", "addr");
+            SketchSummary dependency = calibration.warmup("dependency_request_seconds", "addr");
+            for (int i = 1; i <= 1000; i++) {
+                seconds.labels(i % 2 == 0 ? "/a" : "/b").observe(i / 1000.0);
+            }
+            dependency.labels("/c").observe(1);
+
+            Map<String, double[]> calibrated = calibration.calibrate();
+
+            Assert.assertEquals(1, calibrated.size());
+            double[] buckets = calibrated.get("request_seconds");
+            Assert.assertEquals(4, buckets.length);
+            Assert.assertFalse(calibration.isDone());
+            Assert.assertNull(calibration.getBuckets("dependency_request_seconds"));
+
+            BucketCalibration restarted = new BucketCalibration(1000, 4, file);
+            Assert.assertArrayEquals(buckets, restarted.getBuckets("request_seconds"), 0);
+            Assert.assertNull(restarted.getBuckets("dependency_request_seconds"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void test_invalid_persisted_buckets_are_discarded() throws IOException {
+        File file = File.createTempFile("buckets", ".properties");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+            try {
+                writer.write("request_seconds=0.1,0.5,1\n");
+                writer.write("request_ttfb_seconds=0.5,0.1\n");
+                writer.write("dependency_request_seconds=0.1,abc\n");
+                writer.write("response_seconds=NaN\n");
+            } finally {
+                writer.close();
+            }
+
+            BucketCalibration calibration = new BucketCalibration(1000, 4, file);
+
+            Assert.assertArrayEquals(new double[]{0.1, 0.5, 1}, calibration.getBuckets("request_seconds"), 0);
+            Assert.assertNull(calibration.getBuckets("request_ttfb_seconds"));
+            Assert.assertNull(calibration.getBuckets("dependency_request_seconds"));
+            Assert.assertNull(calibration.getBuckets("response_seconds"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package br.com.labbs.monitor;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SeriesBudgetTest {
+
+    private CollectorRegistry registry;
+    private Counter metric;
+    private Counter dropped;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        metric = Counter.build().name("m").help("m").labelNames("type", "addr", "errorMessage").register(registry);
+        dropped = Counter.build().name("dropped").help("dropped").labelNames("metric").register(registry);
+    }
+
+    @Test
+    public void test_new_series_go_to_overflow_when_budget_is_full() {
+        SeriesBudget budget = new SeriesBudget("m", 2, 0, -1, 1, new AtomicInteger());
+
+        Assert.assertArrayEquals(new String[]{"http", "/a", "e"}, budget.admit(metric, dropped, "http", "/a", "e"));
+        Assert.assertArrayEquals(new String[]{"http", "/b", "e"}, budget.admit(metric, dropped, "http", "/b", "e"));
+        Assert.assertArrayEquals(new String[]{"http", "/a", "e"}, budget.admit(metric, dropped, "http", "/a", "e"));
+        Assert.assertArrayEquals(new String[]{"http", SeriesBudget.OVERFLOW_ADDR, ""},
+                budget.admit(metric, dropped, "http", "/c", "e"));
+        Assert.assertArrayEquals(new String[]{"http", SeriesBudget.OVERFLOW_ADDR, ""},
+                budget.admit(metric, dropped, "http", "/d", "x"));
+
+        Assert.assertEquals(2.0, registry.getSampleValue("dropped", new String[]{"metric"}, new String[]{"m"}), 0);
+    }
+
+    @Test
+    public void test_random_methods_share_one_overflow_series() {
+        Counter byMethod = Counter.build().name("r").help("r").labelNames("method", "addr", "errorMessage")
+                .register(registry);
+        SeriesBudget budget = new SeriesBudget("r", 1, 0, 0, 1, new AtomicInteger());
+        byMethod.labels(budget.admit(byMethod, dropped, "GET", "/a", "")).inc();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            String method = Long.toString(random.nextLong(), 36);
+            byMethod.labels(budget.admit(byMethod, dropped, method, "/a", "e" + i)).inc();
+        }
+
+        Assert.assertEquals(2, byMethod.collect().get(0).samples.size());
+        Assert.assertEquals(100.0, registry.getSampleValue("r", new String[]{"method", "addr", "errorMessage"},
+                new String[]{SeriesBudget.OVERFLOW_METHOD, SeriesBudget.OVERFLOW_ADDR, ""}), 0);
+    }
+
+    @Test
+    public void test_idle_series_are_evicted_to_make_room() throws InterruptedException {
+        AtomicInteger generation = new AtomicInteger();
+        SeriesBudget budget = new SeriesBudget("m", 1, 1, -1, 1, generation);
+        metric.labels(budget.admit(metric, dropped, "http", "/a", "")).inc();
+
+        Thread.sleep(5);
+
+        Assert.assertArrayEquals(new String[]{"http", "/b", ""}, budget.admit(metric, dropped, "http", "/b", ""));
+        Assert.assertNull(registry.getSampleValue("m", new String[]{"type", "addr", "errorMessage"},
+                new String[]{"http", "/a", ""}));
+        Assert.assertEquals(1, generation.get());
+    }
+
+    @Test
+    public void test_addr_only_series_go_to_overflow() {
+        Counter byAddr = Counter.build().name("a").help("a").labelNames("addr").register(registry);
+        SeriesBudget budget = new SeriesBudget("a", 1, 0, -1, 0, new AtomicInteger());
+
+        Assert.assertArrayEquals(new String[]{"/a"}, budget.admit(byAddr, dropped, "/a"));
+        Assert.assertArrayEquals(new String[]{SeriesBudget.OVERFLOW_ADDR}, budget.admit(byAddr, dropped, "/b"));
+    }
+}
@@ -0,0 +1,22 @@
+package br.com.labbs.monitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripesTest {
+
+    @Test
+    public void test_stripes_are_capped_at_the_processors() {
+        Assert.assertEquals(1, Stripes.count(0));
+        Assert.assertEquals(1, Stripes.count(1));
+        Assert.assertEquals(4, Stripes.count(6));
+        Assert.assertEquals(64, Stripes.count(64));
+        Assert.assertTrue(Stripes.COUNT <= Runtime.getRuntime().availableProcessors());
+    }
+
+    @Test
+    public void test_current_stripe_is_in_range() {
+        int stripe = Stripes.current();
+        Assert.assertTrue(stripe >= 0 && stripe < Stripes.COUNT);
+    }
+}
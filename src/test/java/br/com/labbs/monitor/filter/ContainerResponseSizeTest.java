@@ -0,0 +1,73 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+public class ContainerResponseSizeTest {
+
+    private static final String[][] FAKE_CONTAINERS = {
+            {"missing.container.Response", "getBytes"},
+            {FakeFacade.class.getName(), "#response", "getContentWritten"},
+    };
+
+    @Test
+    public void test_bytes_written_are_read_through_the_member_chain() {
+        ContainerResponseSize size = new ContainerResponseSize(FAKE_CONTAINERS);
+        FakeFacade facade = new FakeFacade(new FakeResponse(1234));
+
+        Assert.assertTrue(size.supports(facade));
+        Assert.assertEquals(1234, size.bytesWritten(facade));
+    }
+
+    @Test
+    public void test_other_responses_are_not_supported() {
+        ContainerResponseSize size = new ContainerResponseSize(FAKE_CONTAINERS);
+
+        Assert.assertFalse(size.supports(Mockito.mock(HttpServletResponse.class)));
+    }
+
+    @Test
+    public void test_subclasses_of_the_container_response_are_supported() {
+        ContainerResponseSize size = new ContainerResponseSize(FAKE_CONTAINERS);
+        FakeFacade facade = new FakeFacade(new FakeResponse(42)) {
+        };
+
+        Assert.assertTrue(size.supports(facade));
+        Assert.assertEquals(42, size.bytesWritten(facade));
+    }
+
+    @Test
+    public void test_no_container_found() {
+        ContainerResponseSize size = new ContainerResponseSize(ContainerResponseSize.CONTAINERS);
+
+        Assert.assertFalse(size.supports(Mockito.mock(HttpServletResponse.class)));
+        Assert.assertFalse(size.supports(new FakeFacade(new FakeResponse(1))));
+    }
+
+    public static class FakeFacade extends HttpServletResponseWrapper {
+
+        private final FakeResponse response;
+
+        FakeFacade(FakeResponse response) {
+            super(Mockito.mock(HttpServletResponse.class));
+            this.response = response;
+        }
+    }
+
+    public static final class FakeResponse {
+
+        private final long contentWritten;
+
+        FakeResponse(long contentWritten) {
+            this.contentWritten = contentWritten;
+        }
+
+        public long getContentWritten() {
+            return contentWritten;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+public class ContentSizeFilterTest {
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ServletResponse passed;
+
+    @Before
+    public void setUp() throws IOException {
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(new NullStream());
+    }
+
+    @Test
+    public void test_content_bytes_are_counted_before_the_encoding() throws Exception {
+        Mockito.when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+
+        new ContentSizeFilter().doFilter(request, response, new FilterChain() {
+            public void doFilter(ServletRequest req, ServletResponse resp) throws IOException {
+                passed = resp;
+                resp.getOutputStream().write(new byte[6000]);
+            }
+        });
+
+        Assert.assertTrue(passed instanceof CountingServletResponse);
+        Assert.assertEquals(6000, ((CountingServletResponse) passed).getByteCount());
+        Mockito.verify(request).setAttribute(Mockito.eq(ContentSizeFilter.RESPONSE_ATTRIBUTE), Mockito.any());
+    }
+
+    @Test
+    public void test_async_dispatch_is_not_wrapped() throws Exception {
+        Mockito.when(request.getDispatcherType()).thenReturn(DispatcherType.ASYNC);
+
+        new ContentSizeFilter().doFilter(request, response, new FilterChain() {
+            public void doFilter(ServletRequest req, ServletResponse resp) {
+                passed = resp;
+            }
+        });
+
+        Assert.assertSame(response, passed);
+    }
+
+    private static final class NullStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
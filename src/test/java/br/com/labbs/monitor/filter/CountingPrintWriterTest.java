@@ -0,0 +1,109 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+public class CountingPrintWriterTest {
+
+    private static final String MIXED = "aé中😀b";
+
+    private StringWriter out;
+    private CountingPrintWriter writer;
+
+    @Before
+    public void setUp() {
+        out = new StringWriter();
+        writer = new CountingPrintWriter(new PrintWriter(out));
+    }
+
+    @Test
+    public void test_ranges_are_counted() throws UnsupportedEncodingException {
+        writer.write("0123456789", 2, 5);
+        writer.write("xxééxx".toCharArray(), 2, 2);
+        writer.append("abcdef", 1, 3);
+        writer.flush();
+
+        Assert.assertEquals("23456éébc", out.toString());
+        Assert.assertEquals(utf8Length(out.toString()), writer.getCount());
+    }
+
+    @Test
+    public void test_mixed_scripts_and_surrogate_pairs() throws UnsupportedEncodingException {
+        writer.write(MIXED);
+        writer.print(MIXED.toCharArray());
+        writer.flush();
+
+        Assert.assertEquals(2 * utf8Length(MIXED), writer.getCount());
+        Assert.assertEquals(11, utf8Length(MIXED));
+    }
+
+    @Test
+    public void test_surrogate_pair_split_across_writes() throws UnsupportedEncodingException {
+        writer.write(MIXED, 0, 4);
+        writer.write(MIXED, 4, 2);
+        writer.write('\ud83d');
+        writer.write('\ude00');
+
+        Assert.assertEquals(utf8Length(MIXED) + 4, writer.getCount());
+    }
+
+    @Test
+    public void test_single_chars_and_char_sequences_are_counted() throws UnsupportedEncodingException {
+        for (char c : MIXED.toCharArray()) {
+            writer.write(c);
+        }
+        writer.append('\u00ff');
+        writer.append('\u0800');
+        writer.append('\ude00');
+        writer.append(new StringBuilder(MIXED));
+        writer.append(null);
+        writer.flush();
+
+        Assert.assertEquals(MIXED + "\u00ff\u0800\ude00" + MIXED + "null", out.toString());
+        Assert.assertEquals(2 * utf8Length(MIXED) + 2 + 3 + 1 + 4, writer.getCount());
+    }
+
+    @Test
+    public void test_lone_surrogates_count_as_replacement() throws UnsupportedEncodingException {
+        writer.write("a\ude00b\ud83d");
+        writer.write("c");
+
+        Assert.assertEquals(utf8Length("a\ude00b\ud83dc"), writer.getCount());
+        Assert.assertEquals(5, writer.getCount());
+    }
+
+    @Test
+    public void test_long_ascii_runs() throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 103; i++) {
+            sb.append((char) ('a' + i % 26));
+            if (i % 37 == 0) {
+                sb.append('é');
+            }
+        }
+        String payload = sb.toString();
+
+        Assert.assertEquals(utf8Length(payload), Utf8.length(payload, 0, payload.length()));
+        Assert.assertEquals(utf8Length(payload), Utf8.length(payload.toCharArray(), 0, payload.length()));
+    }
+
+    @Test
+    public void test_formatted_output_is_counted() throws UnsupportedEncodingException {
+        writer.printf("%s=%d;", "é", 42);
+        writer.format(Locale.ROOT, "%.1f", 1.5);
+        writer.flush();
+
+        Assert.assertEquals("é=42;1.5", out.toString());
+        Assert.assertEquals(utf8Length(out.toString()), writer.getCount());
+    }
+
+    private static long utf8Length(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8").length;
+    }
+}
@@ -0,0 +1,92 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class CountingServletInputStreamTest {
+
+    @Test
+    public void test_reads_are_counted() throws IOException {
+        CountingServletInputStream counting = new CountingServletInputStream(new ContainerStream(new byte[1000]));
+
+        Assert.assertEquals(0, counting.read());
+        Assert.assertEquals(500, counting.read(new byte[500]));
+        Assert.assertEquals(10, counting.skip(10));
+        Assert.assertEquals(489, counting.read(new byte[1000], 0, 1000));
+        Assert.assertEquals(-1, counting.read());
+
+        Assert.assertTrue(counting.isFinished());
+        Assert.assertEquals(1000, counting.getByteCount());
+    }
+
+    @Test
+    public void test_read_listener_is_delegated_and_count_published() throws IOException {
+        ContainerStream container = new ContainerStream(new byte[256]);
+        final CountingServletInputStream counting = new CountingServletInputStream(container);
+        final boolean[] allRead = new boolean[1];
+
+        counting.setReadListener(new ReadListener() {
+            public void onDataAvailable() throws IOException {
+                byte[] buffer = new byte[64];
+                while (counting.isReady() && counting.read(buffer) > 0) {
+                    // consume
+                }
+            }
+
+            public void onAllDataRead() {
+                allRead[0] = true;
+            }
+
+            public void onError(Throwable t) {
+            }
+        });
+        container.listener.onDataAvailable();
+        container.listener.onAllDataRead();
+
+        Assert.assertTrue(allRead[0]);
+        Assert.assertEquals(256, counting.getByteCount());
+    }
+
+    /**
+     * Container stream over a byte array.
+     */
+    private static final class ContainerStream extends ServletInputStream {
+
+        private final ByteArrayInputStream bytes;
+        private ReadListener listener;
+
+        ContainerStream(byte[] content) {
+            this.bytes = new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public int read() {
+            return bytes.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return bytes.read(b, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return bytes.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            listener = readListener;
+        }
+    }
+}
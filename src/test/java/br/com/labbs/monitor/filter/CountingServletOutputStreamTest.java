@@ -0,0 +1,124 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.CharConversionException;
+import java.io.IOException;
+
+public class CountingServletOutputStreamTest {
+
+    @Test
+    public void test_bulk_writes_reach_the_container_in_one_call() throws IOException {
+        RecordingStream container = new RecordingStream();
+        CountingServletOutputStream counting = new CountingServletOutputStream(container);
+
+        counting.write(new byte[1024], 10, 1000);
+        counting.write(new byte[24]);
+
+        Assert.assertEquals(2, container.calls);
+        Assert.assertEquals(1024, container.bytes.size());
+        Assert.assertEquals(1024, counting.getByteCount());
+    }
+
+    @Test
+    public void test_print_is_passed_through() throws IOException {
+        RecordingStream container = new RecordingStream();
+        CountingServletOutputStream counting = new CountingServletOutputStream(container);
+
+        counting.print("hello");
+        counting.println(42);
+        counting.print((String) null);
+
+        Assert.assertEquals("hello42\r\nnull", container.bytes.toString("ISO-8859-1"));
+        Assert.assertEquals(13, counting.getByteCount());
+    }
+
+    @Test
+    public void test_print_writes_what_the_container_prints() throws IOException {
+        RecordingStream container = new RecordingStream();
+        CountingServletOutputStream counting = new CountingServletOutputStream(container);
+
+        counting.print("São Paulo");
+
+        Assert.assertEquals("São Paulo", container.printed.toString());
+        Assert.assertEquals("São Paulo", container.bytes.toString("ISO-8859-1"));
+        Assert.assertEquals(9, counting.getByteCount());
+    }
+
+    @Test
+    public void test_print_fails_as_the_container_for_chars_not_in_iso_8859_1() throws IOException {
+        RecordingStream container = new RecordingStream();
+        CountingServletOutputStream counting = new CountingServletOutputStream(container);
+
+        try {
+            counting.print("10 €");
+            Assert.fail("CharConversionException expected");
+        } catch (CharConversionException e) {
+            Assert.assertEquals(0, counting.getByteCount());
+        }
+    }
+
+    @Test
+    public void test_write_listener_is_delegated_and_count_published() throws IOException {
+        RecordingStream container = new RecordingStream();
+        final CountingServletOutputStream counting = new CountingServletOutputStream(container);
+
+        counting.setWriteListener(new WriteListener() {
+            public void onWritePossible() throws IOException {
+                while (counting.isReady() && counting.getByteCount() < 300) {
+                    counting.write(new byte[100]);
+                }
+            }
+
+            public void onError(Throwable t) {
+            }
+        });
+        container.listener.onWritePossible();
+
+        Assert.assertTrue(counting.isReady());
+        Assert.assertEquals(300, counting.getByteCount());
+    }
+
+    /**
+     * Container stream counting the calls that reach it.
+     */
+    private static final class RecordingStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final StringBuilder printed = new StringBuilder();
+        private int calls;
+        private WriteListener listener;
+
+        @Override
+        public void write(int b) {
+            calls++;
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            calls++;
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public void print(String s) throws IOException {
+            printed.append(s);
+            super.print(s);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            listener = writeListener;
+        }
+    }
+}
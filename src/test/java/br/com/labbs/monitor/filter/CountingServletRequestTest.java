@@ -0,0 +1,113 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class CountingServletRequestTest {
+
+    private HttpServletRequest request;
+
+    @Before
+    public void setUp() {
+        request = Mockito.mock(HttpServletRequest.class);
+    }
+
+    @Test
+    public void test_input_stream_is_counted() throws IOException {
+        Mockito.when(request.getInputStream()).thenReturn(new ContainerStream(new byte[1000]));
+        Mockito.when(request.getContentLength()).thenReturn(1000);
+        CountingServletRequest counting = new CountingServletRequest(request);
+
+        ServletInputStream input = counting.getInputStream();
+        Assert.assertEquals(600, input.read(new byte[600]));
+
+        Assert.assertSame(input, counting.getInputStream());
+        Assert.assertEquals(600, counting.getByteCount());
+    }
+
+    @Test
+    public void test_reader_counts_encoded_bytes() throws IOException {
+        byte[] body = "São Paulo\nRio".getBytes("UTF-8");
+        Mockito.when(request.getInputStream()).thenReturn(new ContainerStream(body));
+        Mockito.when(request.getCharacterEncoding()).thenReturn("UTF-8");
+        CountingServletRequest counting = new CountingServletRequest(request);
+
+        BufferedReader reader = counting.getReader();
+        Assert.assertEquals("São Paulo", reader.readLine());
+        Assert.assertEquals("Rio", reader.readLine());
+        Assert.assertNull(reader.readLine());
+
+        Assert.assertEquals(body.length, counting.getByteCount());
+    }
+
+    @Test
+    public void test_content_length_is_reported_when_body_is_not_read() {
+        Mockito.when(request.getContentLength()).thenReturn(2048);
+        CountingServletRequest counting = new CountingServletRequest(request);
+
+        Assert.assertEquals(2048, counting.getByteCount());
+    }
+
+    @Test
+    public void test_content_length_over_int_range_is_read_from_the_header() {
+        Mockito.when(request.getContentLength()).thenReturn(-1);
+        Mockito.when(request.getHeader("Content-Length")).thenReturn("5000000000");
+        CountingServletRequest counting = new CountingServletRequest(request);
+
+        Assert.assertEquals(5000000000L, counting.getByteCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_reader_and_stream_are_exclusive() throws IOException {
+        Mockito.when(request.getInputStream()).thenReturn(new ContainerStream(new byte[0]));
+        CountingServletRequest counting = new CountingServletRequest(request);
+
+        counting.getReader();
+        counting.getInputStream();
+    }
+
+    /**
+     * Container stream over a byte array.
+     */
+    private static final class ContainerStream extends ServletInputStream {
+
+        private final ByteArrayInputStream bytes;
+
+        ContainerStream(byte[] content) {
+            this.bytes = new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public int read() {
+            return bytes.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return bytes.read(b, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return bytes.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.zip.GZIPOutputStream;
+
+public class CountingServletResponseTest {
+
+    private HttpServletResponse response;
+    private PrintWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        response = Mockito.mock(HttpServletResponse.class);
+        writer = new PrintWriter(new StringWriter());
+        Mockito.when(response.getWriter()).thenReturn(writer);
+    }
+
+    @Test
+    public void test_writer_is_counted_without_content_length() throws IOException {
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        PrintWriter w = counting.getWriter();
+        w.print("hello");
+
+        Assert.assertNotSame(writer, w);
+        Assert.assertEquals(5, counting.getByteCount());
+    }
+
+    @Test
+    public void test_raw_writer_is_returned_with_content_length() throws IOException {
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        counting.setHeader("content-length", "42");
+
+        Assert.assertSame(writer, counting.getWriter());
+        Assert.assertSame(writer, counting.getWriter());
+        Assert.assertEquals(42, counting.getByteCount());
+    }
+
+    @Test
+    public void test_content_length_without_body_is_not_counted() throws IOException {
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        counting.setContentLength(42);
+        counting.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+        Assert.assertEquals(0, counting.getByteCount());
+    }
+
+    @Test
+    public void test_content_length_declared_after_writer_is_counted() throws IOException {
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        PrintWriter w = counting.getWriter();
+        counting.setContentLength(100);
+        w.print("abc");
+
+        Assert.assertSame(w, counting.getWriter());
+        Assert.assertEquals(3, counting.getByteCount());
+    }
+
+    @Test
+    public void test_exact_writer_size_counts_encoded_bytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Mockito.when(response.getCharacterEncoding()).thenReturn("ISO-8859-1");
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(bytes));
+        CountingServletResponse counting = new CountingServletResponse(response, true);
+
+        PrintWriter w = counting.getWriter();
+        w.print("São Paulo");
+        w.printf("%d", 42);
+        w.println();
+        counting.dispatchReturned(false);
+
+        Assert.assertEquals("São Paulo42" + System.getProperty("line.separator"), bytes.toString("ISO-8859-1"));
+        Assert.assertEquals(bytes.size(), counting.getByteCount());
+        Mockito.verify(response).setCharacterEncoding("ISO-8859-1");
+    }
+
+    @Test
+    public void test_exact_writer_size_with_utf16() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-16");
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(bytes));
+        CountingServletResponse counting = new CountingServletResponse(response, true);
+
+        counting.getWriter().write("abc");
+        counting.dispatchReturned(false);
+
+        Assert.assertEquals("abc".getBytes("UTF-16").length, counting.getByteCount());
+    }
+
+    @Test
+    public void test_exact_writer_size_buffers_until_the_dispatch_returns() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-8");
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(bytes));
+        CountingServletResponse counting = new CountingServletResponse(response, true);
+
+        PrintWriter w = counting.getWriter();
+        for (char c : "hello".toCharArray()) {
+            w.write(c);
+        }
+        Assert.assertEquals(0, bytes.size());
+        Assert.assertTrue(counting.getFirstByteNanos() != 0);
+
+        counting.dispatchReturned(false);
+        Assert.assertEquals("hello", bytes.toString("UTF-8"));
+        Assert.assertEquals(5, counting.getByteCount());
+    }
+
+    @Test
+    public void test_exact_writer_size_drains_every_write_in_async_mode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-8");
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(bytes));
+        CountingServletResponse counting = new CountingServletResponse(response, true);
+
+        PrintWriter w = counting.getWriter();
+        w.write("before");
+        counting.dispatchReturned(true);
+        Assert.assertEquals(6, counting.getByteCount());
+        w.write("é");
+
+        Assert.assertEquals("beforeé", bytes.toString("UTF-8"));
+        Assert.assertEquals(8, counting.getByteCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_exact_writer_size_keeps_writer_and_stream_exclusive() throws IOException {
+        Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-8");
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(new ByteArrayOutputStream()));
+        CountingServletResponse counting = new CountingServletResponse(response, true);
+
+        counting.getWriter();
+        counting.getOutputStream();
+    }
+
+    @Test
+    public void test_reset_clears_content_length() {
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        counting.setContentLengthLong(10);
+        counting.reset();
+
+        Assert.assertEquals(0, counting.getByteCount());
+    }
+
+    @Test
+    public void test_gzip_response_counts_decoded_and_wire_bytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(bytes));
+        Mockito.when(response.getHeader("Content-Encoding")).thenReturn("gzip");
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        GZIPOutputStream gzip = new GZIPOutputStream(counting.getOutputStream());
+        for (int i = 0; i < 1000; i++) {
+            gzip.write("hello ".getBytes("US-ASCII"));
+        }
+        gzip.close();
+
+        Assert.assertEquals(bytes.size(), counting.getByteCount());
+        Assert.assertTrue(counting.getByteCount() < 6000);
+        Assert.assertEquals(6000, counting.getDecodedByteCount());
+    }
+
+    @Test
+    public void test_unfinished_gzip_response_reports_the_bytes_written() throws IOException {
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(new ByteArrayOutputStream()));
+        Mockito.when(response.getHeader("Content-Encoding")).thenReturn("gzip");
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        // aborted mid-stream: the last bytes are compressed data, not a trailer
+        GZIPOutputStream gzip = new GZIPOutputStream(counting.getOutputStream(), true);
+        gzip.write(new byte[100000]);
+        gzip.flush();
+
+        Assert.assertTrue(counting.getByteCount() >= 18);
+        Assert.assertEquals(counting.getByteCount(), counting.getDecodedByteCount());
+    }
+
+    @Test
+    public void test_gzip_header_without_gzip_content_reports_the_bytes_written() throws IOException {
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(new ByteArrayOutputStream()));
+        Mockito.when(response.getHeader("Content-Encoding")).thenReturn("gzip");
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        ServletOutputStream output = counting.getOutputStream();
+        output.write(new byte[]{'n', 'o', 't', ' ', 'g', 'z', 'i', 'p', ' ', 'c', 'o', 'n', 't', 'e', 'n', 't',
+                0, 0, (byte) 0xff, (byte) 0xff});
+        output.close();
+
+        Assert.assertEquals(20, counting.getDecodedByteCount());
+    }
+
+    @Test
+    public void test_identity_response_decoded_bytes_are_the_wire_bytes() throws IOException {
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(new ByteArrayOutputStream()));
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        counting.getOutputStream().write(new byte[100]);
+
+        Assert.assertEquals(100, counting.getByteCount());
+        Assert.assertEquals(100, counting.getDecodedByteCount());
+    }
+
+    @Test
+    public void test_first_write_is_timestamped() throws IOException {
+        Mockito.when(response.getOutputStream()).thenReturn(new ContainerStream(new ByteArrayOutputStream()));
+        CountingServletResponse counting = new CountingServletResponse(response);
+        long before = System.nanoTime();
+
+        ServletOutputStream output = counting.getOutputStream();
+        output.write(new byte[0]);
+        Assert.assertEquals(0, counting.getFirstByteNanos());
+        output.write(1);
+        long first = counting.getFirstByteNanos();
+        output.write(new byte[10]);
+        output.flush();
+
+        Assert.assertTrue(first - before >= 0);
+        Assert.assertEquals(first, counting.getFirstByteNanos());
+    }
+
+    @Test
+    public void test_flush_buffer_without_body_is_the_first_byte() throws IOException {
+        CountingServletResponse counting = new CountingServletResponse(response);
+
+        PrintWriter w = counting.getWriter();
+        Assert.assertEquals(0, counting.getFirstByteNanos());
+        counting.flushBuffer();
+        long flushed = counting.getFirstByteNanos();
+        w.print("late");
+
+        Assert.assertTrue(flushed != 0);
+        Assert.assertEquals(flushed, counting.getFirstByteNanos());
+    }
+
+    /**
+     * Container stream over a byte array.
+     */
+    private static final class ContainerStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream bytes;
+
+        ContainerStream(ByteArrayOutputStream bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
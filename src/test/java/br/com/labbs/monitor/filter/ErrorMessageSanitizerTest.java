@@ -0,0 +1,46 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+public class ErrorMessageSanitizerTest {
+
+    private static final Pattern FILTER = Pattern.compile("[^A-zÀ-ú .,]+");
+
+    @Test
+    public void test_filter_and_truncate() {
+        ErrorMessageSanitizer sanitizer = new ErrorMessageSanitizer(FILTER, 10, false, 10);
+
+        Assert.assertEquals("User  not ", sanitizer.sanitize("User 42 not found!"));
+        Assert.assertEquals("User  not ", sanitizer.sanitize("User 42 not found!"));
+    }
+
+    @Test
+    public void test_fingerprint_collapses_variable_values() {
+        ErrorMessageSanitizer sanitizer = new ErrorMessageSanitizer(FILTER, 100, true, 10);
+
+        String label = sanitizer.sanitize("Order 42 of 'john' not found: 123e4567-e89b-12d3-a456-426614174000!");
+        Assert.assertEquals("Order {num} of {str} not found {uuid}", label);
+        Assert.assertEquals(label,
+                sanitizer.sanitize("Order 7 of \"mary\" not found: 00000000-0000-0000-0000-000000000000"));
+    }
+
+    @Test
+    public void test_cache_is_cleared_when_full() {
+        ErrorMessageSanitizer sanitizer = new ErrorMessageSanitizer(FILTER, 100, false, 2);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("Error " + (char) ('a' + i), sanitizer.sanitize("Error " + (char) ('a' + i) + "!"));
+        }
+        Assert.assertEquals("Error a", sanitizer.sanitize("Error a!"));
+    }
+
+    @Test
+    public void test_invalid_regex_records_no_message() {
+        ErrorMessageSanitizer sanitizer = new ErrorMessageSanitizer(null, 10, false, 0);
+
+        Assert.assertEquals("", sanitizer.sanitize("error"));
+    }
+}
@@ -0,0 +1,67 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.StripedCounter;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InFlightRequestsTest {
+
+    private CollectorRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+    }
+
+    @Test
+    public void test_requests_in_flight_per_route() {
+        InFlightRequests inFlight = new InFlightRequests(10);
+        registry.register(inFlight);
+
+        StripedCounter a = inFlight.enter("/a", 1);
+        inFlight.enter("/a", 1);
+        StripedCounter b = inFlight.enter("/b", 10);
+        inFlight.exit(a, 1);
+        inFlight.exit(b, 10);
+
+        Assert.assertEquals(1.0, inFlight("/a"), 0);
+        Assert.assertEquals(0.0, inFlight("/b"), 0);
+    }
+
+    @Test
+    public void test_concurrency_at_arrival_is_observed() {
+        InFlightRequests inFlight = new InFlightRequests(10);
+        registry.register(inFlight);
+
+        StripedCounter first = inFlight.enter("/a", 1);
+        inFlight.enter("/b", 1);
+        inFlight.exit(first, 1);
+        inFlight.enter("/a", 1);
+
+        Assert.assertEquals(3.0, registry.getSampleValue("http_requests_in_flight_at_arrival_count"), 0);
+        Assert.assertEquals(5.0, registry.getSampleValue("http_requests_in_flight_at_arrival_sum"), 0);
+        Assert.assertEquals(1.0, registry.getSampleValue("http_requests_in_flight_at_arrival_bucket",
+                new String[]{"le"}, new String[]{"1.0"}), 0);
+    }
+
+    @Test
+    public void test_routes_beyond_the_limit_go_to_overflow() {
+        InFlightRequests inFlight = new InFlightRequests(1);
+        registry.register(inFlight);
+
+        inFlight.enter("/a", 1);
+        inFlight.enter("/b", 1);
+        inFlight.enter("/c", 1);
+
+        Assert.assertEquals(1.0, inFlight("/a"), 0);
+        Assert.assertEquals(2.0, inFlight(InFlightRequests.OVERFLOW_ROUTE), 0);
+        Assert.assertNull(registry.getSampleValue("http_requests_in_flight", new String[]{"addr"},
+                new String[]{"/b"}));
+    }
+
+    private double inFlight(String route) {
+        return registry.getSampleValue("http_requests_in_flight", new String[]{"addr"}, new String[]{route});
+    }
+}
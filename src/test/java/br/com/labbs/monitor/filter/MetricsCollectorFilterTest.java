@@ -0,0 +1,241 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.MonitorMetrics;
+import io.prometheus.client.Histogram;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricsCollectorFilterTest {
+
+    private static MetricsCollectorFilter filter;
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private FakeAsyncContext asyncContext;
+    private ServletResponse passed;
+
+    @BeforeClass
+    public static void initFilter() {
+        filter = TestFilters.initialized();
+    }
+
+    @Before
+    public void setUp() {
+        asyncContext = new FakeAsyncContext();
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getContextPath()).thenReturn("");
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getScheme()).thenReturn("http");
+        Mockito.when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        Mockito.when(request.isAsyncStarted()).thenReturn(true);
+        Mockito.when(request.getAsyncContext()).thenReturn(asyncContext);
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getStatus()).thenReturn(200);
+    }
+
+    @Test
+    public void test_async_request_is_recorded_once_on_complete() throws Exception {
+        doFilter("/async/complete");
+
+        Assert.assertEquals(1, asyncContext.listeners.size());
+        Assert.assertEquals(0, count("/async/complete", "200"), 0);
+
+        asyncContext.fire(Event.COMPLETE);
+        asyncContext.fire(Event.COMPLETE);
+        asyncContext.fire(Event.TIMEOUT);
+
+        Assert.assertEquals(1, count("/async/complete", "200"), 0);
+        Assert.assertEquals(0, count("/async/complete", "500"), 0);
+    }
+
+    @Test
+    public void test_async_request_is_recorded_once_on_timeout() throws Exception {
+        doFilter("/async/timeout");
+
+        asyncContext.fire(Event.TIMEOUT);
+        asyncContext.fire(Event.COMPLETE);
+
+        // the container reports an unhandled timeout as an error
+        Assert.assertEquals(1, count("/async/timeout", "500"), 0);
+        Assert.assertEquals(0, count("/async/timeout", "200"), 0);
+    }
+
+    @Test
+    public void test_async_request_is_recorded_once_on_error() throws Exception {
+        doFilter("/async/error");
+        Mockito.when(response.getStatus()).thenReturn(503);
+
+        asyncContext.fire(Event.ERROR);
+        asyncContext.fire(Event.ERROR);
+        asyncContext.fire(Event.COMPLETE);
+
+        Assert.assertEquals(1, count("/async/error", "503"), 0);
+        Assert.assertEquals(0, count("/async/error", "500"), 0);
+    }
+
+    @Test
+    public void test_async_request_already_completed_is_recorded_when_the_dispatch_returns() throws Exception {
+        asyncContext.completed = true;
+
+        doFilter("/async/completed");
+
+        Assert.assertEquals(0, asyncContext.listeners.size());
+        Assert.assertEquals(1, count("/async/completed", "200"), 0);
+    }
+
+    @Test
+    public void test_listener_is_registered_again_on_start_async() throws Exception {
+        doFilter("/async/restart");
+        FakeAsyncContext restarted = new FakeAsyncContext();
+
+        asyncContext.fire(Event.START_ASYNC, restarted);
+        restarted.fire(Event.COMPLETE);
+
+        Assert.assertEquals(1, restarted.listeners.size());
+        Assert.assertEquals(1, count("/async/restart", "200"), 0);
+    }
+
+    @Test
+    public void test_async_dispatch_is_not_recorded() throws Exception {
+        Mockito.when(request.getDispatcherType()).thenReturn(DispatcherType.ASYNC);
+
+        doFilter("/async/dispatch");
+
+        Assert.assertSame(response, passed);
+        Assert.assertEquals(0, asyncContext.listeners.size());
+        Assert.assertEquals(0, count("/async/dispatch", "200"), 0);
+    }
+
+    private void doFilter(String path) throws Exception {
+        Mockito.when(request.getRequestURI()).thenReturn(path);
+        filter.doFilter(request, response, new FilterChain() {
+            public void doFilter(ServletRequest req, ServletResponse resp) {
+                passed = resp;
+            }
+        });
+    }
+
+    private static double count(String path, String status) {
+        boolean isError = !"200".equals(status);
+        Histogram.Child.Value value = MonitorMetrics.INSTANCE.requestSeconds.labels("http", status, "GET", path,
+                Boolean.toString(isError), "").get();
+        return value.buckets[value.buckets.length - 1];
+    }
+
+    private enum Event {
+        COMPLETE, TIMEOUT, ERROR, START_ASYNC
+    }
+
+    /**
+     * Async context keeping its listeners, as the container does for one asynchronous cycle.
+     */
+    private static final class FakeAsyncContext implements AsyncContext {
+
+        private final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        private boolean completed;
+
+        void fire(Event event) throws IOException {
+            fire(event, this);
+        }
+
+        void fire(Event event, AsyncContext next) throws IOException {
+            for (AsyncListener listener : new ArrayList<AsyncListener>(listeners)) {
+                AsyncEvent asyncEvent = new AsyncEvent(next);
+                switch (event) {
+                    case COMPLETE:
+                        listener.onComplete(asyncEvent);
+                        break;
+                    case TIMEOUT:
+                        listener.onTimeout(asyncEvent);
+                        break;
+                    case ERROR:
+                        listener.onError(asyncEvent);
+                        break;
+                    default:
+                        listener.onStartAsync(asyncEvent);
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void addListener(AsyncListener listener) {
+            if (completed) {
+                throw new IllegalStateException("Async request already completed");
+            }
+            listeners.add(listener);
+        }
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) {
+            addListener(listener);
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return null;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return null;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        @Override
+        public void dispatch() {
+        }
+
+        @Override
+        public void dispatch(String path) {
+        }
+
+        @Override
+        public void dispatch(ServletContext context, String path) {
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void start(Runnable run) {
+            run.run();
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) {
+            return null;
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+        }
+
+        @Override
+        public long getTimeout() {
+            return 0;
+        }
+    }
+}
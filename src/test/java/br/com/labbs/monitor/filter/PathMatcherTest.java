@@ -0,0 +1,103 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PathMatcherTest {
+
+    @Test
+    public void test_plain_patterns_match_as_prefix() {
+        PathMatcher matcher = PathMatcher.compile(Arrays.asList("/metrics", "/static", "/stat"));
+
+        Assert.assertTrue(matcher.matches("/metrics", 0));
+        Assert.assertTrue(matcher.matches("/metrics/jvm", 0));
+        Assert.assertTrue(matcher.matches("/static/app.js", 0));
+        Assert.assertTrue(matcher.matches("/status", 0));
+        Assert.assertFalse(matcher.matches("/sta", 0));
+        Assert.assertFalse(matcher.matches("/api/metrics", 0));
+        Assert.assertFalse(matcher.matches("", 0));
+    }
+
+    @Test
+    public void test_offset_skips_context_path() {
+        PathMatcher matcher = PathMatcher.compile(Collections.singletonList("/metrics"));
+
+        Assert.assertTrue(matcher.matches("/app/metrics", 4));
+        Assert.assertFalse(matcher.matches("/app/metrics", 0));
+    }
+
+    @Test
+    public void test_globstar_matches_any_depth_and_directory_itself() {
+        PathMatcher matcher = PathMatcher.compile(Collections.singletonList("/static/**"));
+
+        Assert.assertTrue(matcher.matches("/static", 0));
+        Assert.assertTrue(matcher.matches("/static/", 0));
+        Assert.assertTrue(matcher.matches("/static/css/site.css", 0));
+        Assert.assertFalse(matcher.matches("/statics", 0));
+        Assert.assertFalse(matcher.matches("/api/static", 0));
+    }
+
+    @Test
+    public void test_star_matches_inside_one_segment() {
+        PathMatcher matcher = PathMatcher.compile(Collections.singletonList("/api/*/health"));
+
+        Assert.assertTrue(matcher.matches("/api/v1/health", 0));
+        Assert.assertTrue(matcher.matches("/api//health", 0));
+        Assert.assertFalse(matcher.matches("/api/v1/x/health", 0));
+        Assert.assertFalse(matcher.matches("/api/v1/health/deep", 0));
+    }
+
+    @Test
+    public void test_relative_glob_matches_in_any_directory() {
+        PathMatcher matcher = PathMatcher.compile(Arrays.asList("*.js", "*.css"));
+
+        Assert.assertTrue(matcher.matches("/app.js", 0));
+        Assert.assertTrue(matcher.matches("/a/b/c/app.js", 0));
+        Assert.assertTrue(matcher.matches("/a/site.css", 0));
+        Assert.assertFalse(matcher.matches("/app.json", 0));
+        Assert.assertFalse(matcher.matches("/app.js/data", 0));
+    }
+
+    @Test
+    public void test_plain_and_glob_patterns_are_combined() {
+        PathMatcher matcher = PathMatcher.compile(Arrays.asList("/metrics", "/assets/**/*.png", "*.ico"));
+
+        Assert.assertTrue(matcher.matches("/metrics", 0));
+        Assert.assertTrue(matcher.matches("/assets/img/logo.png", 0));
+        Assert.assertTrue(matcher.matches("/assets/logo.png", 0));
+        Assert.assertTrue(matcher.matches("/favicon.ico", 0));
+        Assert.assertFalse(matcher.matches("/assets/img/logo.jpg", 0));
+        Assert.assertFalse(matcher.matches("/users/1", 0));
+    }
+
+    @Test
+    public void test_empty_patterns_never_match() {
+        PathMatcher matcher = PathMatcher.compile(Arrays.asList("", null));
+
+        Assert.assertTrue(matcher.isEmpty());
+        Assert.assertFalse(matcher.matches("/anything", 0));
+    }
+
+    @Test
+    public void test_match_returns_the_first_pattern_matched() {
+        PathMatcher matcher = PathMatcher.compile(Arrays.asList("/search/*.json", "/search", "", "/static/**"));
+
+        Assert.assertEquals(0, matcher.match("/search/a.json", 0));
+        Assert.assertEquals(1, matcher.match("/search/a.xml", 0));
+        Assert.assertEquals(1, matcher.match("/search", 0));
+        Assert.assertEquals(3, matcher.match("/static/css/site.css", 0));
+        Assert.assertEquals(-1, matcher.match("/other", 0));
+    }
+
+    @Test
+    public void test_match_honors_the_order_of_the_patterns() {
+        PathMatcher matcher = PathMatcher.compile(Arrays.asList("/api/**/*.json", "/api"));
+
+        Assert.assertEquals(0, matcher.match("/api/v1/users.json", 0));
+        Assert.assertEquals(1, matcher.match("/api/v1/users", 0));
+        Assert.assertTrue(matcher.matches("/api/v1/users", 0));
+    }
+}
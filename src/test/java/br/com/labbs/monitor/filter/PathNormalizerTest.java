@@ -0,0 +1,58 @@
+package br.com.labbs.monitor.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PathNormalizerTest {
+
+    @Test
+    public void test_builtin_detectors_replace_ids() {
+        PathNormalizer normalizer = new PathNormalizer(Collections.<String>emptyList(), true, 100);
+
+        Assert.assertEquals("/users/{id}/orders/{id}", normalizer.normalize("/users/123/orders/9", ""));
+        Assert.assertEquals("/files/{uuid}", normalizer.normalize("/files/3f2504e0-4f89-11d3-9a0c-0305e82c3301", ""));
+        Assert.assertEquals("/objects/{hex}/", normalizer.normalize("/objects/507f1f77bcf86cd799439011/", ""));
+        Assert.assertEquals("/users/me", normalizer.normalize("/users/me", ""));
+        Assert.assertEquals("/deadbeefcafebabe", normalizer.normalize("/deadbeefcafebabe", ""));
+        Assert.assertEquals("/", normalizer.normalize("/", ""));
+    }
+
+    @Test
+    public void test_templates_take_precedence_over_detectors() {
+        PathNormalizer normalizer = new PathNormalizer(Arrays.asList("/users/{userId}", "/users/{userId}/avatar"),
+                true, 100);
+
+        Assert.assertEquals("/users/{userId}", normalizer.normalize("/users/john", ""));
+        Assert.assertEquals("/users/{userId}/avatar", normalizer.normalize("/users/42/avatar", ""));
+        Assert.assertEquals("/users/{id}/avatar/small", normalizer.normalize("/users/42/avatar/small", ""));
+    }
+
+    @Test
+    public void test_templates_without_detectors() {
+        PathNormalizer normalizer = new PathNormalizer(Collections.singletonList("/search/{term}"), false, 100);
+
+        Assert.assertEquals("/search/{term}", normalizer.normalize("/search/shoes", ""));
+        Assert.assertEquals("/items/1", normalizer.normalize("/items/1", ""));
+        Assert.assertEquals("/search/", normalizer.normalize("/search/", ""));
+    }
+
+    @Test
+    public void test_context_path_is_kept() {
+        PathNormalizer normalizer = new PathNormalizer(Collections.singletonList("/users/{id}"), true, 100);
+
+        Assert.assertEquals("/app/users/{id}", normalizer.normalize("/app/users/1", "/app"));
+        Assert.assertEquals("/1/items/{id}", normalizer.normalize("/1/items/2", "/1"));
+    }
+
+    @Test
+    public void test_cache_is_bounded() {
+        PathNormalizer normalizer = new PathNormalizer(Collections.<String>emptyList(), true, 2);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("/users/{id}", normalizer.normalize("/users/" + i, ""));
+        }
+    }
+}
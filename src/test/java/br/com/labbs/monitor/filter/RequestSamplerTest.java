@@ -0,0 +1,71 @@
+package br.com.labbs.monitor.filter;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class RequestSamplerTest {
+
+    @Test
+    public void test_one_in_n_with_exact_counts() {
+        CollectorRegistry registry = new CollectorRegistry();
+        RequestSampler sampler = RequestSampler.parse(Arrays.asList("/health=10"));
+        registry.register(sampler);
+
+        long recorded = 0;
+        long weight = 0;
+        for (int i = 0; i < 1000; i++) {
+            long w = sampler.sample("/ctx/health/live", 4, System.nanoTime());
+            if (w > 0) {
+                recorded++;
+                weight = w;
+            }
+        }
+
+        Assert.assertEquals(100, recorded);
+        Assert.assertEquals(10, weight);
+        Assert.assertEquals(1000.0, registry.getSampleValue("monitor_sampling_requests_total",
+                new String[]{"route"}, new String[]{"/health"}), 0);
+        Assert.assertEquals(100.0, registry.getSampleValue("monitor_sampling_recorded_total",
+                new String[]{"route"}, new String[]{"/health"}), 0);
+    }
+
+    @Test
+    public void test_unmatched_paths_are_always_recorded() {
+        RequestSampler sampler = RequestSampler.parse(Arrays.asList("/health=10"));
+
+        Assert.assertEquals(1, sampler.sample("/api/users", 0, System.nanoTime()));
+        Assert.assertEquals(1, sampler.sample("/ctx/health", 0, System.nanoTime()));
+    }
+
+    @Test
+    public void test_longest_prefix_wins() {
+        RequestSampler sampler = RequestSampler.parse(Arrays.asList("/api=1000000", "/api/orders=1"));
+
+        Assert.assertEquals(1, sampler.sample("/api/orders/1", 0, System.nanoTime()));
+        Assert.assertEquals(0, sampler.sample("/api/users/1", 0, System.nanoTime()));
+    }
+
+    @Test
+    public void test_adaptive_limits_recorded_requests_per_second() {
+        RequestSampler sampler = RequestSampler.parse(Arrays.asList("/search=adaptive:5"));
+        long now = System.nanoTime();
+
+        int recorded = 0;
+        for (int i = 0; i < 50; i++) {
+            if (sampler.sample("/search", 0, now) > 0) {
+                recorded++;
+            }
+        }
+        Assert.assertEquals(5, recorded);
+        // next window weights the recorded requests by the ratio of the previous one
+        Assert.assertEquals(10, sampler.sample("/search", 0, now + 2000000000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_rule() {
+        RequestSampler.parse(Arrays.asList("/health=often"));
+    }
+}
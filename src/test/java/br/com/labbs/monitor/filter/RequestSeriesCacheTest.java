@@ -0,0 +1,85 @@
+package br.com.labbs.monitor.filter;
+
+import br.com.labbs.monitor.MonitorMetrics;
+import br.com.labbs.monitor.RequestSeries;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestSeriesCacheTest {
+
+    @BeforeClass
+    public static void initMetrics() {
+        TestFilters.initialized();
+    }
+
+    @Test
+    public void test_series_are_cached_per_route_and_label_combination() {
+        RequestSeriesCache cache = new RequestSeriesCache(10);
+
+        RequestSeries series = cache.get("http", "GET", 200, false, "/cache/a", "");
+
+        Assert.assertNotNull(series);
+        Assert.assertSame(series, cache.get("http", "GET", 200, false, "/cache/a", ""));
+        Assert.assertNotSame(series, cache.get("http", "POST", 200, false, "/cache/a", ""));
+        Assert.assertNotSame(series, cache.get("http", "GET", 404, true, "/cache/a", ""));
+        Assert.assertNotSame(series, cache.get("http", "GET", 200, false, "/cache/b", ""));
+    }
+
+    @Test
+    public void test_cache_is_cleared_when_the_series_generation_changes() throws Exception {
+        RequestSeriesCache cache = new RequestSeriesCache(10);
+        RequestSeries series = cache.get("https", "GET", 200, false, "/cache/generation", "");
+
+        seriesGeneration().incrementAndGet();
+
+        RequestSeries rebound = cache.get("https", "GET", 200, false, "/cache/generation", "");
+        Assert.assertNotSame(series, rebound);
+        Assert.assertSame(rebound, cache.get("https", "GET", 200, false, "/cache/generation", ""));
+    }
+
+    @Test
+    public void test_uncommon_methods_schemes_and_statuses_are_not_cached() {
+        RequestSeriesCache cache = new RequestSeriesCache(10);
+
+        assertNotCached(cache, "http", "PROPFIND", 200, false, "");
+        assertNotCached(cache, "ws", "GET", 200, false, "");
+        assertNotCached(cache, "http", "GET", 1024, true, "");
+        assertNotCached(cache, "http", "GET", -1, true, "");
+    }
+
+    @Test
+    public void test_requests_with_error_message_are_not_cached() {
+        assertNotCached(new RequestSeriesCache(10), "http", "GET", 500, true, "failure");
+    }
+
+    @Test
+    public void test_routes_over_max_routes_are_not_cached() {
+        RequestSeriesCache cache = new RequestSeriesCache(1);
+        RequestSeries first = cache.get("http", "GET", 200, false, "/cache/first", "");
+
+        RequestSeries other = cache.get("http", "GET", 200, false, "/cache/other", "");
+
+        Assert.assertNotSame(other, cache.get("http", "GET", 200, false, "/cache/other", ""));
+        Assert.assertSame(first, cache.get("http", "GET", 200, false, "/cache/first", ""));
+    }
+
+    private static void assertNotCached(RequestSeriesCache cache, String scheme, String method, int status,
+                                        boolean isError, String errorMessage) {
+        RequestSeries series = cache.get(scheme, method, status, isError, "/cache/uncommon", errorMessage);
+        Assert.assertNotNull(series);
+        Assert.assertNotSame(series, cache.get(scheme, method, status, isError, "/cache/uncommon", errorMessage));
+    }
+
+    /**
+     * Returns the generation incremented by {@link MonitorMetrics} whenever it removes series.
+     */
+    private static AtomicInteger seriesGeneration() throws Exception {
+        Field field = MonitorMetrics.class.getDeclaredField("seriesGeneration");
+        field.setAccessible(true);
+        return (AtomicInteger) field.get(MonitorMetrics.INSTANCE);
+    }
+}
@@ -0,0 +1,137 @@
+package br.com.labbs.monitor.filter;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+public class StreamingResponsesTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private CollectorRegistry registry;
+    private StreamingResponses streaming;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        streaming = new StreamingResponses(1000);
+        registry.register(streaming);
+    }
+
+    @Test
+    public void test_throughput_of_open_streams() throws IOException {
+        long start = System.nanoTime();
+        CountingServletResponse a = newResponse();
+        CountingServletResponse b = newResponse();
+        streaming.open("/events", a, start - 10 * SECOND);
+        streaming.open("/events", b, start - 10 * SECOND);
+
+        a.getOutputStream().write(new byte[1000]);
+        streaming.tick(start);
+        a.getOutputStream().write(new byte[3000]);
+        b.getOutputStream().write(new byte[1000]);
+        streaming.tick(start + 2 * SECOND);
+
+        Assert.assertEquals(2000.0, sample("http_stream_throughput_bytes_per_second", "/events"), 0);
+        Assert.assertEquals(2.0, sample("http_streams_in_progress", "/events"), 0);
+        Assert.assertEquals(0.0, sample("http_streams_stalled", "/events"), 0);
+    }
+
+    @Test
+    public void test_stalled_streams_and_short_requests() throws IOException {
+        long start = System.nanoTime();
+        CountingServletResponse stalled = newResponse();
+        CountingServletResponse recent = newResponse();
+        streaming.open("/export", stalled, start - 10 * SECOND);
+        streaming.open("/export", recent, start);
+
+        stalled.getOutputStream().write(new byte[10]);
+        streaming.tick(start);
+        recent.getOutputStream().write(new byte[10]);
+        streaming.tick(start + SECOND / 2);
+
+        Assert.assertEquals(1.0, sample("http_streams_in_progress", "/export"), 0);
+        Assert.assertEquals(1.0, sample("http_streams_stalled", "/export"), 0);
+    }
+
+    @Test
+    public void test_closed_streams_are_not_sampled() throws IOException {
+        long start = System.nanoTime();
+        CountingServletResponse response = newResponse();
+        streaming.open("/download", response, start - 10 * SECOND);
+        streaming.close(response);
+
+        streaming.tick(start);
+
+        Assert.assertNull(registry.getSampleValue("http_streams_in_progress", new String[]{"addr"},
+                new String[]{"/download"}));
+    }
+
+    @Test
+    public void test_bytes_of_streams_closed_between_ticks_are_counted() throws IOException {
+        long start = System.nanoTime();
+        CountingServletResponse response = newResponse();
+        streaming.open("/download", response, start - 10 * SECOND);
+
+        response.getOutputStream().write(new byte[1000]);
+        streaming.tick(start);
+        response.getOutputStream().write(new byte[4000]);
+        streaming.close(response);
+        streaming.tick(start + 2 * SECOND);
+
+        Assert.assertEquals(2000.0, sample("http_stream_throughput_bytes_per_second", "/download"), 0);
+        Assert.assertEquals(0.0, sample("http_streams_in_progress", "/download"), 0);
+    }
+
+    @Test
+    public void test_downloads_with_content_length_are_counted_while_open() throws IOException {
+        long start = System.nanoTime();
+        HttpServletResponse container = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(container.getOutputStream()).thenReturn(new NullStream());
+        CountingServletResponse response = new CountingServletResponse(container, false, false);
+        streaming.open("/files", response, start - 10 * SECOND);
+
+        response.setContentLength(1000000);
+        response.getOutputStream().write(new byte[3000]);
+        streaming.tick(start);
+        response.getOutputStream().write(new byte[2000]);
+        streaming.tick(start + SECOND);
+
+        Assert.assertEquals(2000.0, sample("http_stream_throughput_bytes_per_second", "/files"), 0);
+        Assert.assertEquals(0.0, sample("http_streams_stalled", "/files"), 0);
+        Assert.assertEquals(5000, response.getByteCount());
+    }
+
+    private double sample(String name, String route) {
+        return registry.getSampleValue(name, new String[]{"addr"}, new String[]{route});
+    }
+
+    private static CountingServletResponse newResponse() throws IOException {
+        HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(new NullStream());
+        return new CountingServletResponse(response);
+    }
+
+    private static final class NullStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package br.com.labbs.monitor.filter;
+
+import org.mockito.Mockito;
+
+import javax.servlet.FilterConfig;
+
+/**
+ * The {@link MetricsCollectorFilter} shared by the tests, as the metrics can only be initialized once per JVM.
+ */
+final class TestFilters {
+
+    private static MetricsCollectorFilter filter;
+
+    private TestFilters() {
+    }
+
+    /**
+     * Returns the filter, initializing it and the metrics with the 0.1 and 1 buckets on first use.
+     *
+     * @return initialized filter
+     */
+    static synchronized MetricsCollectorFilter initialized() {
+        if (filter == null) {
+            FilterConfig config = Mockito.mock(FilterConfig.class);
+            Mockito.when(config.getInitParameter("buckets")).thenReturn("0.1,1");
+            Mockito.when(config.getInitParameter("export-jvm-metrics")).thenReturn("false");
+            MetricsCollectorFilter initialized = new MetricsCollectorFilter();
+            initialized.init(config);
+            filter = initialized;
+        }
+        return filter;
+    }
+}
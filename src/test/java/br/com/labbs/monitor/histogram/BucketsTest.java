@@ -0,0 +1,39 @@
+package br.com.labbs.monitor.histogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BucketsTest {
+
+    @Test
+    public void test_linear_buckets() {
+        Assert.assertArrayEquals(new double[]{0.1, 0.3, 0.5, 0.7}, Buckets.linear(0.1, 0.2, 4), 1e-12);
+    }
+
+    @Test
+    public void test_exponential_buckets() {
+        Assert.assertArrayEquals(new double[]{0.0001, 0.001, 0.01}, Buckets.exponential(0.0001, 10, 3), 1e-12);
+    }
+
+    @Test
+    public void test_parse_layouts() {
+        Assert.assertArrayEquals(new double[]{1, 2, 3}, Buckets.parse("linear:1,1,3"), 0);
+        Assert.assertArrayEquals(new double[]{0.01, 0.02, 0.04}, Buckets.parse(" exponential:0.01, 2, 3 "), 1e-12);
+        Assert.assertArrayEquals(new double[]{0.5, 1, 2.5}, Buckets.parse("0.5, 1,2.5"), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_explicit_buckets_must_be_increasing() {
+        Buckets.explicit(1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_exponential_factor_must_be_greater_than_one() {
+        Buckets.parse("exponential:0.01,1,10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_count_must_be_an_integer() {
+        Buckets.parse("linear:0,1,2.5");
+    }
+}
@@ -0,0 +1,179 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExponentialHistogramTest {
+
+    private CollectorRegistry registry;
+    private ExponentialHistogram histogram;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        histogram = ExponentialHistogram.build().name("h").help("h").labelNames("addr").register(registry);
+    }
+
+    @After
+    public void tearDown() {
+        ExponentialHistogram.setHighResolution(false);
+    }
+
+    @Test
+    public void test_values_fall_in_their_bucket() {
+        double[] values = {1e-6, 0.001, 0.0123, 0.5, 1, 2, 3, 1024, 123456.789};
+        for (int schema = ExponentialHistogram.MIN_SCHEMA; schema <= ExponentialHistogram.MAX_SCHEMA; schema++) {
+            for (double value : values) {
+                int index = ExponentialHistogram.index(value, schema);
+                Assert.assertTrue(value + " at schema " + schema,
+                        value <= ExponentialHistogram.upperBound(index, schema) * (1 + 1e-12));
+                Assert.assertTrue(value + " at schema " + schema,
+                        value > ExponentialHistogram.upperBound(index - 1, schema) * (1 - 1e-12));
+            }
+        }
+        Assert.assertEquals(1, ExponentialHistogram.index(2, 0));
+        Assert.assertEquals(2, ExponentialHistogram.index(2.5, 0));
+        Assert.assertEquals(1, ExponentialHistogram.index(4, -1));
+        Assert.assertEquals(2, ExponentialHistogram.index(4.5, -1));
+    }
+
+    @Test
+    public void test_classic_export_has_contiguous_buckets() {
+        histogram.labels("/a").observe(0);
+        histogram.labels("/a").observe(0.3);
+        histogram.labels("/a").observe(1);
+        histogram.labels("/a").observe(3);
+
+        Assert.assertEquals(1.0, bucket("/a", "0.0"), 0);
+        Assert.assertEquals(2.0, bucket("/a", "0.5"), 0);
+        Assert.assertEquals(2.0, bucket("/a", "0.7071067811865476"), 0);
+        Assert.assertEquals(3.0, bucket("/a", "1.0"), 0);
+        Assert.assertEquals(3.0, bucket("/a", "2.0"), 0);
+        Assert.assertEquals(4.0, bucket("/a", "4.0"), 0);
+        Assert.assertEquals(4.0, bucket("/a", "+Inf"), 0);
+        Assert.assertNull(bucket("/a", "5.656854249492381"));
+        Assert.assertEquals(4.3, registry.getSampleValue("h_sum", new String[]{"addr"}, new String[]{"/a"}), 1e-9);
+    }
+
+    @Test
+    public void test_classic_export_range_is_shared_by_the_series() {
+        histogram.labels("/a").observe(0.3);
+        histogram.labels("/b").observe(3);
+
+        Assert.assertEquals(1.0, bucket("/a", "0.3535533905932738"), 0);
+        Assert.assertEquals(1.0, bucket("/a", "4.0"), 0);
+        Assert.assertEquals(0.0, bucket("/b", "0.3535533905932738"), 0);
+        Assert.assertEquals(1.0, bucket("/b", "4.0"), 0);
+        Assert.assertNull(bucket("/a", "0.0"));
+    }
+
+    @Test
+    public void test_classic_export_range_does_not_shrink() {
+        histogram.labels("/a").observe(0.3);
+        histogram.labels("/a").observe(3);
+        Assert.assertEquals(2.0, bucket("/a", "4.0"), 0);
+
+        histogram.clear();
+        histogram.labels("/a").observe(1);
+
+        Assert.assertEquals(0.0, bucket("/a", "0.3535533905932738"), 0);
+        Assert.assertEquals(1.0, bucket("/a", "1.0"), 0);
+        Assert.assertEquals(1.0, bucket("/a", "4.0"), 0);
+    }
+
+    @Test
+    public void test_classic_export_with_fixed_range() {
+        CollectorRegistry fixedRegistry = new CollectorRegistry();
+        ExponentialHistogram fixed = ExponentialHistogram.build().name("f").help("f").classicRange(0.5, 2)
+                .register(fixedRegistry);
+        fixed.observe(0.01);
+        fixed.observe(1);
+        fixed.observe(100);
+
+        Assert.assertEquals(1.0, fixedRegistry.getSampleValue("f_bucket", new String[]{"le"},
+                new String[]{"0.5"}), 0);
+        Assert.assertEquals(2.0, fixedRegistry.getSampleValue("f_bucket", new String[]{"le"},
+                new String[]{"2.0"}), 0);
+        Assert.assertNull(fixedRegistry.getSampleValue("f_bucket", new String[]{"le"},
+                new String[]{"0.3535533905932738"}));
+        Assert.assertNull(fixedRegistry.getSampleValue("f_bucket", new String[]{"le"},
+                new String[]{"2.8284271247461903"}));
+        Assert.assertEquals(3.0, fixedRegistry.getSampleValue("f_bucket", new String[]{"le"},
+                new String[]{"+Inf"}), 0);
+    }
+
+    @Test
+    public void test_classic_export_range_is_capped() {
+        CollectorRegistry cappedRegistry = new CollectorRegistry();
+        ExponentialHistogram capped = ExponentialHistogram.build().name("c").help("c").labelNames("addr")
+                .maxClassicBuckets(4).register(cappedRegistry);
+        capped.labels("/a").observe(1);
+        capped.labels("/b").observe(2);
+        Assert.assertEquals(3, leCount(cappedRegistry.metricFamilySamples().nextElement()));
+
+        // an outlier widens the buckets instead of adding le series
+        capped.labels("/b").observe(1000);
+
+        Assert.assertEquals(4, leCount(cappedRegistry.metricFamilySamples().nextElement()));
+        Assert.assertEquals(1.0, cappedRegistry.getSampleValue("c_bucket", new String[]{"addr", "le"},
+                new String[]{"/a", "1.0"}), 0);
+        Assert.assertEquals(2.0, cappedRegistry.getSampleValue("c_bucket", new String[]{"addr", "le"},
+                new String[]{"/b", "4096.0"}), 0);
+    }
+
+    @Test
+    public void test_high_resolution_export() {
+        histogram.labels("/a").observe(1.05);
+
+        ExponentialHistogram.setHighResolution(true);
+
+        Assert.assertEquals(1.0, bucket("/a", "1.0905077326652577"), 0);
+        Assert.assertNull(bucket("/a", "1.0"));
+    }
+
+    @Test
+    public void test_schema_is_decreased_to_fit_max_buckets() {
+        ExponentialHistogram small = ExponentialHistogram.build().name("s").help("s").schema(3).maxBuckets(4)
+                .create();
+        for (int i = 1; i <= 1000; i++) {
+            small.observe(i / 100.0);
+        }
+
+        ExponentialHistogram.Snapshot snapshot = small.labels().get();
+        Assert.assertTrue(snapshot.getBucketCount() <= 4);
+        Assert.assertTrue(snapshot.getSchema() < 3);
+        Assert.assertEquals(1000, snapshot.getCount());
+        double[] last = snapshot.cumulativeBuckets(ExponentialHistogram.MAX_SCHEMA, false).get(
+                snapshot.getBucketCount() - 1);
+        Assert.assertEquals(1000, last[1], 0);
+        Assert.assertTrue(last[0] >= 10);
+    }
+
+    @Test
+    public void test_schema_for_growth_factor() {
+        Assert.assertEquals(0, ExponentialHistogram.schemaForGrowthFactor(2));
+        Assert.assertEquals(1, ExponentialHistogram.schemaForGrowthFactor(1.5));
+        Assert.assertEquals(3, ExponentialHistogram.schemaForGrowthFactor(1.1));
+        Assert.assertEquals(ExponentialHistogram.MAX_SCHEMA, ExponentialHistogram.schemaForGrowthFactor(1.0001));
+        Assert.assertEquals(ExponentialHistogram.MIN_SCHEMA, ExponentialHistogram.schemaForGrowthFactor(1e9));
+    }
+
+    private static int leCount(Collector.MetricFamilySamples family) {
+        int count = 0;
+        for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+            if (sample.name.endsWith("_bucket") && "/a".equals(sample.labelValues.get(0))
+                    && !"+Inf".equals(sample.labelValues.get(1))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Double bucket(String addr, String le) {
+        return registry.getSampleValue("h_bucket", new String[]{"addr", "le"}, new String[]{addr, le});
+    }
+}
@@ -0,0 +1,68 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RollingSummaryTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private CollectorRegistry registry;
+    private RollingSummary summary;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        summary = RollingSummary.build().name("w").help("w").labelNames("addr").windowSeconds(60).slices(6)
+                .register(registry);
+    }
+
+    @Test
+    public void test_old_slices_leave_the_window() {
+        RollingSummary.Child child = summary.labels("/a");
+        long start = 1000 * SECOND;
+        child.observe(5, start);
+        child.observe(0.1, start + 30 * SECOND);
+
+        Assert.assertEquals(2, child.window(start + 55 * SECOND).getCount());
+        RelativeErrorSketch later = child.window(start + 65 * SECOND);
+        Assert.assertEquals(1, later.getCount());
+        Assert.assertEquals(0.1, later.quantile(0.99), 0.1 * 0.01);
+        Assert.assertEquals(0, child.window(start + 95 * SECOND).getCount());
+    }
+
+    @Test
+    public void test_reused_slices_are_cleared() {
+        RollingSummary.Child child = summary.labels("/a");
+        long start = -7 * SECOND;
+        for (int i = 0; i < 10; i++) {
+            child.observe(1, start + i * 60 * SECOND);
+        }
+
+        RelativeErrorSketch window = child.window(start + 9 * 60 * SECOND);
+        Assert.assertEquals(1, window.getCount());
+        Assert.assertEquals(10, child.getCount());
+    }
+
+    @Test
+    public void test_export_as_summary() {
+        summary.labels("/a").observe(0.2);
+        summary.labels("/a").observe(0.4);
+
+        Assert.assertEquals(0.2, registry.getSampleValue("w", new String[]{"addr", "quantile"},
+                new String[]{"/a", "0.5"}), 0.2 * 0.01);
+        Assert.assertEquals(2.0, registry.getSampleValue("w_count", new String[]{"addr"}, new String[]{"/a"}), 0);
+        Assert.assertEquals(0.6, registry.getSampleValue("w_sum", new String[]{"addr"}, new String[]{"/a"}), 1e-9);
+        Assert.assertEquals(2, summary.window("/a").getCount());
+        summary.labels("/b").observe(1);
+        Assert.assertEquals(3, summary.windowOfAll().getCount());
+    }
+
+    @Test
+    public void test_window_read_does_not_create_the_series() {
+        Assert.assertEquals(0, summary.window("/missing").getCount());
+        Assert.assertNull(registry.getSampleValue("w_count", new String[]{"addr"}, new String[]{"/missing"}));
+    }
+}
@@ -0,0 +1,78 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouteGroupHistogramTest {
+
+    private CollectorRegistry registry;
+    private RouteGroupHistogram histogram;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        histogram = RouteGroupHistogram.build().name("h").help("h").labelNames("method", "addr")
+                .group("/search/**", Buckets.exponential(0.01, 10, 4))
+                .group("/static/**", Buckets.exponential(0.0001, 10, 3))
+                .buckets(0.1, 1)
+                .register(registry);
+    }
+
+    @Test
+    public void test_series_have_the_buckets_of_their_route_group() {
+        histogram.labels("GET", "/search/users").observe(2);
+        histogram.labels("GET", "/static/app.js").observe(0.0005);
+        histogram.labels("GET", "/login").observe(0.5);
+
+        Assert.assertEquals(0.0, bucket("/search/users", "1.0"), 0);
+        Assert.assertEquals(1.0, bucket("/search/users", "10.0"), 0);
+        Assert.assertNull(bucket("/search/users", "0.001"));
+        Assert.assertEquals(0.0, bucket("/static/app.js", "1.0E-4"), 0);
+        Assert.assertEquals(1.0, bucket("/static/app.js", "0.001"), 0);
+        Assert.assertNull(bucket("/static/app.js", "10.0"));
+        Assert.assertEquals(1.0, bucket("/login", "1.0"), 0);
+        Assert.assertEquals(1.0, bucket("/login", "+Inf"), 0);
+        Assert.assertNull(bucket("/login", "10.0"));
+    }
+
+    @Test
+    public void test_upper_bounds_of_a_route() {
+        Assert.assertArrayEquals(new double[]{0.0001, 0.001, 0.01, Double.POSITIVE_INFINITY},
+                histogram.getUpperBounds("/static/img/logo.png"), 1e-12);
+        Assert.assertArrayEquals(new double[]{0.1, 1, Double.POSITIVE_INFINITY},
+                histogram.getUpperBounds("/searching"), 0);
+    }
+
+    @Test
+    public void test_route_groups_are_matched_after_the_context_path() {
+        RouteGroupHistogram deployed = RouteGroupHistogram.build().name("d").help("d").labelNames("method", "addr")
+                .group("/search/**", Buckets.exponential(0.01, 10, 4))
+                .buckets(0.1, 1)
+                .contextPath("/shop")
+                .register(registry);
+
+        deployed.labels("GET", "/shop/search/users").observe(2);
+
+        Assert.assertEquals(1.0, registry.getSampleValue("d_bucket", new String[]{"method", "addr", "le"},
+                new String[]{"GET", "/shop/search/users", "10.0"}), 0);
+        Assert.assertArrayEquals(new double[]{0.01, 0.1, 1, 10, Double.POSITIVE_INFINITY},
+                deployed.getUpperBounds("/shop/search"), 1e-12);
+        Assert.assertArrayEquals(new double[]{0.1, 1, Double.POSITIVE_INFINITY},
+                deployed.getUpperBounds("/shop/login"), 0);
+        // a path outside the context path is matched whole
+        Assert.assertArrayEquals(new double[]{0.01, 0.1, 1, 10, Double.POSITIVE_INFINITY},
+                deployed.getUpperBounds("/search/users"), 1e-12);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_addr_label_is_required() {
+        RouteGroupHistogram.build().name("x").help("x").labelNames("method").create();
+    }
+
+    private Double bucket(String addr, String le) {
+        return registry.getSampleValue("h_bucket", new String[]{"method", "addr", "le"},
+                new String[]{"GET", addr, le});
+    }
+}
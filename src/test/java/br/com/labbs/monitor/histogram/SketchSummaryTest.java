@@ -0,0 +1,122 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SketchSummaryTest {
+
+    private CollectorRegistry registry;
+    private SketchSummary summary;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        summary = SketchSummary.build().name("s").help("s").labelNames("addr", "status").register(registry);
+    }
+
+    @Test
+    public void test_quantiles_are_within_relative_accuracy() {
+        Random random = new Random(42);
+        double[] values = new double[100000];
+        RelativeErrorSketch sketch = new RelativeErrorSketch();
+        for (int i = 0; i < values.length; i++) {
+            // log-normal latencies from about 1ms to several seconds
+            values[i] = Math.exp(random.nextGaussian() * 1.5 - 4);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double quantile : new double[]{0, 0.5, 0.9, 0.99, 0.999, 1}) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            Assert.assertEquals("quantile " + quantile, expected, sketch.quantile(quantile), expected * 0.01);
+        }
+        Assert.assertEquals(values.length, sketch.getCount());
+    }
+
+    @Test
+    public void test_export_as_summary() {
+        for (int i = 1; i <= 1000; i++) {
+            summary.labels("/a", "200").observe(i / 1000.0);
+        }
+
+        Assert.assertEquals(0.5, quantile("/a", "200", "0.5"), 0.5 * 0.01);
+        Assert.assertEquals(0.99, quantile("/a", "200", "0.99"), 0.99 * 0.01);
+        Assert.assertEquals(0.999, quantile("/a", "200", "0.999"), 0.999 * 0.01);
+        Assert.assertEquals(1000.0, registry.getSampleValue("s_count", new String[]{"addr", "status"},
+                new String[]{"/a", "200"}), 0);
+        Assert.assertEquals(500.5, registry.getSampleValue("s_sum", new String[]{"addr", "status"},
+                new String[]{"/a", "200"}), 1e-9);
+    }
+
+    @Test
+    public void test_merge_series_of_a_route() {
+        for (int i = 1; i <= 900; i++) {
+            summary.labels("/a", "200").observe(0.01);
+        }
+        for (int i = 1; i <= 100; i++) {
+            summary.labels("/a", "500").observe(2);
+            summary.labels("/b", "200").observe(30);
+        }
+
+        RelativeErrorSketch route = summary.merge(0, "/a");
+        Assert.assertEquals(1000, route.getCount());
+        Assert.assertEquals(0.01, route.quantile(0.5), 0.01 * 0.01);
+        Assert.assertEquals(2, route.quantile(0.95), 2 * 0.01);
+        Assert.assertEquals(1100, summary.merge(0).getCount());
+    }
+
+    @Test
+    public void test_written_sketches_are_merged() throws IOException {
+        RelativeErrorSketch pod1 = new RelativeErrorSketch();
+        RelativeErrorSketch pod2 = new RelativeErrorSketch();
+        for (int i = 1; i <= 1000; i++) {
+            pod1.add(i);
+            pod2.add(i + 1000);
+        }
+        pod2.add(0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        pod2.writeTo(new DataOutputStream(bytes));
+        RelativeErrorSketch read = RelativeErrorSketch.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        pod1.merge(read);
+
+        Assert.assertEquals(2001, pod1.getCount());
+        Assert.assertEquals(0, pod1.quantile(0), 0);
+        Assert.assertEquals(1000, pod1.quantile(0.5), 1000 * 0.01);
+        Assert.assertEquals(1980, pod1.quantile(0.99), 1980 * 0.01);
+    }
+
+    @Test
+    public void test_lowest_bins_are_collapsed() {
+        RelativeErrorSketch sketch = new RelativeErrorSketch(0.01, 100);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(Math.pow(1.01, i));
+        }
+
+        Assert.assertEquals(100, sketch.getBinCount());
+        Assert.assertEquals(Math.pow(1.01, 999), sketch.quantile(1), Math.pow(1.01, 999) * 0.01);
+        Assert.assertEquals(Math.pow(1.01, 990), sketch.quantile(0.99), Math.pow(1.01, 990) * 0.01);
+        Assert.assertEquals(1000, sketch.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_sketches_with_different_accuracy_are_not_merged() {
+        new RelativeErrorSketch(0.01, 100).merge(new RelativeErrorSketch(0.02, 100));
+    }
+
+    private double quantile(String addr, String status, String quantile) {
+        return registry.getSampleValue("s", new String[]{"addr", "status", "quantile"},
+                new String[]{addr, status, quantile});
+    }
+}
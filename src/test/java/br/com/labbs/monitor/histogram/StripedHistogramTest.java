@@ -0,0 +1,67 @@
+package br.com.labbs.monitor.histogram;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class StripedHistogramTest {
+
+    private CollectorRegistry registry;
+    private StripedHistogram histogram;
+
+    @Before
+    public void setUp() {
+        registry = new CollectorRegistry();
+        histogram = StripedHistogram.build().name("h").help("h").labelNames("addr").buckets(0.1, 1)
+                .register(registry);
+    }
+
+    @Test
+    public void test_buckets_are_cumulative() {
+        histogram.labels("/a").observe(0.05);
+        histogram.labels("/a").observe(0.1);
+        histogram.labels("/a").observe(0.5);
+        histogram.labels("/a").observe(5);
+
+        Assert.assertEquals(2.0, bucket("/a", "0.1"), 0);
+        Assert.assertEquals(3.0, bucket("/a", "1.0"), 0);
+        Assert.assertEquals(4.0, bucket("/a", "+Inf"), 0);
+        Assert.assertEquals(4.0, registry.getSampleValue("h_count", new String[]{"addr"}, new String[]{"/a"}), 0);
+        Assert.assertEquals(5.65, registry.getSampleValue("h_sum", new String[]{"addr"}, new String[]{"/a"}), 1e-9);
+    }
+
+    @Test
+    public void test_stripes_are_merged_when_collected() throws InterruptedException {
+        final int threads = 16;
+        final int observations = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < observations; i++) {
+                        histogram.labels("/a").observe(0.5);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        Assert.assertEquals(0.0, bucket("/a", "0.1"), 0);
+        Assert.assertEquals(threads * observations, bucket("/a", "+Inf"), 0);
+        Assert.assertEquals(threads * observations * 0.5,
+                registry.getSampleValue("h_sum", new String[]{"addr"}, new String[]{"/a"}), 1e-6);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_buckets_must_be_increasing() {
+        StripedHistogram.build().name("x").help("x").buckets(1, 0.5).create();
+    }
+
+    private double bucket(String addr, String le) {
+        return registry.getSampleValue("h_bucket", new String[]{"addr", "le"}, new String[]{addr, le});
+    }
+}